@@ -43,21 +43,23 @@ import static javax.xml.xquery.XQItemType.XQITEMKIND_SCHEMA_ATTRIBUTE;
 import static javax.xml.xquery.XQItemType.XQITEMKIND_SCHEMA_ELEMENT;
 import static javax.xml.xquery.XQItemType.XQITEMKIND_TEXT;
 
-import java.io.StringWriter;
 import java.math.BigInteger;
 
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.TransformerFactoryConfigurationError;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 import javax.xml.xquery.XQException;
 import javax.xml.xquery.XQItemType;
 import javax.xml.xquery.XQResultSequence;
 
+import net.sf.saxon.dom.NodeOverNodeInfo;
+import net.sf.saxon.om.StandardNames;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmNodeKind;
+import net.sf.saxon.value.AtomicValue;
+
 import org.springframework.util.StringUtils;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Node;
@@ -253,6 +255,127 @@ public abstract class AbstractXQueryResultMapper<T> implements XQueryResultMappe
 		);
 	}
 
+	/**
+	 * The {@link XdmItem} counterpart of {@link #convertToNumber(XQItemType, XQResultSequence)}
+	 * used for the results of the {@link SaxonXQueryEngine}
+	 *
+	 * @param item
+	 * @return the appropriate {@link Number} implementation or null if cannot be converted to number
+	 */
+	protected Number convertToNumber(XdmItem item) {
+		Number value = null;
+		if(item.isAtomicValue()) {
+			int baseType = getTypeFingerprint(item);
+			String strValue = item.getStringValue();
+			if(baseType == StandardNames.XS_DOUBLE) {
+				value = Double.valueOf(strValue);
+			}
+			else if(baseType == StandardNames.XS_FLOAT) {
+				value = Float.valueOf(strValue);
+			}
+			else if(baseType == StandardNames.XS_DECIMAL) {
+				value = Double.valueOf(strValue);
+			}
+			else if(baseType == StandardNames.XS_INT
+					|| baseType == StandardNames.XS_NEGATIVE_INTEGER
+					|| baseType == StandardNames.XS_POSITIVE_INTEGER
+					|| baseType == StandardNames.XS_NON_NEGATIVE_INTEGER
+					|| baseType == StandardNames.XS_NON_POSITIVE_INTEGER
+					|| baseType == StandardNames.XS_UNSIGNED_INT) {
+				value = Integer.valueOf(strValue);
+			}
+			else if(baseType == StandardNames.XS_INTEGER) {
+				value = new BigInteger(strValue);
+			}
+			else if(baseType == StandardNames.XS_LONG
+					|| baseType == StandardNames.XS_UNSIGNED_LONG) {
+				value = Long.valueOf(strValue);
+			}
+			else if(baseType == StandardNames.XS_SHORT
+					|| baseType == StandardNames.XS_UNSIGNED_SHORT) {
+				value = Short.valueOf(strValue);
+			}
+			else if(baseType == StandardNames.XS_STRING) {
+				value = convertStringToNumber(strValue);
+			}
+		}
+		else if(isTextOrAttribute(item)) {
+			value = convertStringToNumber(item.getStringValue());
+		}
+		return value;
+	}
+
+	/**
+	 * The {@link XdmItem} counterpart of {@link #convertToString(XQItemType, XQResultSequence)}
+	 * used for the results of the {@link SaxonXQueryEngine}
+	 *
+	 * @param item
+	 * @return
+	 */
+	protected String convertToString(XdmItem item) {
+		String value = null;
+		if(item.isAtomicValue()) {
+			if(getTypeFingerprint(item) == StandardNames.XS_STRING) {
+				value = item.getStringValue();
+			}
+		}
+		else if(isTextOrAttribute(item)) {
+			value = item.getStringValue();
+		}
+		return value;
+	}
+
+	/**
+	 * The {@link XdmItem} counterpart of {@link #convertToBoolean(XQItemType, XQResultSequence)}
+	 * used for the results of the {@link SaxonXQueryEngine}
+	 *
+	 * @param item
+	 * @return
+	 */
+	protected Boolean convertToBoolean(XdmItem item) {
+		Boolean value = null;
+		if(item.isAtomicValue()) {
+			int baseType = getTypeFingerprint(item);
+			if(baseType == StandardNames.XS_BOOLEAN || baseType == StandardNames.XS_STRING) {
+				value = Boolean.valueOf(item.getStringValue());
+			}
+		}
+		else if(isTextOrAttribute(item)) {
+			value = Boolean.valueOf(item.getStringValue());
+		}
+		return value;
+	}
+
+	/**
+	 * Returns true if the given {@link XdmItem} is a node
+	 *
+	 * @param item
+	 * @return
+	 */
+	protected boolean isNodeType(XdmItem item) {
+		return !item.isAtomicValue();
+	}
+
+	/**
+	 * Gets the DOM {@link Node} view of the given {@link XdmNode}, this is the same
+	 * view returned by the Saxon XQJ implementation
+	 *
+	 * @param node
+	 * @return
+	 */
+	protected Node toDomNode(XdmNode node) {
+		return NodeOverNodeInfo.wrap(node.getUnderlyingNode());
+	}
+
+	private boolean isTextOrAttribute(XdmItem item) {
+		XdmNodeKind kind = ((XdmNode)item).getNodeKind();
+		return kind == XdmNodeKind.TEXT || kind == XdmNodeKind.ATTRIBUTE;
+	}
+
+	private int getTypeFingerprint(XdmItem item) {
+		return ((AtomicValue)((XdmAtomicValue)item).getUnderlyingValue()).getTypeLabel().getFingerprint();
+	}
+
 	/**Transforms the given {@link Node} to a String
 	 * @param n
 	 * @return
@@ -263,14 +386,16 @@ public abstract class AbstractXQueryResultMapper<T> implements XQueryResultMappe
 	protected String transformNodeToString(Node n)
 			throws TransformerConfigurationException,
 			TransformerFactoryConfigurationError, TransformerException {
-		String value;
-		StringWriter writer = new StringWriter();
-		Transformer transformer = TransformerFactory.newInstance().newTransformer();
-		if(formatOutput)
-			transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-		transformer.transform( new DOMSource(n), new StreamResult(writer));
-		value = writer.toString();
-		return value;
+		return NodeSerializer.getInstance(formatOutput).serialize(n);
+	}
+
+	/**Transforms the given {@link XdmNode} to a String, without a DOM in between
+	 * @param n
+	 * @return
+	 * @throws TransformerException
+	 */
+	protected String transformNodeToString(XdmNode n) throws TransformerException {
+		return NodeSerializer.getInstance(formatOutput).serialize(n.getUnderlyingNode());
 	}
 
 	/**
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery;
+
+import java.io.PrintStream;
+
+import net.sf.saxon.Controller;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.lib.TraceListener;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.trace.InstructionInfo;
+
+import org.springframework.integration.MessagingException;
+
+/**
+ * Stops the evaluation of an XQuery compiled with tracing at the next traced instruction
+ * once cancelled, the exception thrown is propagated by Saxon as is. Used by the Saxon
+ * engine and by the XQJ engine over the Saxon XQJ implementation
+ *
+ * @author Amol Nayak
+ *
+ */
+class CancellingTraceListener implements TraceListener {
+
+	private volatile boolean cancelled;
+
+	/**
+	 * Cancels the evaluation, stopped when it next enters an instruction or an item
+	 */
+	void cancel() {
+		cancelled = true;
+	}
+
+	public void enter(InstructionInfo instruction, XPathContext context) {
+		checkCancelled();
+	}
+
+	public void leave(InstructionInfo instruction) {
+	}
+
+	//the items are raw in the Saxon interface
+	@SuppressWarnings("rawtypes")
+	public void startCurrentItem(Item item) {
+		checkCancelled();
+	}
+
+	@SuppressWarnings("rawtypes")
+	public void endCurrentItem(Item item) {
+	}
+
+	public void setOutputDestination(PrintStream stream) {
+	}
+
+	public void open(Controller controller) {
+	}
+
+	public void close() {
+	}
+
+	private void checkCancelled() {
+		if(cancelled) {
+			throw new MessagingException("The execution of the XQuery is cancelled");
+		}
+	}
+}
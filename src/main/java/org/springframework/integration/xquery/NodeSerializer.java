@@ -0,0 +1,132 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery;
+
+import java.io.StringWriter;
+import java.util.Properties;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import net.sf.saxon.dom.NodeOverNodeInfo;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.query.QueryResult;
+
+import org.w3c.dom.Node;
+
+/**
+ * Serializes the result nodes to a String. The {@link TransformerFactory} is looked up
+ * once and every thread reuses its own identity {@link Transformer} with the output
+ * properties already set. The Saxon nodes, including the DOM views over them returned
+ * by the Saxon XQJ implementation, are serialized directly by Saxon without going
+ * through a {@link DOMSource}.
+ *
+ * @author Amol Nayak
+ *
+ */
+public class NodeSerializer {
+
+	private static final NodeSerializer DEFAULT = new NodeSerializer(false);
+
+	private static final NodeSerializer INDENTING = new NodeSerializer(true);
+
+	//the lookup of the factory is expensive, done once when first needed
+	private static volatile TransformerFactory transformerFactory;
+
+	private final Properties outputProperties = new Properties();
+
+	private final ThreadLocal<Transformer> transformers = new ThreadLocal<Transformer>();
+
+	/**
+	 * Creates the serializer
+	 *
+	 * @param indent true if the serialized XML is to be indented
+	 */
+	public NodeSerializer(boolean indent) {
+		if(indent) {
+			outputProperties.setProperty(OutputKeys.INDENT, "yes");
+		}
+	}
+
+	/**
+	 * Gets the shared serializer
+	 *
+	 * @param indent true if the serialized XML is to be indented
+	 * @return
+	 */
+	public static NodeSerializer getInstance(boolean indent) {
+		return indent ? INDENTING : DEFAULT;
+	}
+
+	/**
+	 * Serializes the given DOM {@link Node}
+	 *
+	 * @param node
+	 * @return
+	 * @throws TransformerException
+	 */
+	public String serialize(Node node) throws TransformerException {
+		if(node instanceof NodeOverNodeInfo) {
+			return serialize(((NodeOverNodeInfo)node).getUnderlyingNodeInfo());
+		}
+		Transformer transformer = transformers.get();
+		if(transformer == null) {
+			transformer = newTransformer();
+		}
+		else {
+			//taken out while in use, a failed transformer is not reused
+			transformers.remove();
+		}
+		StringWriter writer = new StringWriter();
+		transformer.transform(new DOMSource(node), new StreamResult(writer));
+		transformers.set(transformer);
+		return writer.toString();
+	}
+
+	/**
+	 * Serializes the given Saxon {@link NodeInfo}
+	 *
+	 * @param node
+	 * @return
+	 * @throws TransformerException
+	 */
+	public String serialize(NodeInfo node) throws TransformerException {
+		StringWriter writer = new StringWriter();
+		QueryResult.serialize(node, new StreamResult(writer), outputProperties);
+		return writer.toString();
+	}
+
+	private Transformer newTransformer() throws TransformerException {
+		TransformerFactory factory = transformerFactory;
+		if(factory == null) {
+			factory = TransformerFactory.newInstance();
+			transformerFactory = factory;
+		}
+		Transformer transformer;
+		//the factory is not guaranteed to be thread safe
+		synchronized (factory) {
+			transformer = factory.newTransformer();
+		}
+		if(!outputProperties.isEmpty()) {
+			transformer.setOutputProperties(outputProperties);
+		}
+		return transformer;
+	}
+}
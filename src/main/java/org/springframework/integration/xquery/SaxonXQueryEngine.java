@@ -0,0 +1,586 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.transform.Source;
+
+import net.sf.saxon.dom.NodeOverNodeInfo;
+import net.sf.saxon.expr.Expression;
+import net.sf.saxon.expr.StaticProperty;
+import net.sf.saxon.expr.instruct.GlobalParam;
+import net.sf.saxon.expr.instruct.GlobalVariable;
+import net.sf.saxon.expr.parser.ExpressionTool;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.query.XQueryExpression;
+import net.sf.saxon.s9api.DocumentBuilder;
+import net.sf.saxon.s9api.ItemType;
+import net.sf.saxon.s9api.ItemTypeFactory;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.SaxonApiUncheckedException;
+import net.sf.saxon.s9api.XQueryCompiler;
+import net.sf.saxon.s9api.XQueryEvaluator;
+import net.sf.saxon.s9api.XQueryExecutable;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmValue;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.AtomicType;
+import net.sf.saxon.type.TypeHierarchy;
+import net.sf.saxon.value.Cardinality;
+import net.sf.saxon.value.SequenceType;
+
+import org.springframework.integration.MessagingException;
+import org.springframework.util.Assert;
+import org.w3c.dom.Node;
+
+/**
+ * The {@link XQueryEngine} that uses the native Saxon s9api. The XQuery is compiled
+ * once to a thread safe {@link XQueryExecutable} and every execution only loads a new
+ * {@link XQueryEvaluator}, without the wrapping done by the XQJ layer.
+ * The result mapper used with this engine needs to implement {@link XdmResultMapper}.
+ *
+ * @author Amol Nayak
+ *
+ */
+public class SaxonXQueryEngine implements XQueryEngine {
+
+	//shared by the engines and the XQJ data sources created by default, the nodes built by
+	//one of them are then used by the others without being copied
+	static final Processor DEFAULT_PROCESSOR = new Processor(false);
+
+	private final Processor processor;
+
+	private final DocumentBuilder documentBuilder;
+
+	private volatile XQueryExecutable executable;
+
+	private volatile List<String> externalVariableNames;
+
+	//resolved once on compilation, in the order of the external variable names
+	private volatile QName[] externalVariableQNames;
+
+	//the types the variables are declared with in the XQuery
+	private volatile SequenceType[] externalVariableDeclaredTypes;
+
+	private volatile boolean contextItemUsed = true;
+
+	//the atomic type the String values are cast to, null for the others
+	private volatile ItemType[] externalVariableAtomicTypes;
+
+	private volatile boolean cancellable;
+
+	//the executions in progress, by the thread executing them, to be cancelled
+	private final ConcurrentMap<Thread, CancellingTraceListener> runningExecutions =
+		new ConcurrentHashMap<Thread, CancellingTraceListener>();
+
+	/**
+	 * The default constructor that uses the Saxon-HE {@link Processor} shared by the engines
+	 * and XQJ data sources created by default, so that the {@link XdmNode}s are passed
+	 * between them without being copied
+	 */
+	public SaxonXQueryEngine() {
+		this(DEFAULT_PROCESSOR);
+	}
+
+	/**
+	 * The constructor that accepts the {@link Processor} to be used
+	 *
+	 * @param processor
+	 */
+	public SaxonXQueryEngine(Processor processor) {
+		Assert.notNull(processor, "Provide a non null Saxon Processor");
+		this.processor = processor;
+		this.documentBuilder = processor.newDocumentBuilder();
+	}
+
+	public void compile(String xQuery) {
+		Assert.notNull(xQuery, "Provide a non null XQuery");
+		try {
+			XQueryCompiler compiler = processor.newXQueryCompiler();
+			//the traced instructions let the cancelled executions be stopped
+			compiler.setCompileWithTracing(cancellable);
+			executable = compiler.compile(xQuery);
+		} catch (SaxonApiException e) {
+			throw new MessagingException("Caught Exception while compiling the XQuery", e);
+		}
+		//same as what the Saxon XQJ implementation reports, only the declared external variables
+		Map<StructuredQName, GlobalVariable> variables =
+			executable.getUnderlyingCompiledQuery().getExecutable().getCompiledGlobalVariables();
+		List<String> variableNames = new ArrayList<String>();
+		List<QName> variableQNames = new ArrayList<QName>();
+		List<SequenceType> declaredTypes = new ArrayList<SequenceType>();
+		if(variables != null) {
+			for(GlobalVariable variable:variables.values()) {
+				if(variable instanceof GlobalParam) {
+					String name = variable.getVariableQName().getLocalPart();
+					variableNames.add(name);
+					variableQNames.add(new QName(name));
+					declaredTypes.add(variable.getRequiredType());
+				}
+			}
+		}
+		externalVariableQNames = variableQNames.toArray(new QName[variableQNames.size()]);
+		externalVariableDeclaredTypes = declaredTypes.toArray(new SequenceType[declaredTypes.size()]);
+		externalVariableAtomicTypes = new ItemType[variableNames.size()];
+		externalVariableNames = Collections.unmodifiableList(variableNames);
+		contextItemUsed = usesContextItem(executable.getUnderlyingCompiledQuery());
+	}
+
+	public boolean isContextItemUsed() {
+		return contextItemUsed;
+	}
+
+	/**
+	 * Checks if the body of the compiled XQuery or the initializer of one of its global
+	 * variables depends on the focus, the functions declared in an XQuery have no focus
+	 *
+	 * @param query
+	 * @return
+	 */
+	static boolean usesContextItem(XQueryExpression query) {
+		if((query.getExpression().getDependencies() & StaticProperty.DEPENDS_ON_FOCUS) != 0) {
+			return true;
+		}
+		Map<StructuredQName, GlobalVariable> variables = query.getExecutable().getCompiledGlobalVariables();
+		if(variables != null) {
+			for(GlobalVariable variable:variables.values()) {
+				Expression select = variable.getSelectExpression();
+				if(select != null && (select.getDependencies() & StaticProperty.DEPENDS_ON_FOCUS) != 0) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	public List<String> getExternalVariableNames() {
+		Assert.state(externalVariableNames != null, "The XQuery is not yet compiled");
+		return externalVariableNames;
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> List<T> execute(Object contextItem, Object[] parameterValues, XQueryResultMapper<T> mapper) {
+		Assert.isInstanceOf(XdmResultMapper.class, mapper,
+				"The result mapper used with the Saxon engine should implement XdmResultMapper");
+		XQueryEvaluator evaluator = load(contextItem, parameterValues);
+		CancellingTraceListener listener = startRunning(evaluator);
+		XdmValue result;
+		try {
+			result = evaluator.evaluate();
+		} catch (SaxonApiException e) {
+			throw new MessagingException("Caught Exception while executing the XQuery", e);
+		} finally {
+			stopRunning(listener);
+		}
+		return ((XdmResultMapper<T>)mapper).mapResults(result);
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> XQueryResultIterator<T> iterate(Object contextItem, Object[] parameterValues, XQueryItemMapper<T> mapper) {
+		Assert.isInstanceOf(XdmItemMapper.class, mapper,
+				"The item mapper used with the Saxon engine should implement XdmItemMapper");
+		XQueryEvaluator evaluator = load(contextItem, parameterValues);
+		Iterator<XdmItem> items;
+		try {
+			items = evaluator.iterator();
+		} catch (SaxonApiUncheckedException e) {
+			throw new MessagingException("Caught Exception while executing the XQuery", e);
+		}
+		return new XdmResultIterator<T>(items, (XdmItemMapper<T>)mapper);
+	}
+
+	public boolean effectiveBooleanValue(Object contextItem, Object[] parameterValues) {
+		XQueryEvaluator evaluator = load(contextItem, parameterValues);
+		CancellingTraceListener listener = startRunning(evaluator);
+		SequenceIterator<?> items = null;
+		try {
+			//the s9api iterator has no way to get the EBV, go to the compiled query directly
+			items = executable.getUnderlyingCompiledQuery().iterator(evaluator.getUnderlyingQueryContext());
+			return ExpressionTool.effectiveBooleanValue(items);
+		} catch (XPathException e) {
+			throw new MessagingException("Caught Exception while executing the XQuery", e);
+		} finally {
+			if(items != null) {
+				items.close();
+			}
+			stopRunning(listener);
+		}
+	}
+
+	public void cancel(Thread thread) {
+		Assert.notNull(thread, "Provide a non null thread");
+		CancellingTraceListener listener = runningExecutions.get(thread);
+		if(listener != null) {
+			listener.cancel();
+		}
+	}
+
+	private CancellingTraceListener startRunning(XQueryEvaluator evaluator) {
+		if(!cancellable) {
+			return null;
+		}
+		CancellingTraceListener listener = new CancellingTraceListener();
+		evaluator.setTraceListener(listener);
+		runningExecutions.put(Thread.currentThread(), listener);
+		return listener;
+	}
+
+	private void stopRunning(CancellingTraceListener listener) {
+		if(listener != null) {
+			runningExecutions.remove(Thread.currentThread());
+		}
+	}
+
+	public void setExternalVariableType(String name, String sequenceType) {
+		Assert.state(externalVariableNames != null, "The XQuery is not yet compiled");
+		int index = externalVariableNames.indexOf(name);
+		Assert.isTrue(index >= 0, "$" + name + " is not an external variable of the XQuery");
+		SequenceType type = parseSequenceType(sequenceType);
+		SequenceType declaredType = externalVariableDeclaredTypes[index];
+		TypeHierarchy typeHierarchy = processor.getUnderlyingConfiguration().getTypeHierarchy();
+		int relationship = typeHierarchy.relationship(type.getPrimaryType(), declaredType.getPrimaryType());
+		if(!Cardinality.subsumes(declaredType.getCardinality(), type.getCardinality())
+				|| (relationship != TypeHierarchy.SAME_TYPE && relationship != TypeHierarchy.SUBSUMED_BY)) {
+			throw new MessagingException("The type " + sequenceType + " of the parameter $" + name
+					+ " is not compatible with the type " + declaredType + " declared in the XQuery");
+		}
+		if(type.getPrimaryType().isAtomicType()) {
+			StructuredQName typeName = ((AtomicType)type.getPrimaryType()).getTypeName();
+			ItemType[] types = externalVariableAtomicTypes.clone();
+			try {
+				types[index] = new ItemTypeFactory(processor).getAtomicType(new QName(typeName.getURI(),
+																				typeName.getLocalPart()));
+			} catch (SaxonApiException e) {
+				throw new MessagingException("Caught Exception while resolving the type " + sequenceType, e);
+			}
+			//written once on startup, copied to keep the arrays read on execution unchanged
+			externalVariableAtomicTypes = types;
+		}
+	}
+
+	/**
+	 * Parses the sequence type by compiling a declaration with it
+	 *
+	 * @param sequenceType
+	 * @return
+	 */
+	private SequenceType parseSequenceType(String sequenceType) {
+		Assert.hasText(sequenceType, "Provide a non empty sequence type");
+		try {
+			XQueryExecutable typeExecutable = processor.newXQueryCompiler()
+							.compile("declare variable $type as " + sequenceType + " external; $type");
+			return typeExecutable.getUnderlyingCompiledQuery().getExecutable().getCompiledGlobalVariables()
+							.values().iterator().next().getRequiredType();
+		} catch (SaxonApiException e) {
+			throw new MessagingException("Invalid sequence type " + sequenceType, e);
+		}
+	}
+
+	public Object getDocumentOwner() {
+		//the nodes are usable by the processors of the same configuration only
+		return processor.getUnderlyingConfiguration();
+	}
+
+	public Object parseDocument(Source source) {
+		Assert.notNull(source, "Provide a non null document source");
+		try {
+			return documentBuilder.build(source);
+		} catch (SaxonApiException e) {
+			throw new MessagingException("Caught Exception while parsing the document", e);
+		}
+	}
+
+	public Map<String, List<Object>> indexDocument(Object document, String match, String use) {
+		Assert.isInstanceOf(XdmNode.class, document, "The document is not parsed by the Saxon engine");
+		XdmValue result;
+		try {
+			XQueryEvaluator evaluator = processor.newXQueryCompiler()
+							.compile(XQueryUtils.createIndexQuery(match, use)).load();
+			evaluator.setContextItem((XdmNode)document);
+			result = evaluator.evaluate();
+		} catch (SaxonApiException e) {
+			throw new MessagingException("Caught Exception while indexing the document", e);
+		}
+		//every node is followed by one of its keys
+		Map<String, List<Object>> index = new HashMap<String, List<Object>>();
+		Iterator<XdmItem> items = result.iterator();
+		while(items.hasNext()) {
+			XdmItem node = items.next();
+			String key = items.next().getStringValue();
+			List<Object> nodes = index.get(key);
+			if(nodes == null) {
+				nodes = new ArrayList<Object>(1);
+				index.put(key, nodes);
+			}
+			nodes.add(node);
+		}
+		return index;
+	}
+
+	private XQueryEvaluator load(Object contextItem, Object[] parameterValues) {
+		Assert.state(executable != null, "The XQuery is not yet compiled");
+		XQueryEvaluator evaluator = executable.load();
+		if(contextItem != null) {
+			evaluator.setContextItem(toXdmItem(contextItem));
+		}
+		QName[] names = externalVariableQNames;
+		ItemType[] atomicTypes = externalVariableAtomicTypes;
+		for(int i = 0;i < parameterValues.length;i++) {
+			Object value = parameterValues[i];
+			if(atomicTypes[i] != null && value instanceof String) {
+				try {
+					//cast from the lexical form, for instance a header value to an xs:integer
+					evaluator.setExternalVariable(names[i], new XdmAtomicValue((String)value, atomicTypes[i]));
+				} catch (SaxonApiException e) {
+					throw new MessagingException("Caught Exception while converting the parameter value " + value, e);
+				}
+			}
+			else {
+				evaluator.setExternalVariable(names[i], toXdmValue(value));
+			}
+		}
+		return evaluator;
+	}
+
+	public void close() {
+		//nothing held
+	}
+
+	/**
+	 * Converts the context item to the {@link XdmItem}
+	 *
+	 * @param contextItem
+	 * @return
+	 */
+	protected XdmItem toXdmItem(Object contextItem) {
+		if(contextItem instanceof XdmNode) {
+			return toCompatibleNode((XdmNode)contextItem);
+		}
+		else if(contextItem instanceof NodeOverNodeInfo) {
+			//the DOM view of a Saxon node, for instance a node result of another engine
+			return toCompatibleNode(new XdmNode(((NodeOverNodeInfo)contextItem).getUnderlyingNodeInfo()));
+		}
+		else if(contextItem instanceof XdmItem) {
+			return (XdmItem)contextItem;
+		}
+		else if(contextItem instanceof Source) {
+			try {
+				//parsed straight into a TinyTree
+				return documentBuilder.build((Source)contextItem);
+			} catch (SaxonApiException e) {
+				throw new MessagingException("Caught Exception while parsing the context item", e);
+			}
+		}
+		Assert.isInstanceOf(Node.class, contextItem,
+				"The Saxon engine expects a DOM Node, a Source or an XdmItem as the context item");
+		return documentBuilder.wrap(contextItem);
+	}
+
+	/**
+	 * Gets the node as is if built by a configuration compatible with the one of this engine,
+	 * else copies it into a new document of this engine, walking the tree rather than
+	 * serializing and parsing it
+	 *
+	 * @param node
+	 * @return
+	 */
+	private XdmNode toCompatibleNode(XdmNode node) {
+		NodeInfo nodeInfo = node.getUnderlyingNode();
+		if(processor.getUnderlyingConfiguration().isCompatible(nodeInfo.getConfiguration())) {
+			return node;
+		}
+		try {
+			return documentBuilder.build(nodeInfo);
+		} catch (SaxonApiException e) {
+			throw new MessagingException("Caught Exception while copying the node", e);
+		}
+	}
+
+	/**
+	 * Converts the parameter value to the {@link XdmValue}, the types are derived the same way
+	 * XQJ does for an untyped binding. A {@link Collection} is converted to a sequence of its
+	 * converted elements
+	 *
+	 * @param value
+	 * @return
+	 */
+	protected XdmValue toXdmValue(Object value) {
+		Assert.notNull(value, "Null values cannot be bound to the external variables");
+		try {
+			if(value instanceof XdmNode) {
+				return toCompatibleNode((XdmNode)value);
+			}
+			else if(value instanceof XdmValue) {
+				return (XdmValue)value;
+			}
+			else if(value instanceof Collection) {
+				List<XdmItem> items = new ArrayList<XdmItem>();
+				for(Object element:(Collection<?>)value) {
+					for(XdmItem item:toXdmValue(element)) {
+						items.add(item);
+					}
+				}
+				return new XdmValue(items);
+			}
+			else if(value instanceof String) {
+				return new XdmAtomicValue((String)value);
+			}
+			else if(value instanceof Boolean) {
+				return new XdmAtomicValue(((Boolean)value).booleanValue());
+			}
+			else if(value instanceof Integer) {
+				return new XdmAtomicValue(value.toString(), ItemType.INT);
+			}
+			else if(value instanceof Long) {
+				return new XdmAtomicValue(value.toString(), ItemType.LONG);
+			}
+			else if(value instanceof Short) {
+				return new XdmAtomicValue(value.toString(), ItemType.SHORT);
+			}
+			else if(value instanceof Byte) {
+				return new XdmAtomicValue(value.toString(), ItemType.BYTE);
+			}
+			else if(value instanceof BigInteger) {
+				return new XdmAtomicValue(value.toString(), ItemType.INTEGER);
+			}
+			else if(value instanceof BigDecimal) {
+				return new XdmAtomicValue((BigDecimal)value);
+			}
+			else if(value instanceof Double) {
+				return new XdmAtomicValue(((Double)value).doubleValue());
+			}
+			else if(value instanceof Float) {
+				return new XdmAtomicValue(((Float)value).floatValue());
+			}
+			else if(value instanceof URI) {
+				return new XdmAtomicValue((URI)value);
+			}
+			else if(value instanceof javax.xml.namespace.QName) {
+				return new XdmAtomicValue(new QName((javax.xml.namespace.QName)value));
+			}
+			else if(value instanceof Node) {
+				return documentBuilder.wrap(value);
+			}
+		} catch (SaxonApiException e) {
+			throw new MessagingException("Caught Exception while converting the parameter value " + value, e);
+		}
+		throw new IllegalArgumentException("Parameter value of type " + value.getClass().getName()
+				+ " is not supported by the Saxon engine, provide the value as an XdmValue");
+	}
+
+	/**
+	 * Sets whether the executions can be cancelled, see {@link #cancel(Thread)}. Saxon-HE
+	 * has no way to interrupt an evaluation other than tracing it, the XQuery is then compiled
+	 * with tracing and the evaluation is stopped at the next instruction or function call once
+	 * cancelled. Tracing disables some of the optimizations, hence defaults to false. Needs
+	 * to be set before the XQuery is compiled
+	 *
+	 * @param cancellable
+	 */
+	public void setCancellable(boolean cancellable) {
+		this.cancellable = cancellable;
+	}
+
+	/**
+	 * Gets the Saxon {@link Processor} used by this engine
+	 *
+	 * @return
+	 */
+	public Processor getProcessor() {
+		return processor;
+	}
+
+	/**
+	 * Iterates over the items lazily evaluated by Saxon, there is nothing to release
+	 * other than the reference to the underlying iterator
+	 */
+	private static class XdmResultIterator<T> implements XQueryResultIterator<T> {
+
+		private final XdmItemMapper<T> mapper;
+
+		private Iterator<XdmItem> items;
+
+		//the item mapped ahead by hasNext(), not yet returned
+		private T nextItem;
+
+		private boolean hasNextItem;
+
+		private XdmResultIterator(Iterator<XdmItem> items, XdmItemMapper<T> mapper) {
+			this.items = items;
+			this.mapper = mapper;
+		}
+
+		/**
+		 * Maps the next item ahead, the items the mapper maps to null are skipped as they
+		 * are by {@link XdmResultMapper#mapResults(XdmValue)}
+		 */
+		public boolean hasNext() {
+			while(!hasNextItem && items != null) {
+				try {
+					if(!items.hasNext()) {
+						close();
+						break;
+					}
+					nextItem = mapper.mapItem(items.next());
+				} catch (SaxonApiUncheckedException e) {
+					close();
+					throw new MessagingException("Caught Exception while iterating the XQuery results", e);
+				}
+				hasNextItem = nextItem != null;
+			}
+			return hasNextItem;
+		}
+
+		public T next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			T item = nextItem;
+			nextItem = null;
+			hasNextItem = false;
+			return item;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException("The XQuery results cannot be removed");
+		}
+
+		public void close() {
+			items = null;
+			nextItem = null;
+			hasNextItem = false;
+		}
+	}
+}
@@ -0,0 +1,585 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.xml.xquery.XQConnection;
+import javax.xml.xquery.XQDataSource;
+import javax.xml.xquery.XQException;
+import javax.xml.xquery.XQExpression;
+import javax.xml.xquery.XQResultSequence;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.integration.MessagingException;
+import org.springframework.util.Assert;
+
+/**
+ * A bounded pool of {@link XQConnection} instances obtained from an {@link XQDataSource},
+ * used by the {@link XQJXQueryEngine} so that a connection is not opened and closed for
+ * every message. The pool keeps between the minimum and the maximum number of idle
+ * connections, optionally validates a connection before handing it out and closes the
+ * connections that stay idle beyond the idle timeout.
+ *
+ * @author Amol Nayak
+ *
+ */
+public class XQConnectionPool implements DisposableBean {
+
+	public static final int DEFAULT_MAX_SIZE = 8;
+
+	private final Log logger = LogFactory.getLog(XQConnectionPool.class);
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition connectionAvailable = lock.newCondition();
+
+	//most recently released first, the connections idle the longest are at the end
+	private final LinkedList<IdleConnection> idleConnections = new LinkedList<IdleConnection>();
+
+	private final AtomicLong createdCount = new AtomicLong();
+
+	private final AtomicLong destroyedCount = new AtomicLong();
+
+	private final AtomicLong borrowedCount = new AtomicLong();
+
+	private final AtomicLong waitCount = new AtomicLong();
+
+	private final AtomicLong validationFailureCount = new AtomicLong();
+
+	private volatile XQDataSource xqDataSource;
+
+	private volatile int maxSize = DEFAULT_MAX_SIZE;
+
+	private volatile int minIdle;
+
+	private volatile int maxIdle = DEFAULT_MAX_SIZE;
+
+	private volatile long maxWait = -1;
+
+	private volatile long idleTimeout;
+
+	private volatile String validationQuery;
+
+	//guarded by the lock
+	private int activeCount;
+
+	private volatile boolean started;
+
+	private volatile boolean closed;
+
+	private volatile ScheduledExecutorService idleTrimmer;
+
+	/**
+	 * The default constructor, the {@link XQDataSource} needs to be set before the pool is started
+	 */
+	public XQConnectionPool() {
+
+	}
+
+	/**
+	 * The constructor that accepts the {@link XQDataSource} to obtain the connections from
+	 *
+	 * @param xqDataSource
+	 */
+	public XQConnectionPool(XQDataSource xqDataSource) {
+		setXQDataSource(xqDataSource);
+	}
+
+	/**
+	 * Opens the minimum idle connections and starts trimming the idle connections if an
+	 * idle timeout is set. Invoking it on a started pool has no effect
+	 */
+	public void start() {
+		lock.lock();
+		try {
+			if(started) {
+				return;
+			}
+			Assert.state(!closed, "The connection pool is closed");
+			Assert.state(xqDataSource != null, "The XQDataSource of the connection pool is not set");
+			Assert.state(minIdle <= maxIdle && minIdle <= maxSize,
+					"The minimum idle connections should not exceed the maximum idle connections or the maximum size");
+			started = true;
+		} finally {
+			lock.unlock();
+		}
+		fillToMinIdle();
+		if(idleTimeout > 0) {
+			idleTrimmer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "xquery-connection-pool-trimmer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			idleTrimmer.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					trimIdleConnections();
+				}
+			}, idleTimeout, idleTimeout, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Gets a connection for exclusive use by the caller, waiting for at most the max wait
+	 * time if all the connections are in use. The connection must be handed back using
+	 * {@link #release(XQConnection)} and not closed by the caller.
+	 *
+	 * @return the connection
+	 * @throws XQException
+	 */
+	public XQConnection getConnection() throws XQException {
+		return getConnection(true);
+	}
+
+	/**
+	 * Gets a connection for exclusive use by the caller if one is idle or can be opened
+	 * without exceeding the maximum size, never waiting for a connection in use. The
+	 * connection must be handed back using {@link #release(XQConnection)}
+	 *
+	 * @return the connection, null if all the connections are in use
+	 * @throws XQException
+	 */
+	public XQConnection getConnectionIfAvailable() throws XQException {
+		return getConnection(false);
+	}
+
+	private XQConnection getConnection(boolean wait) throws XQException {
+		if(!started) {
+			start();
+		}
+		long waitUntil = maxWait < 0 ? -1 : System.currentTimeMillis() + maxWait;
+		while(true) {
+			IdleConnection idle = null;
+			boolean create = false;
+			lock.lock();
+			try {
+				Assert.state(!closed, "The connection pool is closed");
+				if(!idleConnections.isEmpty()) {
+					idle = idleConnections.removeFirst();
+					activeCount++;
+				}
+				else if(activeCount < maxSize) {
+					activeCount++;
+					create = true;
+				}
+				else if(!wait) {
+					return null;
+				}
+				else {
+					awaitConnection(waitUntil);
+					continue;
+				}
+			} finally {
+				lock.unlock();
+			}
+			if(create) {
+				try {
+					XQConnection connection = xqDataSource.getConnection();
+					createdCount.incrementAndGet();
+					borrowedCount.incrementAndGet();
+					return connection;
+				} catch (XQException e) {
+					released();
+					throw e;
+				} catch (RuntimeException e) {
+					released();
+					throw e;
+				}
+			}
+			if(isValid(idle.connection)) {
+				borrowedCount.incrementAndGet();
+				return idle.connection;
+			}
+			validationFailureCount.incrementAndGet();
+			destroy(idle.connection);
+			released();
+		}
+	}
+
+	/**
+	 * Hands back the connection obtained from {@link #getConnection()}. The connection is
+	 * closed if the pool already holds the maximum idle connections, is closed itself or
+	 * the connection is no more usable
+	 *
+	 * @param connection
+	 */
+	public void release(XQConnection connection) {
+		if(connection == null) {
+			return;
+		}
+		boolean retain = false;
+		lock.lock();
+		try {
+			activeCount--;
+			if(!closed && !connection.isClosed() && idleConnections.size() < maxIdle) {
+				idleConnections.addFirst(new IdleConnection(connection));
+				retain = true;
+			}
+			connectionAvailable.signal();
+		} finally {
+			lock.unlock();
+		}
+		if(!retain) {
+			destroy(connection);
+		}
+	}
+
+	/**
+	 * Closes the connections idle for longer than the idle timeout, retaining at least
+	 * the minimum idle connections. Invoked periodically if the idle timeout is set
+	 */
+	public void trimIdleConnections() {
+		if(idleTimeout <= 0) {
+			return;
+		}
+		List<XQConnection> expired = new ArrayList<XQConnection>();
+		long idleSince = System.currentTimeMillis() - idleTimeout;
+		lock.lock();
+		try {
+			ListIterator<IdleConnection> iterator = idleConnections.listIterator(idleConnections.size());
+			while(iterator.hasPrevious() && idleConnections.size() > minIdle) {
+				IdleConnection idle = iterator.previous();
+				if(idle.idleSince > idleSince) {
+					//the rest have been idle for a shorter time
+					break;
+				}
+				iterator.remove();
+				expired.add(idle.connection);
+			}
+		} finally {
+			lock.unlock();
+		}
+		for(XQConnection connection:expired) {
+			destroy(connection);
+		}
+		if(!expired.isEmpty() && logger.isDebugEnabled()) {
+			logger.debug("Closed " + expired.size() + " idle XQ connection(s)");
+		}
+	}
+
+	/**
+	 * Closes all the idle connections, the connections in use are closed as they are
+	 * released
+	 */
+	public void close() {
+		List<IdleConnection> idle;
+		lock.lock();
+		try {
+			closed = true;
+			idle = new ArrayList<IdleConnection>(idleConnections);
+			idleConnections.clear();
+			connectionAvailable.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		if(idleTrimmer != null) {
+			idleTrimmer.shutdownNow();
+		}
+		for(IdleConnection connection:idle) {
+			destroy(connection.connection);
+		}
+	}
+
+	/**
+	 * Closes the pool once the container is shut down, see {@link #close()}
+	 */
+	public void destroy() {
+		close();
+	}
+
+	/**
+	 * Sets the {@link XQDataSource} used to open the connections
+	 *
+	 * @param xqDataSource
+	 */
+	public void setXQDataSource(XQDataSource xqDataSource) {
+		Assert.notNull(xqDataSource, "Provide a non null instance of the XQDatasource");
+		this.xqDataSource = xqDataSource;
+	}
+
+	/**
+	 * Gets the {@link XQDataSource} used to open the connections
+	 *
+	 * @return
+	 */
+	public XQDataSource getXQDataSource() {
+		return xqDataSource;
+	}
+
+	/**
+	 * Sets the maximum number of connections, idle and in use, opened by this pool.
+	 * Defaults to {@link #DEFAULT_MAX_SIZE}
+	 *
+	 * @param maxSize
+	 */
+	public void setMaxSize(int maxSize) {
+		Assert.isTrue(maxSize > 0, "The maximum size of the connection pool should be a positive number");
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Gets the maximum number of connections opened by this pool
+	 *
+	 * @return
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Sets the minimum number of idle connections retained by the pool, defaults to 0
+	 *
+	 * @param minIdle
+	 */
+	public void setMinIdle(int minIdle) {
+		Assert.isTrue(minIdle >= 0, "The minimum idle connections should not be negative");
+		this.minIdle = minIdle;
+	}
+
+	/**
+	 * Sets the maximum number of idle connections retained by the pool, the connections
+	 * released beyond this number are closed. Defaults to {@link #DEFAULT_MAX_SIZE}
+	 *
+	 * @param maxIdle
+	 */
+	public void setMaxIdle(int maxIdle) {
+		Assert.isTrue(maxIdle >= 0, "The maximum idle connections should not be negative");
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * Sets the maximum time in milliseconds to wait for a connection when all of them are
+	 * in use, a negative value, the default, waits indefinitely
+	 *
+	 * @param maxWait
+	 */
+	public void setMaxWait(long maxWait) {
+		this.maxWait = maxWait;
+	}
+
+	/**
+	 * Sets the time in milliseconds after which an idle connection is closed, provided
+	 * more than the minimum idle connections are held. 0, the default, never closes
+	 * the idle connections
+	 *
+	 * @param idleTimeout
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		Assert.isTrue(idleTimeout >= 0, "The idle timeout should not be negative");
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Sets the XQuery executed to validate an idle connection before it is handed out,
+	 * for instance "1". If not set, the connection is only checked for being closed
+	 *
+	 * @param validationQuery
+	 */
+	public void setValidationQuery(String validationQuery) {
+		this.validationQuery = validationQuery;
+	}
+
+	/**
+	 * The number of connections currently in use
+	 *
+	 * @return
+	 */
+	public int getActiveCount() {
+		lock.lock();
+		try {
+			return activeCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The number of idle connections currently held
+	 *
+	 * @return
+	 */
+	public int getIdleCount() {
+		lock.lock();
+		try {
+			return idleConnections.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The total number of connections opened by this pool
+	 *
+	 * @return
+	 */
+	public long getCreatedCount() {
+		return createdCount.get();
+	}
+
+	/**
+	 * The total number of connections closed by this pool
+	 *
+	 * @return
+	 */
+	public long getDestroyedCount() {
+		return destroyedCount.get();
+	}
+
+	/**
+	 * The total number of connections handed out by this pool
+	 *
+	 * @return
+	 */
+	public long getBorrowedCount() {
+		return borrowedCount.get();
+	}
+
+	/**
+	 * The number of times a caller had to wait for a connection
+	 *
+	 * @return
+	 */
+	public long getWaitCount() {
+		return waitCount.get();
+	}
+
+	/**
+	 * The number of idle connections found invalid and closed
+	 *
+	 * @return
+	 */
+	public long getValidationFailureCount() {
+		return validationFailureCount.get();
+	}
+
+	//invoked holding the lock
+	private void awaitConnection(long waitUntil) {
+		waitCount.incrementAndGet();
+		try {
+			if(waitUntil < 0) {
+				connectionAvailable.await();
+			}
+			else {
+				long remaining = waitUntil - System.currentTimeMillis();
+				if(remaining <= 0 || !connectionAvailable.await(remaining, TimeUnit.MILLISECONDS)) {
+					throw new MessagingException("Timed out after " + maxWait
+							+ " ms waiting for an XQ connection, all " + maxSize + " connections are in use");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MessagingException("Interrupted while waiting for an XQ connection", e);
+		}
+	}
+
+	private void fillToMinIdle() {
+		while(true) {
+			lock.lock();
+			try {
+				if(closed || idleConnections.size() >= minIdle || activeCount + idleConnections.size() >= maxSize) {
+					return;
+				}
+				activeCount++;
+			} finally {
+				lock.unlock();
+			}
+			XQConnection connection;
+			try {
+				connection = xqDataSource.getConnection();
+				createdCount.incrementAndGet();
+			} catch (XQException e) {
+				released();
+				throw new MessagingException("Caught Exception while opening a connection to the datasource", e);
+			}
+			release(connection);
+		}
+	}
+
+	private void released() {
+		lock.lock();
+		try {
+			activeCount--;
+			connectionAvailable.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean isValid(XQConnection connection) {
+		if(connection.isClosed()) {
+			return false;
+		}
+		if(validationQuery == null) {
+			return true;
+		}
+		XQExpression expression = null;
+		try {
+			expression = connection.createExpression();
+			XQResultSequence result = expression.executeQuery(validationQuery);
+			result.close();
+			return true;
+		} catch (XQException e) {
+			if(logger.isDebugEnabled()) {
+				logger.debug("Validation of the XQ connection failed", e);
+			}
+			return false;
+		} finally {
+			if(expression != null) {
+				try {
+					expression.close();
+				} catch (XQException e) {
+					//ignore, the connection is discarded anyway if invalid
+				}
+			}
+		}
+	}
+
+	private void destroy(XQConnection connection) {
+		destroyedCount.incrementAndGet();
+		try {
+			if(!connection.isClosed()) {
+				connection.close();
+			}
+		} catch (XQException e) {
+			logger.error("Caught Exception while closing the XQ connection", e);
+		}
+	}
+
+	private static class IdleConnection {
+
+		private final XQConnection connection;
+
+		private final long idleSince = System.currentTimeMillis();
+
+		private IdleConnection(XQConnection connection) {
+			this.connection = connection;
+		}
+	}
+}
@@ -0,0 +1,827 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery;
+
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.namespace.QName;
+import javax.xml.transform.Source;
+import javax.xml.xquery.XQConnection;
+import javax.xml.xquery.XQConstants;
+import javax.xml.xquery.XQDataSource;
+import javax.xml.xquery.XQException;
+import javax.xml.xquery.XQItem;
+import javax.xml.xquery.XQItemType;
+import javax.xml.xquery.XQPreparedExpression;
+import javax.xml.xquery.XQResultSequence;
+import javax.xml.xquery.XQSequenceType;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.dom.NodeOverNodeInfo;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.query.DynamicQueryContext;
+import net.sf.saxon.query.XQueryExpression;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.xqj.SaxonXQDataSource;
+import net.sf.saxon.xqj.SaxonXQPreparedExpression;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.integration.MessagingException;
+import org.springframework.integration.xquery.XQPreparedExpressionPool.Mode;
+import org.springframework.integration.xquery.XQPreparedExpressionPool.PreparedXQuery;
+import org.springframework.util.Assert;
+import org.springframework.util.ReflectionUtils;
+import org.w3c.dom.Node;
+
+/**
+ * The {@link XQueryEngine} that executes the XQuery using the XQJ (JSR-225) API, this
+ * allows the XQuery to be executed by any vendor providing an {@link XQDataSource}
+ *
+ * @author Amol Nayak
+ *
+ */
+public class XQJXQueryEngine implements XQueryEngine {
+
+	//the built-in atomic types derived from other than xs:anyAtomicType
+	private static final Map<Integer, Integer> BASE_TYPE_PARENTS = new HashMap<Integer, Integer>();
+
+	static {
+		int[][] parents = {
+				{XQItemType.XQBASETYPE_INTEGER, XQItemType.XQBASETYPE_DECIMAL},
+				{XQItemType.XQBASETYPE_LONG, XQItemType.XQBASETYPE_INTEGER},
+				{XQItemType.XQBASETYPE_INT, XQItemType.XQBASETYPE_LONG},
+				{XQItemType.XQBASETYPE_SHORT, XQItemType.XQBASETYPE_INT},
+				{XQItemType.XQBASETYPE_BYTE, XQItemType.XQBASETYPE_SHORT},
+				{XQItemType.XQBASETYPE_NONPOSITIVE_INTEGER, XQItemType.XQBASETYPE_INTEGER},
+				{XQItemType.XQBASETYPE_NEGATIVE_INTEGER, XQItemType.XQBASETYPE_NONPOSITIVE_INTEGER},
+				{XQItemType.XQBASETYPE_NONNEGATIVE_INTEGER, XQItemType.XQBASETYPE_INTEGER},
+				{XQItemType.XQBASETYPE_POSITIVE_INTEGER, XQItemType.XQBASETYPE_NONNEGATIVE_INTEGER},
+				{XQItemType.XQBASETYPE_UNSIGNED_LONG, XQItemType.XQBASETYPE_NONNEGATIVE_INTEGER},
+				{XQItemType.XQBASETYPE_UNSIGNED_INT, XQItemType.XQBASETYPE_UNSIGNED_LONG},
+				{XQItemType.XQBASETYPE_UNSIGNED_SHORT, XQItemType.XQBASETYPE_UNSIGNED_INT},
+				{XQItemType.XQBASETYPE_UNSIGNED_BYTE, XQItemType.XQBASETYPE_UNSIGNED_SHORT},
+				{XQItemType.XQBASETYPE_NORMALIZED_STRING, XQItemType.XQBASETYPE_STRING},
+				{XQItemType.XQBASETYPE_TOKEN, XQItemType.XQBASETYPE_NORMALIZED_STRING},
+				{XQItemType.XQBASETYPE_LANGUAGE, XQItemType.XQBASETYPE_TOKEN},
+				{XQItemType.XQBASETYPE_NMTOKEN, XQItemType.XQBASETYPE_TOKEN},
+				{XQItemType.XQBASETYPE_NAME, XQItemType.XQBASETYPE_TOKEN},
+				{XQItemType.XQBASETYPE_NCNAME, XQItemType.XQBASETYPE_NAME},
+				{XQItemType.XQBASETYPE_ID, XQItemType.XQBASETYPE_NCNAME},
+				{XQItemType.XQBASETYPE_IDREF, XQItemType.XQBASETYPE_NCNAME},
+				{XQItemType.XQBASETYPE_ENTITY, XQItemType.XQBASETYPE_NCNAME},
+				{XQItemType.XQBASETYPE_DAYTIMEDURATION, XQItemType.XQBASETYPE_DURATION},
+				{XQItemType.XQBASETYPE_YEARMONTHDURATION, XQItemType.XQBASETYPE_DURATION}};
+		for(int[] parent:parents) {
+			BASE_TYPE_PARENTS.put(Integer.valueOf(parent[0]), Integer.valueOf(parent[1]));
+		}
+	}
+
+	//the compiled query of the Saxon XQJ implementation is not public
+	private static final Method GET_XQUERY_EXPRESSION_METHOD;
+
+	//neither is the dynamic context the trace listener cancelling the execution is set on
+	private static final Method GET_DYNAMIC_CONTEXT_METHOD;
+
+	static {
+		Method method = ReflectionUtils.findMethod(SaxonXQPreparedExpression.class, "getXQueryExpression");
+		if(method != null) {
+			ReflectionUtils.makeAccessible(method);
+		}
+		GET_XQUERY_EXPRESSION_METHOD = method;
+		method = ReflectionUtils.findMethod(SaxonXQPreparedExpression.class, "getDynamicContext");
+		if(method != null) {
+			ReflectionUtils.makeAccessible(method);
+		}
+		GET_DYNAMIC_CONTEXT_METHOD = method;
+	}
+
+	private final Log logger = LogFactory.getLog(XQJXQueryEngine.class);
+
+	private final XQDataSource xqDataSource;
+
+	private volatile Mode expressionPoolMode = Mode.NONE;
+
+	private volatile int expressionPoolSize = XQPreparedExpressionPool.DEFAULT_POOL_SIZE;
+
+	private volatile XQPreparedExpressionPool expressionPool;
+
+	private volatile XQConnectionPool connectionPool;
+
+	private volatile List<String> externalVariableNames;
+
+	//resolved once on compilation, in the order of the external variable names
+	private volatile QName[] externalVariableQNames;
+
+	//the types the variables are declared with in the XQuery
+	private volatile XQSequenceType[] externalVariableDeclaredTypes;
+
+	//the type the values are bound with, null for the values bound untyped
+	private volatile XQItemType[] externalVariableTypes;
+
+	private volatile boolean contextItemUsed = true;
+
+	//the parsed documents are valid as long as the connection they are created from is open,
+	//they get their own connection held until the engine is closed
+	private volatile XQConnection documentConnection;
+
+	private volatile boolean cancellable;
+
+	//the executions in progress, by the thread executing them, to be cancelled
+	private final ConcurrentMap<Thread, RunningExpression> runningExpressions =
+		new ConcurrentHashMap<Thread, RunningExpression>();
+
+	/**
+	 * The constructor that takes the {@link XQDataSource} used to obtain the connections
+	 *
+	 * @param xqDataSource
+	 */
+	public XQJXQueryEngine(XQDataSource xqDataSource) {
+		Assert.notNull(xqDataSource, "Provide a non null instance of the XQDatasource");
+		this.xqDataSource = xqDataSource;
+	}
+
+	public void compile(String xQuery) {
+		Assert.notNull(xQuery, "Provide a non null XQuery");
+		if(cancellable && xqDataSource instanceof SaxonXQDataSource && !((SaxonXQDataSource)xqDataSource)
+				.getConfiguration().newStaticQueryContext().isCompileWithTracing()) {
+			logger.warn("The Saxon XQDataSource does not compile with tracing, "
+					+ "the cancelled executions of the XQuery run to completion");
+		}
+		if(connectionPool != null) {
+			connectionPool.start();
+			expressionPool = new XQPreparedExpressionPool(connectionPool, xQuery, expressionPoolMode, expressionPoolSize);
+		}
+		else {
+			expressionPool = new XQPreparedExpressionPool(xqDataSource, xQuery, expressionPoolMode, expressionPoolSize);
+		}
+		PreparedXQuery prepared = null;
+		try {
+			//the expression prepared here is retained by the pool for the subsequent executions
+			prepared = expressionPool.borrow();
+			XQPreparedExpression expression = prepared.getExpression();
+			QName[] extParameters = expression.getAllExternalVariables();
+			if(extParameters == null) {
+				extParameters = new QName[0];
+			}
+			List<String> names = new ArrayList<String>();
+			XQSequenceType[] declaredTypes = new XQSequenceType[extParameters.length];
+			XQItemType[] types = new XQItemType[extParameters.length];
+			for(int i = 0;i < extParameters.length;i++) {
+				names.add(extParameters[i].getLocalPart());
+				declaredTypes[i] = expression.getStaticVariableType(extParameters[i]);
+				types[i] = getBindingType(declaredTypes[i]);
+			}
+			externalVariableQNames = extParameters;
+			externalVariableDeclaredTypes = declaredTypes;
+			externalVariableTypes = types;
+			externalVariableNames = Collections.unmodifiableList(names);
+			contextItemUsed = usesContextItem(expression);
+		} catch (XQException e) {
+			throw new MessagingException("Caught Exception while opening a connection to the datasource", e);
+		} finally {
+			expressionPool.release(prepared);
+		}
+	}
+
+	public List<String> getExternalVariableNames() {
+		Assert.state(externalVariableNames != null, "The XQuery is not yet compiled");
+		return externalVariableNames;
+	}
+
+	public <T> List<T> execute(Object contextItem, Object[] parameterValues, XQueryResultMapper<T> mapper) {
+		Assert.state(expressionPool != null, "The XQuery is not yet compiled");
+		PreparedXQuery prepared = null;
+		RunningExpression running = null;
+		XQResultSequence result = null;
+		try {
+			prepared = expressionPool.borrow();
+			running = startRunning(prepared);
+			result = executeQuery(prepared.getExpression(), contextItem, parameterValues);
+			return mapper.mapResults(result);
+
+		} catch (XQException e) {
+			throw new MessagingException("Caught Exception while opening a connection to the datasource", e);
+		} finally {
+			closeResult(result);
+			stopRunning(running);
+			expressionPool.release(prepared);
+		}
+	}
+
+	public <T> XQueryResultIterator<T> iterate(Object contextItem, Object[] parameterValues, XQueryItemMapper<T> mapper) {
+		Assert.state(expressionPool != null, "The XQuery is not yet compiled");
+		Assert.notNull(mapper, "Provide a non null item mapper");
+		PreparedXQuery prepared = null;
+		XQResultSequence result = null;
+		try {
+			prepared = expressionPool.borrow();
+			result = executeQuery(prepared.getExpression(), contextItem, parameterValues);
+			//the iterator now owns the result and the prepared expression
+			XQueryResultIterator<T> iterator = new XQJResultIterator<T>(prepared, result, mapper);
+			prepared = null;
+			result = null;
+			return iterator;
+		} catch (XQException e) {
+			throw new MessagingException("Caught Exception while opening a connection to the datasource", e);
+		} finally {
+			closeResult(result);
+			expressionPool.release(prepared);
+		}
+	}
+
+	public boolean effectiveBooleanValue(Object contextItem, Object[] parameterValues) {
+		Assert.state(expressionPool != null, "The XQuery is not yet compiled");
+		PreparedXQuery prepared = null;
+		RunningExpression running = null;
+		XQResultSequence result = null;
+		try {
+			prepared = expressionPool.borrow();
+			running = startRunning(prepared);
+			result = executeQuery(prepared.getExpression(), contextItem, parameterValues);
+			if(!result.next()) {
+				return false;
+			}
+			//only the kind of the item is looked at, the node itself is never fetched
+			if(result.getItemType().getItemKind() != XQItemType.XQITEMKIND_ATOMIC) {
+				return true;
+			}
+			Object value = result.getObject();
+			if(result.next()) {
+				throw new MessagingException("Effective boolean value is not defined for a sequence " +
+						"of two or more items starting with an atomic value");
+			}
+			return atomicEffectiveBooleanValue(value);
+		} catch (XQException e) {
+			throw new MessagingException("Caught Exception while opening a connection to the datasource", e);
+		} finally {
+			closeResult(result);
+			stopRunning(running);
+			expressionPool.release(prepared);
+		}
+	}
+
+	public void cancel(Thread thread) {
+		Assert.notNull(thread, "Provide a non null thread");
+		RunningExpression running = runningExpressions.get(thread);
+		if(running == null) {
+			return;
+		}
+		running.cancelled = true;
+		if(running.listener != null) {
+			running.listener.cancel();
+		}
+		try {
+			//a no-op with the Saxon implementation, interrupts the remote servers of some vendors
+			running.expression.cancel();
+		} catch (XQException e) {
+			logger.warn("Caught Exception while cancelling the execution of the XQuery", e);
+		}
+	}
+
+	private RunningExpression startRunning(PreparedXQuery prepared) {
+		RunningExpression running = new RunningExpression(prepared.getExpression());
+		if(cancellable && GET_DYNAMIC_CONTEXT_METHOD != null
+				&& running.expression instanceof SaxonXQPreparedExpression) {
+			//set per execution, a pooled expression is executed by one thread at a time
+			running.listener = new CancellingTraceListener();
+			DynamicQueryContext context =
+				(DynamicQueryContext)ReflectionUtils.invokeMethod(GET_DYNAMIC_CONTEXT_METHOD, running.expression);
+			context.setTraceListener(running.listener);
+		}
+		runningExpressions.put(Thread.currentThread(), running);
+		return running;
+	}
+
+	/**
+	 * Stops tracking the execution of the current thread, the expression of a cancelled one
+	 * is closed, the pool then discards it and releases its connection rather than reusing it
+	 *
+	 * @param running
+	 */
+	private void stopRunning(RunningExpression running) {
+		if(running == null) {
+			return;
+		}
+		runningExpressions.remove(Thread.currentThread());
+		if(running.cancelled) {
+			try {
+				running.expression.close();
+			} catch (XQException e) {
+				logger.error("Caught Exception while closing the cancelled XQ expression", e);
+			}
+		}
+	}
+
+	private boolean atomicEffectiveBooleanValue(Object value) {
+		if(value instanceof Boolean) {
+			return ((Boolean)value).booleanValue();
+		}
+		else if(value instanceof BigDecimal) {
+			return ((BigDecimal)value).signum() != 0;
+		}
+		else if(value instanceof BigInteger) {
+			return ((BigInteger)value).signum() != 0;
+		}
+		else if(value instanceof Number) {
+			double number = ((Number)value).doubleValue();
+			return number != 0 && !Double.isNaN(number);
+		}
+		else if(value instanceof String || value instanceof URI) {
+			//xs:string, its subtypes, xs:untypedAtomic and xs:anyURI
+			return value.toString().length() != 0;
+		}
+		throw new MessagingException("Effective boolean value is not defined for the atomic value " + value);
+	}
+
+	/**
+	 * Gets the type used to bind the values of a variable with the given declared type, the
+	 * values are then converted to the declared type directly without their type being derived
+	 *
+	 * @param declaredType
+	 * @return the item type, null if the values are to be bound untyped
+	 */
+	private XQItemType getBindingType(XQSequenceType declaredType) throws XQException {
+		if(declaredType == null || declaredType.getItemOccurrence() != XQSequenceType.OCC_EXACTLY_ONE) {
+			return null;
+		}
+		XQItemType itemType = declaredType.getItemType();
+		if(itemType == null || itemType.getItemKind() != XQItemType.XQITEMKIND_ATOMIC
+				|| itemType.getBaseType() == XQItemType.XQBASETYPE_ANYATOMICTYPE) {
+			return null;
+		}
+		return itemType;
+	}
+
+	public boolean isContextItemUsed() {
+		return contextItemUsed;
+	}
+
+	/**
+	 * Analyzes the compiled query of the Saxon XQJ implementation, the other implementations
+	 * are assumed to use the context item
+	 *
+	 * @param expression
+	 * @return
+	 */
+	private boolean usesContextItem(XQPreparedExpression expression) {
+		if(GET_XQUERY_EXPRESSION_METHOD != null && expression instanceof SaxonXQPreparedExpression) {
+			XQueryExpression query =
+				(XQueryExpression)ReflectionUtils.invokeMethod(GET_XQUERY_EXPRESSION_METHOD, expression);
+			return SaxonXQueryEngine.usesContextItem(query);
+		}
+		return true;
+	}
+
+	public void setExternalVariableType(String name, String sequenceType) {
+		Assert.state(externalVariableNames != null, "The XQuery is not yet compiled");
+		int index = externalVariableNames.indexOf(name);
+		Assert.isTrue(index >= 0, "$" + name + " is not an external variable of the XQuery");
+		XQSequenceType type = parseSequenceType(sequenceType);
+		XQSequenceType declaredType = externalVariableDeclaredTypes[index];
+		try {
+			if(!isSubtype(type, declaredType)) {
+				throw new MessagingException("The type " + sequenceType + " of the parameter $" + name
+						+ " is not compatible with the type " + declaredType + " declared in the XQuery");
+			}
+		} catch (XQException e) {
+			throw new MessagingException("Caught Exception while checking the type of the parameter $" + name, e);
+		}
+		//written once on startup, copied to keep the arrays read on execution unchanged
+		XQItemType[] types = externalVariableTypes.clone();
+		types[index] = type.getItemType();
+		externalVariableTypes = types;
+	}
+
+	/**
+	 * Checks if every value of the given type is also of the other type
+	 *
+	 * @param type
+	 * @param of
+	 * @return
+	 * @throws XQException
+	 */
+	private boolean isSubtype(XQSequenceType type, XQSequenceType of) throws XQException {
+		int occurrence = type.getItemOccurrence();
+		switch (of.getItemOccurrence()) {
+			case XQSequenceType.OCC_EXACTLY_ONE:
+				if(occurrence != XQSequenceType.OCC_EXACTLY_ONE) {
+					return false;
+				}
+				break;
+			case XQSequenceType.OCC_ZERO_OR_ONE:
+				if(occurrence != XQSequenceType.OCC_EXACTLY_ONE && occurrence != XQSequenceType.OCC_ZERO_OR_ONE
+						&& occurrence != XQSequenceType.OCC_EMPTY) {
+					return false;
+				}
+				break;
+			case XQSequenceType.OCC_ONE_OR_MORE:
+				if(occurrence != XQSequenceType.OCC_EXACTLY_ONE && occurrence != XQSequenceType.OCC_ONE_OR_MORE) {
+					return false;
+				}
+				break;
+			case XQSequenceType.OCC_EMPTY:
+				return occurrence == XQSequenceType.OCC_EMPTY;
+			default:
+				break;
+		}
+		if(occurrence == XQSequenceType.OCC_EMPTY) {
+			return true;
+		}
+		XQItemType itemType = type.getItemType();
+		XQItemType ofItemType = of.getItemType();
+		int kind = itemType.getItemKind();
+		switch (ofItemType.getItemKind()) {
+			case XQItemType.XQITEMKIND_ITEM:
+				return true;
+			case XQItemType.XQITEMKIND_NODE:
+				return kind != XQItemType.XQITEMKIND_ITEM && kind != XQItemType.XQITEMKIND_ATOMIC;
+			case XQItemType.XQITEMKIND_ATOMIC:
+				return kind == XQItemType.XQITEMKIND_ATOMIC
+						&& isDerivedFrom(itemType.getBaseType(), ofItemType.getBaseType());
+			case XQItemType.XQITEMKIND_ELEMENT:
+			case XQItemType.XQITEMKIND_ATTRIBUTE:
+				return kind == ofItemType.getItemKind()
+						&& (ofItemType.getNodeName() == null || ofItemType.getNodeName().equals(itemType.getNodeName()));
+			default:
+				return kind == ofItemType.getItemKind();
+		}
+	}
+
+	private boolean isDerivedFrom(int baseType, int ofBaseType) {
+		if(ofBaseType == XQItemType.XQBASETYPE_ANYATOMICTYPE) {
+			return true;
+		}
+		Integer type = Integer.valueOf(baseType);
+		while(type != null) {
+			if(type.intValue() == ofBaseType) {
+				return true;
+			}
+			type = BASE_TYPE_PARENTS.get(type);
+		}
+		return false;
+	}
+
+	/**
+	 * Parses the sequence type by letting the XQJ implementation compile a declaration with it
+	 *
+	 * @param sequenceType
+	 * @return
+	 */
+	private XQSequenceType parseSequenceType(String sequenceType) {
+		Assert.hasText(sequenceType, "Provide a non empty sequence type");
+		XQConnection connection = null;
+		try {
+			connection = xqDataSource.getConnection();
+			XQPreparedExpression expression = connection.prepareExpression(
+					"declare variable $type as " + sequenceType + " external; $type");
+			return expression.getStaticVariableType(new QName("type"));
+		} catch (XQException e) {
+			throw new MessagingException("Invalid sequence type " + sequenceType, e);
+		} finally {
+			if(connection != null) {
+				try {
+					connection.close();
+				} catch (XQException e) {
+					logger.error("Caught Exception while closing the XQ connection", e);
+				}
+			}
+		}
+	}
+
+	public Object getDocumentOwner() {
+		//the items are usable by the connections of the same data source until the
+		//connection they are created from is closed
+		return xqDataSource;
+	}
+
+	public Object parseDocument(Source source) {
+		Assert.notNull(source, "Provide a non null document source");
+		try {
+			return getDocumentConnection().createItemFromDocument(source, null);
+		} catch (XQException e) {
+			throw new MessagingException("Caught Exception while parsing the document", e);
+		}
+	}
+
+	public Map<String, List<Object>> indexDocument(Object document, String match, String use) {
+		Assert.isInstanceOf(XQItem.class, document, "The document is not parsed by the XQJ engine");
+		XQPreparedExpression expression = null;
+		try {
+			expression = getDocumentConnection().prepareExpression(XQueryUtils.createIndexQuery(match, use));
+			expression.bindItem(XQConstants.CONTEXT_ITEM, (XQItem)document);
+			XQResultSequence result = expression.executeQuery();
+			//every node is followed by one of its keys
+			Map<String, List<Object>> index = new HashMap<String, List<Object>>();
+			while(result.next()) {
+				XQItem node = result.getItem();
+				result.next();
+				String key = result.getAtomicValue();
+				List<Object> nodes = index.get(key);
+				if(nodes == null) {
+					nodes = new ArrayList<Object>(1);
+					index.put(key, nodes);
+				}
+				nodes.add(node);
+			}
+			return index;
+		} catch (XQException e) {
+			throw new MessagingException("Caught Exception while indexing the document", e);
+		} finally {
+			if(expression != null) {
+				try {
+					expression.close();
+				} catch (XQException e) {
+					logger.error("Caught Exception while closing the XQ prepared expression", e);
+				}
+			}
+		}
+	}
+
+	private synchronized XQConnection getDocumentConnection() throws XQException {
+		if(documentConnection == null) {
+			documentConnection = xqDataSource.getConnection();
+		}
+		return documentConnection;
+	}
+
+	private XQResultSequence executeQuery(XQPreparedExpression expression, Object contextItem,
+			Object[] parameterValues) throws XQException {
+		if(contextItem instanceof XQItem) {
+			expression.bindItem(XQConstants.CONTEXT_ITEM, (XQItem)contextItem);
+		}
+		else if(contextItem instanceof XdmNode) {
+			bindNode(expression, XQConstants.CONTEXT_ITEM, (XdmNode)contextItem);
+		}
+		else if(contextItem instanceof NodeOverNodeInfo) {
+			//the DOM view of a Saxon node, for instance a node result of another engine
+			bindNode(expression, XQConstants.CONTEXT_ITEM,
+					new XdmNode(((NodeOverNodeInfo)contextItem).getUnderlyingNodeInfo()));
+		}
+		else if(contextItem instanceof Node) {
+			expression.bindNode(XQConstants.CONTEXT_ITEM, (Node)contextItem, null);
+		}
+		else if(contextItem != null) {
+			Assert.isInstanceOf(Source.class, contextItem,
+					"The XQJ engine expects a DOM Node, an XdmNode or a Source as the context item");
+			//lets the XQJ implementation build its native tree, no DOM in between
+			expression.bindDocument(XQConstants.CONTEXT_ITEM, (Source)contextItem, null);
+		}
+
+		//bind the parameter values one by one
+		QName[] names = externalVariableQNames;
+		XQItemType[] types = externalVariableTypes;
+		for(int i = 0;i < parameterValues.length;i++) {
+			QName name = names[i];
+			Object value = parameterValues[i];
+			if(value instanceof XQItem) {
+				expression.bindItem(name, (XQItem)value);
+			}
+			else if(value instanceof XdmNode) {
+				bindNode(expression, name, (XdmNode)value);
+			}
+			else if(value instanceof Collection) {
+				expression.bindSequence(name,
+						getDocumentConnection().createSequence(((Collection<?>)value).iterator()));
+			}
+			else if(value instanceof String && types[i] != null
+					&& types[i].getItemKind() == XQItemType.XQITEMKIND_ATOMIC) {
+				//cast from the lexical form, for instance a header value to an xs:integer
+				expression.bindAtomicValue(name, (String)value, types[i]);
+			}
+			else {
+				expression.bindObject(name, value, types[i]);
+			}
+		}
+
+		return expression.executeQuery();
+	}
+
+	/**
+	 * Binds the Saxon node as is if built by a configuration compatible with the one of the
+	 * Saxon XQJ data source, else binds a new document the node is copied into, walking the
+	 * tree rather than serializing and parsing it
+	 *
+	 * @param expression
+	 * @param name
+	 * @param node
+	 * @throws XQException
+	 */
+	private void bindNode(XQPreparedExpression expression, QName name, XdmNode node) throws XQException {
+		NodeInfo nodeInfo = node.getUnderlyingNode();
+		if(xqDataSource instanceof SaxonXQDataSource && ((SaxonXQDataSource)xqDataSource).getConfiguration()
+															.isCompatible(nodeInfo.getConfiguration())) {
+			//Saxon unwraps its own DOM view, the node is not copied
+			expression.bindNode(name, NodeOverNodeInfo.wrap(nodeInfo), null);
+		}
+		else {
+			expression.bindDocument(name, nodeInfo, null);
+		}
+	}
+
+	private void closeResult(XQResultSequence result) {
+		try {
+			if(result != null && !result.isClosed()) {
+				result.close();
+			}
+		} catch (XQException e) {
+			logger.error("Caught Exception while closing the XQ result sequence", e);
+		}
+	}
+
+	public void close() {
+		if(expressionPool != null) {
+			expressionPool.close();
+		}
+		synchronized (this) {
+			if(documentConnection != null) {
+				try {
+					documentConnection.close();
+				} catch (XQException e) {
+					logger.error("Caught Exception while closing the XQ connection", e);
+				}
+				documentConnection = null;
+			}
+		}
+		//the connection pool may be shared by other engines, it is closed by its owner
+	}
+
+	/**
+	 * Sets the {@link XQConnectionPool} the connections are obtained from, instead of opening
+	 * a new connection from the {@link XQDataSource} every time. The pool uses the data source
+	 * of this engine if it has none set. Needs to be set before the XQuery is compiled. The
+	 * pool may be shared by several engines, it is not closed along with this engine
+	 *
+	 * @param connectionPool
+	 */
+	public void setConnectionPool(XQConnectionPool connectionPool) {
+		Assert.notNull(connectionPool, "Provide a non null instance of the XQConnectionPool");
+		if(connectionPool.getXQDataSource() == null) {
+			connectionPool.setXQDataSource(xqDataSource);
+		}
+		else {
+			Assert.isTrue(connectionPool.getXQDataSource() == xqDataSource,
+					"The XQConnectionPool should use the XQDataSource of the engine");
+		}
+		this.connectionPool = connectionPool;
+	}
+
+	/**
+	 * Sets the strategy used to reuse the prepared XQuery expressions across the executions.
+	 * Needs to be set before the XQuery is compiled
+	 *
+	 * @param expressionPoolMode
+	 */
+	public void setExpressionPoolMode(Mode expressionPoolMode) {
+		Assert.notNull(expressionPoolMode, "Provide a non null expression pool mode");
+		this.expressionPoolMode = expressionPoolMode;
+	}
+
+	/**
+	 * Sets the maximum number of prepared expressions held when the expression pool
+	 * mode is {@link Mode#POOLED}. Needs to be set before the XQuery is compiled
+	 *
+	 * @param expressionPoolSize
+	 */
+	public void setExpressionPoolSize(int expressionPoolSize) {
+		Assert.isTrue(expressionPoolSize > 0, "The expression pool size should be a positive number");
+		this.expressionPoolSize = expressionPoolSize;
+	}
+
+	/**
+	 * Sets whether the executions can be cancelled by the trace listener of the Saxon XQJ
+	 * implementation, see {@link #cancel(Thread)}. Its {@link XQPreparedExpression#cancel()}
+	 * is a no-op, the execution is rather stopped at the next instruction once cancelled,
+	 * provided the static contexts created by the {@link Configuration} of the
+	 * {@link SaxonXQDataSource} compile with tracing, see
+	 * {@link Configuration#newStaticQueryContext()}. The expressions of the other vendors
+	 * are cancelled through their driver whether set or not. Defaults to false
+	 *
+	 * @param cancellable
+	 */
+	public void setCancellable(boolean cancellable) {
+		this.cancellable = cancellable;
+	}
+
+	/**
+	 * Gets the {@link XQDataSource} used by this engine
+	 *
+	 * @return
+	 */
+	public XQDataSource getXQDataSource() {
+		return xqDataSource;
+	}
+
+	/**
+	 * The expression executed by a thread, flagged once cancelled
+	 */
+	private static class RunningExpression {
+
+		private final XQPreparedExpression expression;
+
+		private volatile boolean cancelled;
+
+		private volatile CancellingTraceListener listener;
+
+		private RunningExpression(XQPreparedExpression expression) {
+			this.expression = expression;
+		}
+	}
+
+	/**
+	 * Iterates over the open {@link XQResultSequence}, the prepared expression is
+	 * released once the sequence is exhausted or the iterator is closed
+	 */
+	private class XQJResultIterator<T> implements XQueryResultIterator<T> {
+
+		private final XQResultSequence result;
+
+		private final XQueryItemMapper<T> mapper;
+
+		private PreparedXQuery prepared;
+
+		//the item mapped ahead by hasNext(), not yet returned
+		private T nextItem;
+
+		private boolean hasNextItem;
+
+		private XQJResultIterator(PreparedXQuery prepared, XQResultSequence result, XQueryItemMapper<T> mapper) {
+			this.prepared = prepared;
+			this.result = result;
+			this.mapper = mapper;
+		}
+
+		/**
+		 * Maps the next item ahead, the items the mapper maps to null are skipped as they
+		 * are by {@link XQueryResultMapper#mapResults(XQResultSequence)}
+		 */
+		public boolean hasNext() {
+			while(!hasNextItem && prepared != null) {
+				try {
+					if(!result.next()) {
+						close();
+						break;
+					}
+					nextItem = mapper.mapItem(result);
+				} catch (XQException e) {
+					close();
+					throw new MessagingException("Caught Exception while iterating the result sequence", e);
+				} catch (RuntimeException e) {
+					close();
+					throw e;
+				}
+				hasNextItem = nextItem != null;
+			}
+			return hasNextItem;
+		}
+
+		public T next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			T item = nextItem;
+			nextItem = null;
+			hasNextItem = false;
+			return item;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException("The XQuery results cannot be removed");
+		}
+
+		public void close() {
+			nextItem = null;
+			hasNextItem = false;
+			if(prepared != null) {
+				closeResult(result);
+				expressionPool.release(prepared);
+				prepared = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,438 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery;
+
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.xquery.XQConnection;
+import javax.xml.xquery.XQDataSource;
+import javax.xml.xquery.XQException;
+import javax.xml.xquery.XQPreparedExpression;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.integration.MessagingException;
+import org.springframework.util.Assert;
+
+/**
+ * Holds the {@link XQPreparedExpression} instances used to execute a single XQuery so that
+ * the query is not compiled again for every message. A prepared expression is not thread safe,
+ * hence the expressions are either handed out from a bounded pool or are confined to the
+ * thread using them. With {@link Mode#NONE} a new connection and expression is prepared
+ * for every execution, which is the behavior of the executor prior to the pooling support.
+ *
+ * @author Amol Nayak
+ *
+ */
+public class XQPreparedExpressionPool {
+
+	/**
+	 * The strategy used to reuse the prepared expressions
+	 */
+	public static enum Mode {
+		/**
+		 * Prepare a new expression for every execution
+		 */
+		NONE,
+		/**
+		 * Share a bounded number of prepared expressions amongst all the threads
+		 */
+		POOLED,
+		/**
+		 * Keep one prepared expression per thread, for at most the pool size threads, the
+		 * other threads prepare the XQuery for every execution. Meant for a fixed size pool
+		 * of threads, the expressions of the threads no longer alive are discarded only
+		 * once the pool size is reached
+		 */
+		THREAD_CONFINED
+	}
+
+	public static final int DEFAULT_POOL_SIZE = 10;
+
+	//how often a thread waiting for a pooled expression checks for a connection released meanwhile
+	private static final long CONNECTION_RECHECK_INTERVAL = 100;
+
+	private final Log logger = LogFactory.getLog(XQPreparedExpressionPool.class);
+
+	private final XQDataSource xqDataSource;
+
+	private final String xQuery;
+
+	private final Mode mode;
+
+	private final int poolSize;
+
+	//if set, the connections are obtained from and handed back to this pool
+	private final XQConnectionPool connectionPool;
+
+	private final BlockingQueue<PreparedXQuery> idleExpressions = new LinkedBlockingQueue<PreparedXQuery>();
+
+	//all the expressions cached by this pool, used to close them on shutdown
+	private final Queue<PreparedXQuery> cachedExpressions = new ConcurrentLinkedQueue<PreparedXQuery>();
+
+	private final ThreadLocal<PreparedXQuery> threadExpression = new ThreadLocal<PreparedXQuery>();
+
+	private final AtomicInteger pooledCount = new AtomicInteger();
+
+	private final AtomicInteger preparedCount = new AtomicInteger();
+
+	private volatile boolean closed;
+
+	/**
+	 * Creates the pool for the given XQuery
+	 *
+	 * @param xqDataSource the data source used to obtain the connections
+	 * @param xQuery the XQuery to be prepared
+	 * @param mode the reuse strategy
+	 * @param poolSize the maximum number of expressions held in {@link Mode#POOLED} and
+	 * 				{@link Mode#THREAD_CONFINED} modes
+	 */
+	public XQPreparedExpressionPool(XQDataSource xqDataSource, String xQuery, Mode mode, int poolSize) {
+		this(xqDataSource, null, xQuery, mode, poolSize);
+	}
+
+	/**
+	 * Creates the pool for the given XQuery, preparing the expressions on the connections
+	 * obtained from the given {@link XQConnectionPool}
+	 *
+	 * @param connectionPool the pool of connections the expressions are prepared on
+	 * @param xQuery the XQuery to be prepared
+	 * @param mode the reuse strategy
+	 * @param poolSize the maximum number of expressions held in {@link Mode#POOLED} and
+	 * 				{@link Mode#THREAD_CONFINED} modes
+	 */
+	public XQPreparedExpressionPool(XQConnectionPool connectionPool, String xQuery, Mode mode, int poolSize) {
+		this(null, connectionPool, xQuery, mode, poolSize);
+		Assert.notNull(connectionPool, "Provide a non null instance of the XQConnectionPool");
+	}
+
+	private XQPreparedExpressionPool(XQDataSource xqDataSource, XQConnectionPool connectionPool,
+			String xQuery, Mode mode, int poolSize) {
+		Assert.isTrue(xqDataSource != null || connectionPool != null,
+				"Provide a non null instance of the XQDatasource");
+		Assert.notNull(xQuery, "Provide a non null XQuery");
+		Assert.notNull(mode, "Provide a non null expression pool mode");
+		Assert.isTrue(poolSize > 0, "The expression pool size should be a positive number");
+		this.xqDataSource = xqDataSource;
+		this.xQuery = xQuery;
+		this.mode = mode;
+		this.poolSize = poolSize;
+		this.connectionPool = connectionPool;
+	}
+
+	/**
+	 * Gets a prepared expression for exclusive use by the caller. The expression must be
+	 * handed back using {@link #release(PreparedXQuery)} once the caller is done with it
+	 *
+	 * @return the prepared expression
+	 * @throws XQException
+	 */
+	public PreparedXQuery borrow() throws XQException {
+		Assert.state(!closed, "The prepared expression pool is closed");
+		if(mode == Mode.POOLED) {
+			return borrowPooled();
+		}
+		else if(mode == Mode.THREAD_CONFINED) {
+			PreparedXQuery prepared = threadExpression.get();
+			if(prepared == null) {
+				prepared = prepareConfined();
+				if(prepared == null) {
+					//as many threads as the pool size have their own already
+					return prepare(false);
+				}
+				threadExpression.set(prepared);
+			}
+			else if(prepared.inUse) {
+				//the thread's expression is still in use, do not disturb it
+				return prepare(false);
+			}
+			prepared.inUse = true;
+			return prepared;
+		}
+		else {
+			return prepare(false);
+		}
+	}
+
+	/**
+	 * Gets an idle pooled expression, else prepares one if fewer than the pool size are,
+	 * else waits for one to be released. The pooled expressions hold their connection, with
+	 * a connection pool smaller than this pool a new expression is hence prepared only if
+	 * a connection is available right away, the pool waits for its expressions otherwise
+	 * rather than for a connection that may never be released. The first expression of the
+	 * pool waits for a connection as there is none of its own to wait for
+	 *
+	 * @return the prepared expression
+	 * @throws XQException
+	 */
+	private PreparedXQuery borrowPooled() throws XQException {
+		while(true) {
+			PreparedXQuery prepared = idleExpressions.poll();
+			if(prepared != null) {
+				return prepared;
+			}
+			int count = pooledCount.incrementAndGet();
+			if(count <= poolSize) {
+				try {
+					prepared = prepare(true, count == 1);
+				} catch (XQException e) {
+					pooledCount.decrementAndGet();
+					throw e;
+				} catch (RuntimeException e) {
+					pooledCount.decrementAndGet();
+					throw e;
+				}
+				if(prepared != null) {
+					return prepared;
+				}
+			}
+			pooledCount.decrementAndGet();
+			try {
+				//rechecked, a connection may meanwhile be released by another engine sharing the connection pool
+				prepared = idleExpressions.poll(CONNECTION_RECHECK_INTERVAL, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MessagingException("Interrupted while waiting for a prepared XQuery expression", e);
+			}
+			if(prepared != null) {
+				return prepared;
+			}
+		}
+	}
+
+	/**
+	 * Prepares the expression confined to the current thread unless as many as the pool size
+	 * are held by the threads alive. The confined expressions hold their connection, with a
+	 * connection pool one of its connections is left for the threads without their own
+	 *
+	 * @return the prepared expression, null if no more expressions are to be confined
+	 * @throws XQException
+	 */
+	private PreparedXQuery prepareConfined() throws XQException {
+		int maxConfined = connectionPool != null ? Math.min(poolSize, connectionPool.getMaxSize() - 1) : poolSize;
+		if(pooledCount.incrementAndGet() > maxConfined) {
+			pooledCount.decrementAndGet();
+			if(!discardDeadThreadExpressions() || pooledCount.incrementAndGet() > maxConfined) {
+				pooledCount.decrementAndGet();
+				return null;
+			}
+		}
+		try {
+			PreparedXQuery prepared = prepare(true);
+			prepared.owner = Thread.currentThread();
+			return prepared;
+		} catch (XQException e) {
+			pooledCount.decrementAndGet();
+			throw e;
+		} catch (RuntimeException e) {
+			pooledCount.decrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * Discards the confined expressions of the threads no longer alive, releasing their connections
+	 *
+	 * @return true if any was discarded
+	 */
+	private boolean discardDeadThreadExpressions() {
+		boolean discarded = false;
+		for(PreparedXQuery prepared:cachedExpressions) {
+			if(prepared.owner != null && !prepared.owner.isAlive() && !prepared.inUse
+					&& cachedExpressions.remove(prepared)) {
+				prepared.close();
+				pooledCount.decrementAndGet();
+				discarded = true;
+			}
+		}
+		return discarded;
+	}
+
+	/**
+	 * Hands back the expression obtained from {@link #borrow()}
+	 *
+	 * @param prepared
+	 */
+	public void release(PreparedXQuery prepared) {
+		if(prepared == null) {
+			return;
+		}
+		if(!prepared.cached) {
+			prepared.close();
+			return;
+		}
+		boolean usable = !closed && !prepared.isClosed();
+		if(mode == Mode.POOLED) {
+			if(usable) {
+				idleExpressions.offer(prepared);
+			}
+			else {
+				discard(prepared);
+				pooledCount.decrementAndGet();
+			}
+		}
+		else {
+			prepared.inUse = false;
+			if(!usable) {
+				if(cachedExpressions.remove(prepared)) {
+					pooledCount.decrementAndGet();
+				}
+				prepared.close();
+				if(threadExpression.get() == prepared) {
+					threadExpression.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Closes all the expressions and connections held by this pool
+	 */
+	public void close() {
+		closed = true;
+		PreparedXQuery prepared;
+		while((prepared = cachedExpressions.poll()) != null) {
+			prepared.close();
+		}
+		idleExpressions.clear();
+	}
+
+	/**
+	 * The number of times the XQuery was prepared by this pool
+	 *
+	 * @return
+	 */
+	public int getPreparedCount() {
+		return preparedCount.get();
+	}
+
+	/**
+	 * Gets the reuse strategy of this pool
+	 *
+	 * @return
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+
+	private PreparedXQuery prepare(boolean cached) throws XQException {
+		return prepare(cached, true);
+	}
+
+	/**
+	 * Prepares the XQuery on a new connection or one of the connection pool
+	 *
+	 * @param cached
+	 * @param waitForConnection whether to wait for a connection of the connection pool if all are in use
+	 * @return the prepared expression, null if no connection was available without waiting
+	 * @throws XQException
+	 */
+	private PreparedXQuery prepare(boolean cached, boolean waitForConnection) throws XQException {
+		XQConnection connection;
+		if(connectionPool == null) {
+			connection = xqDataSource.getConnection();
+		}
+		else if(waitForConnection) {
+			connection = connectionPool.getConnection();
+		}
+		else {
+			connection = connectionPool.getConnectionIfAvailable();
+			if(connection == null) {
+				return null;
+			}
+		}
+		XQPreparedExpression expression;
+		try {
+			expression = connection.prepareExpression(xQuery);
+		} catch (XQException e) {
+			closeConnection(connection);
+			throw e;
+		}
+		preparedCount.incrementAndGet();
+		PreparedXQuery prepared = new PreparedXQuery(connection, expression, cached);
+		if(cached) {
+			cachedExpressions.add(prepared);
+		}
+		return prepared;
+	}
+
+	private void closeConnection(XQConnection connection) throws XQException {
+		if(connectionPool != null) {
+			connectionPool.release(connection);
+		}
+		else if(!connection.isClosed()) {
+			connection.close();
+		}
+	}
+
+	private void discard(PreparedXQuery prepared) {
+		cachedExpressions.remove(prepared);
+		prepared.close();
+	}
+
+	/**
+	 * The prepared expression along with the connection it was prepared on
+	 */
+	public class PreparedXQuery {
+
+		private final XQConnection connection;
+
+		private final XQPreparedExpression expression;
+
+		private final boolean cached;
+
+		//may be released by a thread other than the one that borrowed it
+		private volatile boolean inUse;
+
+		//the thread a confined expression is confined to
+		private volatile Thread owner;
+
+		private PreparedXQuery(XQConnection connection, XQPreparedExpression expression, boolean cached) {
+			this.connection = connection;
+			this.expression = expression;
+			this.cached = cached;
+		}
+
+		/**
+		 * Gets the prepared expression
+		 *
+		 * @return
+		 */
+		public XQPreparedExpression getExpression() {
+			return expression;
+		}
+
+		private boolean isClosed() {
+			return expression.isClosed() || connection.isClosed();
+		}
+
+		private void close() {
+			try {
+				if(!expression.isClosed()) {
+					expression.close();
+				}
+				closeConnection(connection);
+			} catch (XQException e) {
+				logger.error("Caught Exception while closing the XQ expression.connection", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.util.Assert;
+
+/**
+ * A cache of the documents parsed from the message payloads, shared by the
+ * {@link XQueryExecutor}s of the endpoints a message flows through so that a payload is
+ * parsed once rather than once per endpoint. The documents are keyed by the identity of
+ * the payload and by the owner of the document, see {@link XQueryEngine#getDocumentOwner()}.
+ * A document parsed by an engine is hence reused by the engines with the same owner only,
+ * that is the XQJ engines sharing the {@link javax.xml.xquery.XQDataSource} or the Saxon
+ * engines sharing the {@link net.sf.saxon.s9api.Processor}. The engine parsing a document is
+ * recorded along with it, its documents are removed once it is closed, see
+ * {@link #removeParsedBy(Object)}.
+ * <p>
+ * The cache holds at most the maximum number of documents and, if set, the maximum weight,
+ * the weight of a document being the length of the payload it is parsed from, or the number
+ * of bytes or characters read for the streamed payloads. The least recently used documents are evicted first. A payload
+ * parsed concurrently by two endpoints may be parsed twice, the last one being retained.
+ *
+ * @author Amol Nayak
+ *
+ */
+public class XQueryDocumentCache {
+
+	public static final int DEFAULT_MAX_SIZE = 100;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	//guarded by the lock, in the access order, least recently used first
+	private final LinkedHashMap<DocumentKey, CachedDocument> documents =
+		new LinkedHashMap<DocumentKey, CachedDocument>(16, 0.75f, true);
+
+	//guarded by the lock
+	private long weight;
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	private volatile int maxSize = DEFAULT_MAX_SIZE;
+
+	private volatile long maxWeight = Long.MAX_VALUE;
+
+	/**
+	 * Gets the document parsed from the given payload by an engine with the given owner
+	 *
+	 * @param payload
+	 * @param owner
+	 * @return the document, null if not cached
+	 */
+	public Object get(Object payload, Object owner) {
+		Assert.notNull(payload, "Provide a non null payload");
+		Assert.notNull(owner, "Provide a non null document owner");
+		CachedDocument cached;
+		lock.lock();
+		try {
+			cached = documents.get(new DocumentKey(payload, owner));
+		} finally {
+			lock.unlock();
+		}
+		if(cached == null) {
+			missCount.incrementAndGet();
+			return null;
+		}
+		hitCount.incrementAndGet();
+		return cached.document;
+	}
+
+	/**
+	 * Caches the document parsed from the given payload by an engine with the given owner,
+	 * evicting the least recently used documents beyond the maximum size or weight. A
+	 * document heavier than the maximum weight is not cached
+	 *
+	 * @param payload
+	 * @param owner
+	 * @param document
+	 * @param documentWeight
+	 */
+	public void put(Object payload, Object owner, Object document, long documentWeight) {
+		put(payload, owner, document, documentWeight, null);
+	}
+
+	/**
+	 * Caches the document parsed from the given payload by the given engine, see
+	 * {@link #put(Object, Object, Object, long)}. The document is removed once the engine is
+	 * closed, see {@link #removeParsedBy(Object)}
+	 *
+	 * @param payload
+	 * @param owner
+	 * @param document
+	 * @param documentWeight
+	 * @param parser the engine that parsed the document, null if not tied to any engine
+	 */
+	public void put(Object payload, Object owner, Object document, long documentWeight, Object parser) {
+		Assert.notNull(payload, "Provide a non null payload");
+		Assert.notNull(owner, "Provide a non null document owner");
+		Assert.notNull(document, "Provide a non null document");
+		Assert.isTrue(documentWeight >= 0, "The weight of the document should not be negative");
+		if(documentWeight > maxWeight) {
+			return;
+		}
+		lock.lock();
+		try {
+			CachedDocument previous = documents.put(new DocumentKey(payload, owner),
+											new CachedDocument(document, documentWeight, parser));
+			if(previous != null) {
+				weight -= previous.weight;
+			}
+			weight += documentWeight;
+			Iterator<CachedDocument> eldest = documents.values().iterator();
+			while(documents.size() > maxSize || weight > maxWeight) {
+				weight -= eldest.next().weight;
+				eldest.remove();
+				evictionCount.incrementAndGet();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the documents of the given owner, invoked when the documents are no longer
+	 * valid, for instance once the XQJ connection they are created from is closed
+	 *
+	 * @param owner
+	 */
+	public void remove(Object owner) {
+		lock.lock();
+		try {
+			Iterator<Map.Entry<DocumentKey, CachedDocument>> entries = documents.entrySet().iterator();
+			while(entries.hasNext()) {
+				Map.Entry<DocumentKey, CachedDocument> entry = entries.next();
+				if(entry.getKey().owner.equals(owner)) {
+					weight -= entry.getValue().weight;
+					entries.remove();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the documents parsed by the given engine, invoked when the engine is closed as
+	 * the documents may not be valid any longer, for instance once the XQJ connection they
+	 * are created from is closed. The documents parsed by the other engines of the same owner
+	 * are retained
+	 *
+	 * @param parser
+	 */
+	public void removeParsedBy(Object parser) {
+		Assert.notNull(parser, "Provide a non null parser");
+		lock.lock();
+		try {
+			Iterator<CachedDocument> cachedDocuments = documents.values().iterator();
+			while(cachedDocuments.hasNext()) {
+				CachedDocument cached = cachedDocuments.next();
+				if(cached.parser == parser) {
+					weight -= cached.weight;
+					cachedDocuments.remove();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes all the documents
+	 */
+	public void clear() {
+		lock.lock();
+		try {
+			documents.clear();
+			weight = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Sets the maximum number of documents held, defaults to 100
+	 *
+	 * @param maxSize
+	 */
+	public void setMaxSize(int maxSize) {
+		Assert.isTrue(maxSize > 0, "The maximum size should be a positive number");
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Sets the maximum total weight of the documents held, the weight of a document being
+	 * the length of the payload it is parsed from or the number of bytes or characters read
+	 * from a streamed payload. Unbounded by default
+	 *
+	 * @param maxWeight
+	 */
+	public void setMaxWeight(long maxWeight) {
+		Assert.isTrue(maxWeight > 0, "The maximum weight should be a positive number");
+		this.maxWeight = maxWeight;
+	}
+
+	/**
+	 * The number of documents currently held
+	 *
+	 * @return
+	 */
+	public int getSize() {
+		lock.lock();
+		try {
+			return documents.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The total weight of the documents currently held
+	 *
+	 * @return
+	 */
+	public long getWeight() {
+		lock.lock();
+		try {
+			return weight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The number of times a document was found in the cache
+	 *
+	 * @return
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * The number of times a document was not found in the cache and had to be parsed
+	 *
+	 * @return
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * The number of documents evicted to stay within the maximum size and weight
+	 *
+	 * @return
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * The payload compared by its identity along with the owner of the document
+	 */
+	private static class DocumentKey {
+
+		private final Object payload;
+
+		private final Object owner;
+
+		private DocumentKey(Object payload, Object owner) {
+			this.payload = payload;
+			this.owner = owner;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(payload) + owner.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof DocumentKey)) {
+				return false;
+			}
+			DocumentKey other = (DocumentKey)obj;
+			return payload == other.payload && owner.equals(other.owner);
+		}
+	}
+
+	private static class CachedDocument {
+
+		private final Object document;
+
+		private final long weight;
+
+		private final Object parser;
+
+		private CachedDocument(Object document, long weight, Object parser) {
+			this.document = document;
+			this.weight = weight;
+			this.parser = parser;
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery;
+
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.integration.Message;
+import org.springframework.integration.handler.ExpressionEvaluatingMessageProcessor;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * The index over the nodes of the static document of an {@link XQueryExecutor}. The nodes
+ * selected by the match expression are indexed by the values of the use expression once,
+ * when the document is parsed. For every message, the key expression is evaluated against
+ * the message and the nodes with that key are bound to the external variable of the
+ * XQuery with the name of this index, the lookup takes a constant time irrespective of
+ * the size of the document.
+ *
+ * @author Amol Nayak
+ *
+ */
+public class XQueryDocumentIndex {
+
+	private final String variableName;
+
+	private final String match;
+
+	private final String use;
+
+	private final String keyExpression;
+
+	private final ExpressionEvaluatingMessageProcessor<Object> messageProcessor;
+
+	/**
+	 * The constructor accepting all the attributes of the index
+	 *
+	 * @param variableName the name of the external variable the nodes found are bound to
+	 * @param match the expression selecting the nodes to be indexed, evaluated with the
+	 * 				document as the context item
+	 * @param use the expression giving the keys of a node, evaluated relative to the node
+	 * @param keyExpression the expression evaluated against the message to get the key looked up
+	 */
+	public XQueryDocumentIndex(String variableName, String match, String use, String keyExpression) {
+		Assert.isTrue(StringUtils.hasText(variableName), "Non null non empty String value expected for variable name");
+		Assert.isTrue(StringUtils.hasText(match), "Non null non empty String value expected for match");
+		Assert.isTrue(StringUtils.hasText(use), "Non null non empty String value expected for use");
+		Assert.isTrue(StringUtils.hasText(keyExpression), "Non null non empty String value expected for key expression");
+		this.variableName = variableName;
+		this.match = match;
+		this.use = use;
+		this.keyExpression = keyExpression;
+		messageProcessor = new ExpressionEvaluatingMessageProcessor<Object>(
+								new SpelExpressionParser().parseExpression(keyExpression));
+	}
+
+	/**
+	 * Evaluates the key expression against the given message
+	 *
+	 * @param message
+	 * @return the key, null if the expression evaluates to null
+	 */
+	public String getKey(Message<?> message) {
+		Object key = messageProcessor.processMessage(message);
+		return key != null ? key.toString() : null;
+	}
+
+	public String getVariableName() {
+		return variableName;
+	}
+
+	public String getMatch() {
+		return match;
+	}
+
+	public String getUse() {
+		return use;
+	}
+
+	public String getKeyExpression() {
+		return keyExpression;
+	}
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.URL;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.integration.MessagingException;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * Splits a document with a large number of records, the child elements of its root with
+ * the given name, into partitions of a number of records each. The document is read
+ * using StAX and every partition is a document with a copy of the root element holding
+ * the records of the partition, the other children of the root are kept in the partition
+ * being filled when they are read. The concatenation of the partitions is hence the
+ * original document, in the same order.
+ *
+ * @author Amol Nayak
+ *
+ */
+public class XQueryDocumentPartitioner {
+
+	private static final Log logger = LogFactory.getLog(XQueryDocumentPartitioner.class);
+
+	public static final int DEFAULT_PARTITION_SIZE = 1000;
+
+	private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+	private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+	private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newInstance();
+
+	private final QName recordElement;
+
+	private final int partitionSize;
+
+	/**
+	 * @param recordElement the name of the records, the local name or the {uri}local name
+	 * @param partitionSize the number of records of every partition
+	 */
+	public XQueryDocumentPartitioner(String recordElement, int partitionSize) {
+		Assert.isTrue(StringUtils.hasText(recordElement), "Provide a non empty record element name");
+		Assert.isTrue(partitionSize > 0, "The partition size should be a positive number");
+		this.recordElement = QName.valueOf(recordElement.trim());
+		this.partitionSize = partitionSize;
+	}
+
+	/**
+	 * Reads the given document and hands over every partition to the handler as soon as
+	 * it is read. A document without any record is handed over as one partition. The
+	 * stream or reader of the source is not closed
+	 *
+	 * @param source
+	 * @param handler
+	 */
+	public void partition(StreamSource source, PartitionHandler handler) {
+		Assert.notNull(source, "Provide a non null source");
+		Assert.notNull(handler, "Provide a non null partition handler");
+		InputStream opened = null;
+		XMLEventReader reader = null;
+		try {
+			if(source.getInputStream() != null) {
+				reader = INPUT_FACTORY.createXMLEventReader(source.getSystemId(), source.getInputStream());
+			}
+			else if(source.getReader() != null) {
+				reader = INPUT_FACTORY.createXMLEventReader(source.getSystemId(), source.getReader());
+			}
+			else {
+				Assert.notNull(source.getSystemId(), "The source has neither a stream, a reader nor a system id");
+				opened = new URL(source.getSystemId()).openStream();
+				reader = INPUT_FACTORY.createXMLEventReader(source.getSystemId(), opened);
+			}
+			partition(reader, handler);
+		} catch (XMLStreamException e) {
+			throw new MessagingException("Caught Exception while partitioning the document", e);
+		} catch (IOException e) {
+			throw new MessagingException("Caught Exception while partitioning the document", e);
+		} finally {
+			if(reader != null) {
+				try {
+					reader.close();
+				} catch (XMLStreamException e) {
+					logger.error("Caught Exception while closing the XML reader", e);
+				}
+			}
+			if(opened != null) {
+				try {
+					opened.close();
+				} catch (IOException e) {
+					logger.error("Caught Exception while closing the document stream", e);
+				}
+			}
+		}
+	}
+
+	private void partition(XMLEventReader reader, PartitionHandler handler) throws XMLStreamException {
+		StartElement root = null;
+		StringWriter partition = null;
+		XMLEventWriter writer = null;
+		int depth = 0;
+		int records = 0;
+		boolean handled = false;
+		while(reader.hasNext()) {
+			XMLEvent event = reader.nextEvent();
+			if(event.isStartElement()) {
+				depth++;
+				if(depth == 1) {
+					root = event.asStartElement();
+					continue;
+				}
+			}
+			else if(event.isEndElement()) {
+				depth--;
+				if(depth == 0) {
+					if(writer == null && !handled) {
+						//no record at all
+						partition = new StringWriter();
+						writer = startPartition(partition, root);
+					}
+					if(writer != null) {
+						handler.handlePartition(endPartition(partition, writer, root));
+					}
+					break;
+				}
+			}
+			if(depth == 0) {
+				//the prolog of the document
+				continue;
+			}
+			if(writer == null) {
+				partition = new StringWriter();
+				writer = startPartition(partition, root);
+			}
+			writer.add(event);
+			if(event.isEndElement() && depth == 1 && isRecord(event.asEndElement().getName())) {
+				records++;
+				if(records == partitionSize) {
+					handler.handlePartition(endPartition(partition, writer, root));
+					handled = true;
+					writer = null;
+					records = 0;
+				}
+			}
+		}
+	}
+
+	private boolean isRecord(QName name) {
+		if(!name.getLocalPart().equals(recordElement.getLocalPart())) {
+			return false;
+		}
+		//the local name matches any namespace
+		return recordElement.getNamespaceURI().length() == 0
+				|| recordElement.getNamespaceURI().equals(name.getNamespaceURI());
+	}
+
+	private XMLEventWriter startPartition(StringWriter partition, StartElement root) throws XMLStreamException {
+		XMLEventWriter writer = OUTPUT_FACTORY.createXMLEventWriter(partition);
+		writer.add(root);
+		return writer;
+	}
+
+	private String endPartition(StringWriter partition, XMLEventWriter writer, StartElement root)
+			throws XMLStreamException {
+		writer.add(EVENT_FACTORY.createEndElement(root.getName(), root.getNamespaces()));
+		writer.close();
+		return partition.toString();
+	}
+
+	/**
+	 * The handler of the partitions of the document
+	 */
+	public static interface PartitionHandler {
+
+		/**
+		 * @param partition the partition, a document with the root element and a number of records
+		 */
+		void handlePartition(String partition);
+	}
+}
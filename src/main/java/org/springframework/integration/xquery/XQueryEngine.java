@@ -0,0 +1,163 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.transform.Source;
+
+/**
+ * The strategy interface for the XQuery processor used by the {@link XQueryExecutor}.
+ * An instance compiles and executes exactly one XQuery and is used by one executor.
+ * The implementations are expected to be thread safe once compiled.
+ *
+ * @author Amol Nayak
+ *
+ * @see XQJXQueryEngine
+ * @see SaxonXQueryEngine
+ */
+public interface XQueryEngine {
+
+	/**
+	 * Compiles the given XQuery, invoked once before the XQuery is executed
+	 *
+	 * @param xQuery
+	 */
+	void compile(String xQuery);
+
+	/**
+	 * Gets the local names of the external variables declared in the compiled XQuery
+	 *
+	 * @return the names, an empty {@link List} if none are declared
+	 */
+	List<String> getExternalVariableNames();
+
+	/**
+	 * Tells if the compiled XQuery depends on the context item, that is it uses the context
+	 * item, its position or the root of its document, directly in its body or in the
+	 * initializer of a global variable. If it doesn't, the context item need not be parsed
+	 * nor bound. The implementations that can't tell return true
+	 *
+	 * @return false only if the XQuery is known not to depend on the context item
+	 */
+	boolean isContextItemUsed();
+
+	/**
+	 * Declares the type of the values bound to an external variable, invoked after the XQuery
+	 * is compiled. The type is an XQuery sequence type, for instance xs:string, xs:integer?
+	 * or element()*, that needs to be the declared type of the variable in the XQuery or a
+	 * subtype of it. The values are then bound with this type, a String value bound to an
+	 * atomic type is cast from its lexical form
+	 *
+	 * @param name the local name of the external variable
+	 * @param sequenceType the type of the values
+	 * @throws org.springframework.integration.MessagingException if the type is invalid or not
+	 * 				compatible with the declaration of the variable in the XQuery
+	 */
+	void setExternalVariableType(String name, String sequenceType);
+
+	/**
+	 * Executes the compiled XQuery and maps the result using the given mapper
+	 *
+	 * @param <T>
+	 * @param contextItem the context item for the XQuery, a DOM {@link org.w3c.dom.Node}, a
+	 * 				{@link Source} that the engine parses into its own tree model or a document
+	 * 				parsed by {@link #parseDocument(Source)}, null if the XQuery does not use it
+	 * @param parameterValues the values of the external variables, in the order of
+	 * 				{@link #getExternalVariableNames()}
+	 * @param mapper the mapper for the result
+	 * @return the mapped result
+	 */
+	<T> List<T> execute(Object contextItem, Object[] parameterValues, XQueryResultMapper<T> mapper);
+
+	/**
+	 * Executes the compiled XQuery and returns an {@link XQueryResultIterator} that maps
+	 * the items lazily using the given mapper as they are iterated. The iterator is to be
+	 * closed if not iterated until the end
+	 *
+	 * @param <T>
+	 * @param contextItem the context item for the XQuery, same as in
+	 * 				{@link #execute(Object, Object[], XQueryResultMapper)}
+	 * @param parameterValues the values of the external variables, in the order of
+	 * 				{@link #getExternalVariableNames()}
+	 * @param mapper the mapper for the individual items
+	 * @return the iterator over the mapped items
+	 */
+	<T> XQueryResultIterator<T> iterate(Object contextItem, Object[] parameterValues, XQueryItemMapper<T> mapper);
+
+	/**
+	 * Executes the compiled XQuery and computes the effective boolean value of its result.
+	 * The evaluation stops at the first item of the result and no item is mapped, a node
+	 * as the first item is true without being looked at
+	 *
+	 * @param contextItem the context item for the XQuery, same as in
+	 * 				{@link #execute(Object, Object[], XQueryResultMapper)}
+	 * @param parameterValues the values of the external variables, in the order of
+	 * 				{@link #getExternalVariableNames()}
+	 * @return the effective boolean value of the result
+	 */
+	boolean effectiveBooleanValue(Object contextItem, Object[] parameterValues);
+
+	/**
+	 * Cancels the execution of {@link #execute(Object, Object[], XQueryResultMapper)} or
+	 * {@link #effectiveBooleanValue(Object, Object[])} in progress on the given thread, if
+	 * any, the execution then fails with an exception. Invoked from another thread, for
+	 * instance to enforce a timeout. The cancellation is a best effort, the implementations
+	 * that can't interrupt an execution let it complete
+	 *
+	 * @param thread the thread executing the XQuery
+	 */
+	void cancel(Thread thread);
+
+	/**
+	 * Gets the key identifying the engines the documents parsed by this engine can be used
+	 * with, the documents are usable as the context item of any engine with an equal owner
+	 *
+	 * @return the owner of the parsed documents
+	 * @see XQueryDocumentCache
+	 */
+	Object getDocumentOwner();
+
+	/**
+	 * Parses the given document into the native tree model of this engine. The parsed
+	 * document is immutable and may be passed as the context item or as a parameter value
+	 * to any number of executions from any number of threads, until this engine is closed
+	 *
+	 * @param source the document to be parsed
+	 * @return the parsed document
+	 */
+	Object parseDocument(Source source);
+
+	/**
+	 * Indexes the nodes of a document parsed by {@link #parseDocument(Source)}. The nodes
+	 * selected by the match expression, evaluated with the document as the context item,
+	 * are indexed by the string values of the use expression, evaluated relative to every
+	 * such node. The nodes of the index are in the document order and may be passed as a
+	 * parameter value in a {@link List}
+	 *
+	 * @param document the parsed document
+	 * @param match the expression selecting the nodes to be indexed
+	 * @param use the expression giving the keys of a node
+	 * @return the nodes by their key
+	 */
+	Map<String, List<Object>> indexDocument(Object document, String match, String use);
+
+	/**
+	 * Releases the resources held by this engine
+	 */
+	void close();
+}
@@ -15,31 +15,70 @@
  */
 package org.springframework.integration.xquery;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Method;
+import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
-import javax.xml.namespace.QName;
-import javax.xml.xquery.XQConnection;
-import javax.xml.xquery.XQConstants;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
 import javax.xml.xquery.XQDataSource;
 import javax.xml.xquery.XQException;
 import javax.xml.xquery.XQItemType;
-import javax.xml.xquery.XQPreparedExpression;
 import javax.xml.xquery.XQResultSequence;
 
+import net.sf.saxon.Configuration;
+import net.sf.saxon.dom.NodeOverNodeInfo;
+import net.sf.saxon.query.StaticQueryContext;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmNodeKind;
+import net.sf.saxon.s9api.XdmValue;
 import net.sf.saxon.xqj.SaxonXQDataSource;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.core.io.Resource;
 import org.springframework.integration.Message;
 import org.springframework.integration.MessagingException;
 import org.springframework.integration.xml.DefaultXmlPayloadConverter;
 import org.springframework.integration.xml.XmlPayloadConverter;
+import org.springframework.integration.xquery.XQPreparedExpressionPool.Mode;
+import org.springframework.integration.xquery.XQueryDocumentPartitioner.PartitionHandler;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
 import org.springframework.util.StringUtils;
 import org.w3c.dom.Node;
 
@@ -55,8 +94,57 @@ import org.w3c.dom.Node;
  * @author Amol Nayak
  *
  */
-public class XQueryExecutor implements InitializingBean {
+public class XQueryExecutor implements InitializingBean, DisposableBean {
+
+	public static final int DEFAULT_ASYNC_QUEUE_CAPACITY = 100;
+
+	private static final Object[] NO_PARAMETERS = new Object[0];
+
+	private static final ParameterBinding[] NO_BINDINGS = new ParameterBinding[0];
+
+	//used for the XdmNode results unless a mapper is registered for them, it has no state
+	private static final XdmNodeResultMapper XDM_NODE_RESULT_MAPPER = new XdmNodeResultMapper();
+
+	//java.nio.file.Path is available from Java 7 onwards only
+	private static final Class<?> PATH_CLASS;
+
+	private static final Method PATH_TO_URI_METHOD;
+
+	//shared by the default XQJ engines, the owner of the documents they parse, see
+	//XQueryDocumentCache, and sharing the configuration of the default Saxon engine
+	private static final XQDataSource DEFAULT_XQ_DATA_SOURCE =
+		new SaxonXQDataSource(SaxonXQueryEngine.DEFAULT_PROCESSOR.getUnderlyingConfiguration());
+	//Thread.ofVirtual() and the name and factory methods of its builder, Java 21 onwards
+	private static final Method OF_VIRTUAL_METHOD;
 
+	private static final Method THREAD_BUILDER_NAME_METHOD;
+
+	private static final Method THREAD_BUILDER_FACTORY_METHOD;
+
+	static {
+		Class<?> pathClass = null;
+		Method toUriMethod = null;
+		ClassLoader classLoader = XQueryExecutor.class.getClassLoader();
+		if(ClassUtils.isPresent("java.nio.file.Path", classLoader)) {
+			pathClass = ClassUtils.resolveClassName("java.nio.file.Path", classLoader);
+			toUriMethod = ReflectionUtils.findMethod(pathClass, "toUri");
+		}
+		PATH_CLASS = pathClass;
+		PATH_TO_URI_METHOD = toUriMethod;
+
+		Method ofVirtualMethod = null;
+		Method nameMethod = null;
+		Method factoryMethod = null;
+		if(ClassUtils.isPresent("java.lang.Thread$Builder", classLoader)) {
+			Class<?> builderClass = ClassUtils.resolveClassName("java.lang.Thread$Builder", classLoader);
+			ofVirtualMethod = ReflectionUtils.findMethod(Thread.class, "ofVirtual");
+			nameMethod = ReflectionUtils.findMethod(builderClass, "name", String.class, long.class);
+			factoryMethod = ReflectionUtils.findMethod(builderClass, "factory");
+		}
+		OF_VIRTUAL_METHOD = ofVirtualMethod;
+		THREAD_BUILDER_NAME_METHOD = nameMethod;
+		THREAD_BUILDER_FACTORY_METHOD = factoryMethod;
+	}
 
 	private final Log logger = LogFactory.getLog(XQueryExecutor.class);
 
@@ -65,6 +153,10 @@ public class XQueryExecutor implements InitializingBean {
 	 */
 	private XmlPayloadConverter converter = new DefaultXmlPayloadConverter();
 
+	//the DOM conversion is skipped for the payloads the engine can parse itself, unless
+	//a converter is explicitly provided
+	private volatile boolean customConverter;
+
 	 @SuppressWarnings("rawtypes")
 	private volatile  Map resultMappers;
 
@@ -85,10 +177,71 @@ public class XQueryExecutor implements InitializingBean {
 	//The resource to the XQuery's .xq file
 	private Resource xQueryFileResource;
 
-	//TODO: Can we have a static xml resource which will be used always to execute the
-	//given XQuery as against the one sent in the payload. The default is to use the one in the
-	//payload unless one for static xml is provided
+	private volatile Mode expressionPoolMode = Mode.NONE;
+
+	private volatile int expressionPoolSize = XQPreparedExpressionPool.DEFAULT_POOL_SIZE;
+
+	private volatile XQConnectionPool connectionPool;
+
+	//The engine that compiles and executes the XQuery, XQJ based if none is provided
+	private volatile XQueryEngine engine;
+
+	//The static document, queried instead of the payload unless bound to a variable
+	private volatile Resource staticDocumentResource;
+
+	private volatile String staticDocumentVariable;
+
+	private volatile List<XQueryDocumentIndex> documentIndexes;
+
+	//parsed once by the engine and shared by all the executions
+	private volatile Object staticDocument;
+
+	//the bindings of the variables bound to the static document and its indexes
+	private volatile Map<String, ParameterBinding> documentBindings;
+
+	//the source of the value of every external variable, in the order of the engine's variables
+	private volatile ParameterBinding[] parameterBindings = NO_BINDINGS;
+
+	//the payload is neither converted nor bound if the XQuery doesn't use the context item
+	private volatile boolean contextItemUsed = true;
+
+	private volatile int resultCacheSize;
+
+	//the results by the parameter values, for the XQueries whose result depends on them only
+	private volatile Map<List<Object>, List<?>> resultCache;
+
+	private volatile XQueryDocumentCache documentCache;
+
+	//the preceding stage of a pipeline, its resulting node is the context item of this XQuery
+	private volatile XQueryExecutor precedingStage;
+
+	private volatile String partitionElement;
+
+	private volatile int partitionSize = XQueryDocumentPartitioner.DEFAULT_PARTITION_SIZE;
+
+	private volatile Executor partitionTaskExecutor;
+
+	//splits the payload into partitions of records the XQuery is executed against
+	private volatile XQueryDocumentPartitioner partitioner;
 
+	private volatile Executor asyncExecutor;
+
+	private volatile int asyncPoolSize = Runtime.getRuntime().availableProcessors();
+
+	private volatile int asyncQueueCapacity = DEFAULT_ASYNC_QUEUE_CAPACITY;
+
+	private volatile RejectedExecutionHandler asyncRejectedExecutionHandler = new ThreadPoolExecutor.CallerRunsPolicy();
+
+	private volatile boolean asyncVirtualThreads;
+
+	private volatile long executionTimeout;
+
+	private final AtomicLong timeoutCount = new AtomicLong();
+
+	//the default bounded pool, created on the first asynchronous execution
+	private ThreadPoolExecutor asyncPool;
+
+	private final Object asyncPoolMonitor = new Object();
 
 	public void afterPropertiesSet() {
 		if(resultMappers == null) {
@@ -96,8 +249,23 @@ public class XQueryExecutor implements InitializingBean {
 		}
 		addDefaultMappers();
 
-		if(xqDataSource == null) {
-			xqDataSource = new SaxonXQDataSource();//default
+		if(engine == null) {
+			if(xqDataSource == null) {
+				xqDataSource = executionTimeout > 0 ? CancellableXQDataSource.DATA_SOURCE : DEFAULT_XQ_DATA_SOURCE;
+			}
+			XQJXQueryEngine xqjEngine = new XQJXQueryEngine(xqDataSource);
+			xqjEngine.setExpressionPoolMode(expressionPoolMode);
+			xqjEngine.setExpressionPoolSize(expressionPoolSize);
+			if(connectionPool != null) {
+				xqjEngine.setConnectionPool(connectionPool);
+			}
+			engine = xqjEngine;
+		}
+		else {
+			Assert.isTrue(xqDataSource == null,
+					"The XQDataSource is used by the default XQJ engine only, it cannot be set along with an XQueryEngine");
+			Assert.isTrue(connectionPool == null,
+					"The XQConnectionPool is used by the default XQJ engine only, it cannot be set along with an XQueryEngine");
 		}
 		if(xQuery == null) {
 			//perhaps resource specified
@@ -105,31 +273,49 @@ public class XQueryExecutor implements InitializingBean {
 			xQuery = XQueryUtils.readXQueryFromResource(xQueryFileResource);
 		}
 
+		if(executionTimeout > 0 && engine instanceof SaxonXQueryEngine) {
+			((SaxonXQueryEngine)engine).setCancellable(true);
+		}
+		else if(executionTimeout > 0 && engine instanceof XQJXQueryEngine) {
+			((XQJXQueryEngine)engine).setCancellable(true);
+		}
+		String foldedXQuery = foldConstantParameters();
 		try {
-			XQConnection conn = xqDataSource.getConnection();
-			XQPreparedExpression expression = conn.prepareExpression(xQuery);
-			QName[] extParameters = expression.getAllExternalVariables();
-			if(extParameters != null && extParameters.length > 0) {
-				xQueryParameters = new ArrayList<String>();
-				for(QName qName:extParameters) {
-					xQueryParameters.add(qName.getLocalPart());
-				}
+			engine.compile(foldedXQuery);
+		} catch (MessagingException e) {
+			if(foldedXQuery.equals(xQuery)) {
+				throw e;
 			}
-			expression.close();
-			conn.close();
-		} catch (XQException e) {
-			throw new MessagingException("Caught Exception while opening a connection to the datasource", e);
+			//a constant not valid for its declared type, left to be bound as before
+			logger.debug("The XQuery with the constant parameters does not compile, binding them instead", e);
+			engine.compile(xQuery);
+		}
+		List<String> extParameters = engine.getExternalVariableNames();
+		if(extParameters.size() > 0) {
+			xQueryParameters = new ArrayList<String>(extParameters);
+		}
+
+		//the variables bound to the static document and its indexes are not message parameters
+		List<String> messageParameters = xQueryParameters;
+		if(staticDocumentResource != null) {
+			messageParameters = parseStaticDocument(extParameters);
+		}
+		else {
+			Assert.isTrue(staticDocumentVariable == null && documentIndexes == null,
+					"The static document variable and indexes need the static document to be provided");
 		}
+		Assert.isTrue(precedingStage == null || staticDocument == null || staticDocumentVariable != null,
+				"The static document cannot be the context item of a stage preceded by another one");
 
-		if(xQueryParameters != null) {
+		if(messageParameters != null && messageParameters.size() > 0) {
 			if (xQueryParameterMap == null) {
-				throw new MessagingException("Expecting " + xQueryParameters.size() + " parameters in the xquery, " +
+				throw new MessagingException("Expecting " + messageParameters.size() + " parameters in the xquery, " +
 						"but none provided to the router");
 			}
 
 			//now check if all the parameter needed are present in the map
 			List<String> missingParameters = new ArrayList<String>();
-			for(String xQueryParameter:xQueryParameters) {
+			for(String xQueryParameter:messageParameters) {
 				if(!xQueryParameterMap.containsKey(xQueryParameter)) {
 					missingParameters.add(xQueryParameter);
 				}
@@ -146,9 +332,135 @@ public class XQueryExecutor implements InitializingBean {
 				builder.append("]");
 				throw new MessagingException("Missing parameter(s) " + builder.toString());
 			}
+
+			//the declared types are validated against the XQuery once, here on startup
+			for(String xQueryParameter:messageParameters) {
+				String type = xQueryParameterMap.get(xQueryParameter).getType();
+				if(type != null) {
+					engine.setExternalVariableType(xQueryParameter, type);
+				}
+			}
+		}
+
+		parameterBindings = createParameterBindings(extParameters);
+
+		contextItemUsed = engine.isContextItemUsed();
+		if(partitionElement != null) {
+			Assert.isTrue(precedingStage == null && (staticDocument == null || staticDocumentVariable != null),
+					"The payload is partitioned only if it is the context item of the XQuery");
+			partitioner = new XQueryDocumentPartitioner(partitionElement, partitionSize);
+		}
+		boolean staticContextItem = staticDocument != null && staticDocumentVariable == null;
+		if(resultCacheSize > 0 && (!contextItemUsed || staticContextItem)) {
+			resultCache = Collections.synchronizedMap(new ResultCache(resultCacheSize));
+		}
+	}
+
+	/**
+	 * Declares the parameters with a static value as constants in the XQuery, letting the
+	 * processor fold the expressions depending on them when the XQuery is compiled. Only the
+	 * remaining external variables are bound for every message
+	 *
+	 * @return the XQuery to compile
+	 */
+	private String foldConstantParameters() {
+		String foldedXQuery = xQuery;
+		if(xQueryParameterMap != null) {
+			for(XQueryParameter parameter:xQueryParameterMap.values()) {
+				String name = parameter.getParameterName();
+				if(parameter.isValueSet() && parameter.getType() == null && !isDocumentVariable(name)) {
+					String constantXQuery = XQueryUtils.declareConstantVariable(foldedXQuery, name,
+																			parameter.getParameterValue());
+					if(constantXQuery != null) {
+						foldedXQuery = constantXQuery;
+					}
+				}
+			}
+		}
+		return foldedXQuery;
+	}
+
+	private boolean isDocumentVariable(String name) {
+		if(name.equals(staticDocumentVariable)) {
+			return true;
+		}
+		if(documentIndexes != null) {
+			for(XQueryDocumentIndex index:documentIndexes) {
+				if(name.equals(index.getVariableName())) {
+					return true;
+				}
+			}
 		}
+		return false;
+	}
 
+	/**
+	 * Resolves the source of the value of every external variable once, the values are then
+	 * obtained for every message without looking up the variables by their name
+	 *
+	 * @param extParameters the external variables of the XQuery
+	 * @return
+	 */
+	private ParameterBinding[] createParameterBindings(List<String> extParameters) {
+		if(extParameters.isEmpty()) {
+			return NO_BINDINGS;
+		}
+		ParameterBinding[] bindings = new ParameterBinding[extParameters.size()];
+		for(int i = 0;i < bindings.length;i++) {
+			String name = extParameters.get(i);
+			if(documentBindings != null && documentBindings.containsKey(name)) {
+				bindings[i] = documentBindings.get(name);
+			}
+			else {
+				bindings[i] = new MessageParameterBinding(xQueryParameterMap.get(name));
+			}
+		}
+		return bindings;
+	}
 
+	/**
+	 * Parses the static document and builds its indexes
+	 *
+	 * @param extParameters the external variables of the XQuery
+	 * @return the external variables whose values are to be derived from the message
+	 */
+	private List<String> parseStaticDocument(List<String> extParameters) {
+		List<String> messageParameters = new ArrayList<String>(extParameters);
+		documentBindings = new HashMap<String, ParameterBinding>();
+		if(staticDocumentVariable != null) {
+			Assert.isTrue(messageParameters.remove(staticDocumentVariable), "The static document variable $"
+					+ staticDocumentVariable + " is not declared as an external variable in the XQuery");
+		}
+		Assert.isTrue(staticDocumentResource.exists(), "Provided static document resource does not exist");
+		InputStream in = null;
+		try {
+			in = staticDocumentResource.getInputStream();
+			staticDocument = engine.parseDocument(
+					new StreamSource(in, staticDocumentResource.getURL().toExternalForm()));
+		} catch (IOException e) {
+			throw new MessagingException("Error while reading the static document resource", e);
+		} finally {
+			if(in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					//ignore
+				}
+			}
+		}
+		if(staticDocumentVariable != null) {
+			documentBindings.put(staticDocumentVariable, new StaticValueBinding(staticDocument));
+		}
+		if(documentIndexes != null) {
+			for(XQueryDocumentIndex index:documentIndexes) {
+				String variableName = index.getVariableName();
+				Assert.isTrue(messageParameters.remove(variableName), "The document index variable $"
+						+ variableName + " is not declared as an external variable in the XQuery");
+				documentBindings.put(variableName, new DocumentIndexBinding(index,
+						engine.indexDocument(staticDocument, index.getMatch(), index.getUse())));
+			}
+		}
+		return messageParameters;
 	}
 
 	/**
@@ -224,6 +536,18 @@ public class XQueryExecutor implements InitializingBean {
 		return execute(message,Node.class);
 	}
 
+	/**
+	 * Executes the XQuery for result and produce the result as a {@link List} of Saxon
+	 * {@link XdmNode}s. The nodes are not copied nor serialized, a downstream executor binds
+	 * them as they are when they are the payload of the message it executes its XQuery for
+	 * @param message the source message that would be used to derive the values of the parameters
+	 *
+	 * @return The {@link List} of results
+	 */
+	public List<XdmNode> executeForXdmNode(Message<?> message) {
+		return execute(message,XdmNode.class);
+	}
+
 	/**
 	 * Execute the given XQuery and returns a {@link List} of the provided type
 	 * @param <T>
@@ -235,8 +559,15 @@ public class XQueryExecutor implements InitializingBean {
 	public <T> List<T> execute(Message<?> message,Class<T> returnType) {
 		Assert.notNull(message,"Non null message expected");
 		Assert.notNull(returnType,"Non null type expected");
+		return execute(message, (XQueryResultMapper<T>)getResultMapper(returnType));
+	}
+
+	private Object getResultMapper(Class<?> returnType) {
+		if(returnType == XdmNode.class && !resultMappers.containsKey(returnType)) {
+			return XDM_NODE_RESULT_MAPPER;
+		}
 		Assert.isTrue(resultMappers.containsKey(returnType),"No Result mapper found for the type " + returnType.getName());
-		return execute(message, (XQueryResultMapper<T>)resultMappers.get(returnType));
+		return resultMappers.get(returnType);
 	}
 
 	/**
@@ -248,154 +579,942 @@ public class XQueryExecutor implements InitializingBean {
 	 * @return
 	 */
 	public <T> List<T> execute(Message<?> message,XQueryResultMapper<T> mapper) {
-		Node node = converter.convertToNode(message.getPayload());
+		return execute(message, null, mapper);
+	}
 
-		if(node == null) {
-			return null;
-		}
+	/**
+	 * Executes the XQuery against the given document in place of the payload of the message,
+	 * for instance the payload parsed once for several executors, see
+	 * {@link XQueryParallelExecutor}. The parameters are still derived from the message. The
+	 * document is converted as the payload would be, or executed against by the preceding
+	 * stage if any, it is not used along with a static document bound to the context item
+	 *
+	 * @param <T>
+	 * @param message
+	 * @param document the document, the payload of the message is used if null
+	 * @param returnType
+	 * @return
+	 */
+	@SuppressWarnings({ "unchecked"})
+	public <T> List<T> execute(Message<?> message,Object document,Class<T> returnType) {
+		Assert.notNull(message,"Non null message expected");
+		Assert.notNull(returnType,"Non null type expected");
+		return execute(message, document, (XQueryResultMapper<T>)getResultMapper(returnType));
+	}
 
-		XQConnection connection = null;
-		XQPreparedExpression expression = null;
+	/**
+	 * Executes the XQuery against the given document in place of the payload of the message
+	 * and uses the provided mapper, see {@link #execute(Message, Object, Class)}
+	 *
+	 * @param <T>
+	 * @param message
+	 * @param document the document, the payload of the message is used if null
+	 * @param mapper
+	 * @return
+	 */
+	public <T> List<T> execute(Message<?> message,Object document,XQueryResultMapper<T> mapper) {
+		if(executionTimeout <= 0) {
+			return doExecute(message, document, mapper, null);
+		}
+		ExecutionTimeout executionTimeout = new ExecutionTimeout();
+		List<T> result = null;
+		RuntimeException failure = null;
 		try {
-			connection = xqDataSource.getConnection();
-			expression = connection.prepareExpression(xQuery);
-			expression.bindNode(XQConstants.CONTEXT_ITEM, node, null);
-
-			//bind the parameter values
-			if(xQueryParameters != null && xQueryParameters.size() > 0) {
-				//bind them one by one
-				for(String parameter:xQueryParameters) {
-					XQueryParameter xQueryParam = xQueryParameterMap.get(parameter);
-					//TODO: Check what possible values can be supported to be set here
-					//Accordingly do we need to set the third parameter for XQItemType
-					expression.bindObject(new QName(xQueryParam.getParameterName()),
-													xQueryParam.evaluate(message), null);
-				}
-			}
-
-			XQResultSequence result = expression.executeQuery();
-			return mapper.mapResults(result);
-
-		} catch (XQException e) {
-			throw new MessagingException("Caught Exception while opening a connection to the datasource", e);
+			result = doExecute(message, document, mapper, executionTimeout);
+		} catch (RuntimeException e) {
+			failure = e;
 		} finally {
-			try {
-				if(expression != null) {
-					expression.close();
-				}
-				if(connection != null) {
-					connection.close();
+			failure = executionTimeout.stop(message, failure);
+		}
+		if(failure != null) {
+			throw failure;
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> List<T> doExecute(Message<?> message, Object document, XQueryResultMapper<T> mapper,
+			ExecutionTimeout executionTimeout) {
+		Object contextItem = null;
+		if(contextItemUsed) {
+			if(partitioner != null) {
+				contextItem = toContextItem(document != null ? document : message.getPayload());
+				if(contextItem instanceof StreamSource) {
+					return executePartitioned(message, (StreamSource)contextItem, mapper, executionTimeout);
 				}
-			} catch (XQException e) {
-				logger.error("Caught Exception while closing the XQ expression.connection", e);
+			}
+			else {
+				contextItem = getContextItem(message, document);
+			}
+			if(contextItem == null) {
+				return null;
 			}
 		}
+		Object[] parameterValues = getParameterValues(message);
+		Map<List<Object>, List<?>> cache = resultCache;
+		if(cache == null) {
+			return engine.execute(contextItem, parameterValues, mapper);
+		}
+		List<Object> key = new ArrayList<Object>(parameterValues.length + 1);
+		key.add(mapper);
+		key.addAll(Arrays.asList(parameterValues));
+		List<T> result = (List<T>)cache.get(key);
+		if(result == null) {
+			result = engine.execute(contextItem, parameterValues, mapper);
+			if(result != null) {
+				result = Collections.unmodifiableList(result);
+				cache.put(key, result);
+			}
+		}
+		return result;
 	}
 
 	/**
-	 * Sets all the result mappers to be used by this executor.
-	 * @param <T>
-	 * @param mappers
+	 * Executes the XQuery against every partition of the payload, with the partition task
+	 * executor if provided, and merges the results in the order of the partitions. The
+	 * partitions are executed as soon as they are read from the payload
 	 */
-	@SuppressWarnings("rawtypes")
-	public <T> void setResultMappers(Map<Class<T>, XQueryResultMapper<T>> mappers) {
-		Assert.notNull(mappers);
-		this.resultMappers = new HashMap<Class<T>, XQueryResultMapper<T>>(mappers);
-		//not iterate through them and set the format
-		for(Object mapper:resultMappers.values()) {
-			if(mapper instanceof AbstractXQueryResultMapper) {
-				((AbstractXQueryResultMapper)mapper).setFormatOutput(formatOutput);
+	private <T> List<T> executePartitioned(Message<?> message, StreamSource source,
+			final XQueryResultMapper<T> mapper, final ExecutionTimeout executionTimeout) {
+		final Object[] parameterValues = getParameterValues(message);
+		final Executor taskExecutor = partitionTaskExecutor;
+		final List<FutureTask<List<T>>> partials = new ArrayList<FutureTask<List<T>>>();
+		try {
+			partitioner.partition(source, new PartitionHandler() {
+				public void handlePartition(final String partition) {
+					FutureTask<List<T>> partial = new FutureTask<List<T>>(new Callable<List<T>>() {
+						public List<T> call() {
+							if(executionTimeout == null) {
+								return engine.execute(new StreamSource(new StringReader(partition)), parameterValues, mapper);
+							}
+							//the thread executing the partition is cancelled along with the caller
+							executionTimeout.enter();
+							try {
+								return engine.execute(new StreamSource(new StringReader(partition)), parameterValues, mapper);
+							} finally {
+								executionTimeout.exit();
+							}
+						}
+					});
+					partials.add(partial);
+					if(taskExecutor != null) {
+						taskExecutor.execute(partial);
+					}
+					else {
+						partial.run();
+					}
+				}
+			});
+			List<T> result = new ArrayList<T>();
+			for(FutureTask<List<T>> partial:partials) {
+				List<T> partialResult = partial.get();
+				if(partialResult != null) {
+					result.addAll(partialResult);
+				}
+			}
+			return result;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MessagingException(message, "Interrupted while executing the XQuery on the partitions", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			if(cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new MessagingException(message, "Caught Exception while executing the XQuery", cause);
+		} finally {
+			for(FutureTask<List<T>> partial:partials) {
+				partial.cancel(true);
 			}
 		}
 	}
 
 	/**
-	 *Set the {@link XmlPayloadConverter} that would be used to convert the payload
-	 * into the XML {@link Node}
+	 * Executes the XQuery asynchronously with the async executor, see
+	 * {@link #getAsyncExecutor()}, and returns the {@link Future} of the result. The results
+	 * are mapped to the provided type
 	 *
-	 * @param converter
+	 * @param <T>
+	 * @param message
+	 * @param returnType
+	 * @return
 	 */
-	public void setConverter(XmlPayloadConverter converter) {
-		Assert.notNull(converter, "Provide a non null instance of XmlPayloadConverter");
-		this.converter = converter;
+	@SuppressWarnings("unchecked")
+	public <T> Future<List<T>> executeAsync(Message<?> message,Class<T> returnType) {
+		Assert.notNull(message,"Non null message expected");
+		Assert.notNull(returnType,"Non null type expected");
+		return executeAsync(message, (XQueryResultMapper<T>)getResultMapper(returnType));
 	}
 
 	/**
-	 * The XQuery string that would be evaluated to determine the channel names
-	 * @param xQuery
+	 * Executes the XQuery asynchronously with the async executor, see
+	 * {@link #getAsyncExecutor()}, and returns the {@link Future} of the result. With the
+	 * default executor, the calling thread executes the XQuery itself once the queue of the
+	 * executor is full, slowing down the producer of the messages. The exceptions thrown
+	 * by the execution are thrown by {@link Future#get()}, wrapped in an
+	 * {@link java.util.concurrent.ExecutionException}
+	 *
+	 * @param <T>
+	 * @param message
+	 * @param mapper
+	 * @return
 	 */
-	public void setXQuery(String xQuery) {
-		Assert.isTrue(xQueryFileResource == null, "Only one of XQuery resource file or XQuery may be specified");
-		Assert.notNull(xQuery, "Provide a non null XQuery");
-		this.xQuery = xQuery;
+	public <T> Future<List<T>> executeAsync(final Message<?> message,final XQueryResultMapper<T> mapper) {
+		Assert.notNull(message,"Non null message expected");
+		Assert.notNull(mapper,"Non null mapper expected");
+		FutureTask<List<T>> result = new FutureTask<List<T>>(new Callable<List<T>>() {
+			public List<T> call() {
+				return execute(message, mapper);
+			}
+		});
+		getAsyncExecutor().execute(result);
+		return result;
 	}
 
 	/**
-	 * Sets the XQuery's .xq file as the resource. The contents of this file will be read as xQuery
+	 * Gets the {@link Executor} of the asynchronous executions, the one provided or else
+	 * a pool of async pool size threads with a queue of async queue capacity executions,
+	 * the executions beyond that being handled by the async rejected execution handler.
+	 * With virtual threads, every execution rather gets a new virtual thread, up to async
+	 * pool size plus async queue capacity executions at a time. The default pool is created
+	 * on the first asynchronous execution and shut down along with this executor
 	 *
-	 * @param xQueryFileResource
+	 * @return
 	 */
-	public void setXQueryFileResource(Resource xQueryFileResource) {
-		Assert.isTrue(xQuery == null,"Only one of XQuery resource file or XQuery may be specified");
-		this.xQueryFileResource = xQueryFileResource;
+	public Executor getAsyncExecutor() {
+		if(asyncExecutor != null) {
+			return asyncExecutor;
+		}
+		synchronized (asyncPoolMonitor) {
+			if(asyncPool == null) {
+				ThreadFactory virtualThreadFactory = asyncVirtualThreads ? getVirtualThreadFactory() : null;
+				if(virtualThreadFactory != null) {
+					//the virtual threads are not reused, they are cheap to create and end once idle,
+					//the maximum pool size bounds the executions in progress instead of a queue
+					asyncPool = new ThreadPoolExecutor(0, asyncPoolSize + asyncQueueCapacity, 0L, TimeUnit.MILLISECONDS,
+							new SynchronousQueue<Runnable>(), virtualThreadFactory, asyncRejectedExecutionHandler);
+				}
+				else {
+					asyncPool = new ThreadPoolExecutor(asyncPoolSize, asyncPoolSize, 0L, TimeUnit.MILLISECONDS,
+							new ArrayBlockingQueue<Runnable>(asyncQueueCapacity),
+							new CustomizableThreadFactory("xquery-async-"), asyncRejectedExecutionHandler);
+				}
+			}
+			return asyncPool;
+		}
 	}
 
 	/**
-	 * Sets the {@link XQDataSource}
-	 * @param xqDataSource
+	 * The factory of the virtual threads of the asynchronous executions
+	 *
+	 * @return the factory, null if virtual threads are not supported by the JVM
 	 */
-	public void setXQDataSource(XQDataSource xqDataSource) {
-		Assert.notNull(xqDataSource, "Provide a non null instance of the XQDatasource");
-		this.xqDataSource = xqDataSource;
+	private ThreadFactory getVirtualThreadFactory() {
+		if(OF_VIRTUAL_METHOD == null) {
+			logger.warn("Virtual threads are not supported by this JVM, using platform threads for the " +
+					"asynchronous executions");
+			return null;
+		}
+		Object builder = ReflectionUtils.invokeMethod(OF_VIRTUAL_METHOD, null);
+		builder = ReflectionUtils.invokeMethod(THREAD_BUILDER_NAME_METHOD, builder, "xquery-async-virtual-", 0L);
+		return (ThreadFactory)ReflectionUtils.invokeMethod(THREAD_BUILDER_FACTORY_METHOD, builder);
 	}
 
-
 	/**
-	 * Sets the parameter map where the parameter name is the key and the
-	 * {@link XQueryParameter} instance is the value
+	 * Executes the XQuery and returns an {@link XQueryResultIterator} that maps the result
+	 * items to the provided type as they are iterated, using the result mapper registered
+	 * for the type. The mapper needs to implement {@link XQueryItemMapper}, all the default
+	 * mappers do. The iterator needs to be closed if not iterated until the end.
 	 *
-	 * @param xQueryParameterMap
+	 * @param <T>
+	 * @param message
+	 * @param returnType
+	 * @return
 	 */
-	public void setXQueryParameterMap(
-			Map<String, XQueryParameter> xQueryParameterMap) {
-		this.xQueryParameterMap = xQueryParameterMap;
+	@SuppressWarnings("unchecked")
+	public <T> XQueryResultIterator<T> iterate(Message<?> message,Class<T> returnType) {
+		Assert.notNull(message,"Non null message expected");
+		Assert.notNull(returnType,"Non null type expected");
+		Object mapper = getResultMapper(returnType);
+		Assert.isInstanceOf(XQueryItemMapper.class, mapper,
+				"The result mapper for the type " + returnType.getName() + " should implement XQueryItemMapper");
+		return iterate(message, (XQueryItemMapper<T>)mapper);
 	}
 
 	/**
-	 * Convenience method to add a {@link XQueryParameter} to the map
-	 * @param param
+	 * Executes the XQuery and returns an {@link XQueryResultIterator} that maps the result items
+	 * using the given mapper as they are iterated, the results are not held in memory all at once.
+	 * The iterator needs to be closed if not iterated until the end.
+	 *
+	 * @param <T>
+	 * @param message
+	 * @param mapper
+	 * @return the iterator, null if the payload could not be converted
 	 */
-	public void addXQueryParameter(XQueryParameter param) {
-		if(xQueryParameterMap == null) {
-			xQueryParameterMap = new HashMap<String, XQueryParameter>();
+	public <T> XQueryResultIterator<T> iterate(Message<?> message,XQueryItemMapper<T> mapper) {
+		Object contextItem = null;
+		if(contextItemUsed) {
+			contextItem = getContextItem(message, null);
+			if(contextItem == null) {
+				return null;
+			}
 		}
-		xQueryParameterMap.put(param.getParameterName(), param);
+		return engine.iterate(contextItem, getParameterValues(message), mapper);
 	}
 
 	/**
-	 * Convenience method that would be used to set the parameters in the parameter
-	 * map. Any non conflicting parameters would be retained
-	 * @param params
+	 * Returns an {@link XQueryResultPublisher} of the result items mapped to the provided
+	 * type, using the result mapper registered for the type. The mapper needs to implement
+	 * {@link XQueryItemMapper}, all the default mappers do.
+	 *
+	 * @param <T>
+	 * @param message
+	 * @param returnType
+	 * @return
 	 */
-	public void setXQueryParameters(List<XQueryParameter> params) {
-		if(params != null && params.size() > 0) {
-			if(xQueryParameterMap == null)
-				xQueryParameterMap = new HashMap<String, XQueryParameter>();
-			for(XQueryParameter param:params) {
-				xQueryParameterMap.put(param.getParameterName(), param);
-			}
-		}
+	@SuppressWarnings("unchecked")
+	public <T> XQueryResultPublisher<T> publish(Message<?> message,Class<T> returnType) {
+		Assert.notNull(message,"Non null message expected");
+		Assert.notNull(returnType,"Non null type expected");
+		Object mapper = getResultMapper(returnType);
+		Assert.isInstanceOf(XQueryItemMapper.class, mapper,
+				"The result mapper for the type " + returnType.getName() + " should implement XQueryItemMapper");
+		return publish(message, (XQueryItemMapper<T>)mapper);
 	}
 
 	/**
-	 * If the output result is an xml, the value of this parameter will determine
+	 * Returns an {@link XQueryResultPublisher} of the result items mapped using the given
+	 * mapper. The XQuery is executed once the subscriber requests the first items and the
+	 * result sequence is advanced only as far as requested. A publisher completes without
+	 * any item if the payload could not be converted.
+	 *
+	 * @param <T>
+	 * @param message
+	 * @param mapper
+	 * @return
+	 */
+	public <T> XQueryResultPublisher<T> publish(Message<?> message,XQueryItemMapper<T> mapper) {
+		Assert.notNull(message,"Non null message expected");
+		Assert.notNull(mapper,"Non null mapper expected");
+		return new XQueryResultPublisher<T>(this, message, mapper);
+	}
+
+	/**
+	 * Executes the XQuery and computes the effective boolean value of the result, as the
+	 * boolean() function of XQuery would. The evaluation stops at the first item of the
+	 * result and no node of the result is mapped or serialized.
+	 *
+	 * @param message
+	 * @return the effective boolean value, false if the payload could not be converted
+	 */
+	public boolean effectiveBooleanValue(Message<?> message) {
+		return effectiveBooleanValue(message, null);
+	}
+
+	/**
+	 * Computes the effective boolean value of the XQuery executed against the given document
+	 * in place of the payload of the message, see {@link #execute(Message, Object, Class)}
+	 *
+	 * @param message
+	 * @param document the document, the payload of the message is used if null
+	 * @return the effective boolean value, false if the document could not be converted
+	 */
+	public boolean effectiveBooleanValue(Message<?> message, Object document) {
+		Assert.notNull(message,"Non null message expected");
+		if(executionTimeout <= 0) {
+			return doEffectiveBooleanValue(message, document);
+		}
+		ExecutionTimeout executionTimeout = new ExecutionTimeout();
+		boolean result = false;
+		RuntimeException failure = null;
+		try {
+			result = doEffectiveBooleanValue(message, document);
+		} catch (RuntimeException e) {
+			failure = e;
+		} finally {
+			failure = executionTimeout.stop(message, failure);
+		}
+		if(failure != null) {
+			throw failure;
+		}
+		return result;
+	}
+
+	private boolean doEffectiveBooleanValue(Message<?> message, Object document) {
+		Object contextItem = null;
+		if(contextItemUsed) {
+			contextItem = getContextItem(message, document);
+			if(contextItem == null) {
+				return false;
+			}
+		}
+		return engine.effectiveBooleanValue(contextItem, getParameterValues(message));
+	}
+
+	private Object[] getParameterValues(Message<?> message) {
+		ParameterBinding[] bindings = parameterBindings;
+		if(bindings.length == 0) {
+			return NO_PARAMETERS;
+		}
+		Object[] parameterValues = new Object[bindings.length];
+		for(int i = 0;i < bindings.length;i++) {
+			parameterValues[i] = bindings[i].getValue(message);
+		}
+		return parameterValues;
+	}
+
+	/**
+	 * Gets the context item for the given payload. The String, byte[], {@link File},
+	 * {@link InputStream}, {@link Reader}, java.nio.file.Path and {@link Source} payloads
+	 * are handed over to the engine as a {@link Source} to be parsed directly into its
+	 * native tree model, a DOM is used only if the payload already is a {@link Node} or a
+	 * custom {@link XmlPayloadConverter} is provided. The {@link InputStream} and
+	 * {@link Reader} payloads are read as they are parsed and are not closed by the executor
+	 *
+	 * @param message
+	 * @param document converted in place of the payload if not null
+	 * @return
+	 */
+	private Object getContextItem(Message<?> message, Object document) {
+		if(staticDocument != null && staticDocumentVariable == null) {
+			//the payload is not needed, the values from the message are in the parameters
+			return staticDocument;
+		}
+		if(precedingStage != null) {
+			XdmNode node = precedingStage.executeStage(message, document);
+			if(node == null || node.getNodeKind() == XdmNodeKind.DOCUMENT) {
+				return node;
+			}
+			//the downstream endpoint of a channel would parse the serialized node into a document,
+			//the node is copied into one in memory instead
+			return engine.parseDocument(node.asSource());
+		}
+		Object payload = document != null ? document : message.getPayload();
+		XQueryDocumentCache cache = documentCache;
+		if(cache == null || payload instanceof Node || payload instanceof XdmNode) {
+			return toContextItem(payload);
+		}
+		//the documents converted by a custom converter are DOM nodes, usable by any engine
+		Object owner = customConverter ? converter : engine.getDocumentOwner();
+		Object cached = cache.get(payload, owner);
+		if(cached != null) {
+			return cached;
+		}
+		Object contextItem = toContextItem(payload);
+		if(contextItem == null) {
+			return null;
+		}
+		long weight = getWeight(payload);
+		if(!(contextItem instanceof Source)) {
+			//converted by the custom converter, cached only if the length of the payload is known
+			if(weight >= 0) {
+				cache.put(payload, owner, contextItem, weight);
+			}
+			return contextItem;
+		}
+		if(weight >= 0) {
+			cached = engine.parseDocument((Source)contextItem);
+			cache.put(payload, owner, cached, weight, engine);
+			return cached;
+		}
+		//the streamed payloads are weighed by the bytes or characters read while parsed
+		ReadCounter counter = new ReadCounter();
+		Source source = counter.countedSource((Source)contextItem);
+		if(source == null) {
+			//neither the length nor the size read are known, the document is not cached
+			return contextItem;
+		}
+		cached = engine.parseDocument(source);
+		cache.put(payload, owner, cached, counter.count, engine);
+		return cached;
+	}
+
+	/**
+	 * The length of the payload, -1 if it is not known before the payload is read
+	 *
+	 * @param payload
+	 * @return
+	 */
+	private long getWeight(Object payload) {
+		if(payload instanceof String) {
+			return ((String)payload).length();
+		}
+		else if(payload instanceof byte[]) {
+			return ((byte[])payload).length;
+		}
+		else if(payload instanceof File) {
+			return ((File)payload).length();
+		}
+		else if(PATH_CLASS != null && PATH_CLASS.isInstance(payload)) {
+			URI uri = (URI)ReflectionUtils.invokeMethod(PATH_TO_URI_METHOD, payload);
+			if("file".equals(uri.getScheme())) {
+				return new File(uri).length();
+			}
+		}
+		return -1;
+	}
+
+	private Object toContextItem(Object payload) {
+		if(payload instanceof XdmNode) {
+			//the native result of an upstream executor, bound without being parsed
+			return payload;
+		}
+		if(!customConverter) {
+			if(payload instanceof String) {
+				return new StreamSource(new StringReader((String)payload));
+			}
+			else if(payload instanceof byte[]) {
+				return new StreamSource(new ByteArrayInputStream((byte[])payload));
+			}
+			else if(payload instanceof File) {
+				return new StreamSource((File)payload);
+			}
+			else if(payload instanceof InputStream) {
+				return new StreamSource((InputStream)payload);
+			}
+			else if(payload instanceof Reader) {
+				return new StreamSource((Reader)payload);
+			}
+			else if(PATH_CLASS != null && PATH_CLASS.isInstance(payload)) {
+				URI uri = (URI)ReflectionUtils.invokeMethod(PATH_TO_URI_METHOD, payload);
+				return new StreamSource(uri.toString());
+			}
+			else if(payload instanceof Source && !(payload instanceof DOMSource)) {
+				return payload;
+			}
+		}
+		return converter.convertToNode(payload);
+	}
+
+	/**
+	 * Executes the XQuery as a stage of a pipeline, the resulting node is handed over as is
+	 * to the following stage as its context item
+	 *
+	 * @param message
+	 * @param document executed against in place of the payload if not null
+	 * @return the node, null if the payload could not be converted
+	 */
+	private XdmNode executeStage(Message<?> message, Object document) {
+		List<XdmNode> result = execute(message, document, XDM_NODE_RESULT_MAPPER);
+		if(result == null) {
+			return null;
+		}
+		if(result.size() != 1) {
+			throw new MessagingException(message, "Expecting the stage of the pipeline to result in a single node, " +
+					"but got " + result.size() + " nodes");
+		}
+		return result.get(0);
+	}
+
+	/**
+	 * Releases the resources held by the {@link XQueryEngine} of this executor
+	 */
+	public void destroy() {
+		if(engine != null) {
+			if(documentCache != null) {
+				//the documents parsed by the engine may not be usable once it is closed, those
+				//parsed by the other engines of the same owner are retained
+				documentCache.removeParsedBy(engine);
+			}
+			engine.close();
+		}
+		synchronized (asyncPoolMonitor) {
+			if(asyncPool != null) {
+				asyncPool.shutdown();
+				asyncPool = null;
+			}
+		}
+	}
+
+	/**
+	 * Whether the XQuery uses the context item, that is the payload of the message, once the
+	 * executor is initialized. The payload is not converted for the XQueries not using it
+	 *
+	 * @return
+	 */
+	public boolean isContextItemUsed() {
+		return contextItemUsed;
+	}
+
+	/**
+	 * Sets all the result mappers to be used by this executor.
+	 * @param <T>
+	 * @param mappers
+	 */
+	@SuppressWarnings("rawtypes")
+	public <T> void setResultMappers(Map<Class<T>, XQueryResultMapper<T>> mappers) {
+		Assert.notNull(mappers);
+		this.resultMappers = new HashMap<Class<T>, XQueryResultMapper<T>>(mappers);
+		//not iterate through them and set the format
+		for(Object mapper:resultMappers.values()) {
+			if(mapper instanceof AbstractXQueryResultMapper) {
+				((AbstractXQueryResultMapper)mapper).setFormatOutput(formatOutput);
+			}
+		}
+	}
+
+	/**
+	 *Set the {@link XmlPayloadConverter} that would be used to convert the payload
+	 * into the XML {@link Node}
+	 *
+	 * @param converter
+	 */
+	public void setConverter(XmlPayloadConverter converter) {
+		Assert.notNull(converter, "Provide a non null instance of XmlPayloadConverter");
+		this.converter = converter;
+		this.customConverter = true;
+	}
+
+	/**
+	 * The XQuery string that would be evaluated to determine the channel names
+	 * @param xQuery
+	 */
+	public void setXQuery(String xQuery) {
+		Assert.isTrue(xQueryFileResource == null, "Only one of XQuery resource file or XQuery may be specified");
+		Assert.notNull(xQuery, "Provide a non null XQuery");
+		this.xQuery = xQuery;
+	}
+
+	/**
+	 * Sets the static XML document the XQuery is executed against. The document is parsed
+	 * once into the native tree of the engine and is used as the context item of every
+	 * execution in place of the payload, unless a static document variable is set.
+	 * The values needed from the messages are then to be passed as the parameters
+	 *
+	 * @param staticDocumentResource
+	 */
+	public void setStaticDocument(Resource staticDocumentResource) {
+		Assert.notNull(staticDocumentResource, "Provide a non null static document resource");
+		this.staticDocumentResource = staticDocumentResource;
+	}
+
+	/**
+	 * Sets the name of the external variable the static document is bound to, the payload
+	 * then remains the context item of the XQuery
+	 *
+	 * @param staticDocumentVariable
+	 */
+	public void setStaticDocumentVariable(String staticDocumentVariable) {
+		Assert.hasText(staticDocumentVariable, "Provide a non empty static document variable name");
+		this.staticDocumentVariable = staticDocumentVariable;
+	}
+
+	/**
+	 * Sets the indexes built over the static document, the nodes looked up in an index for
+	 * a message are bound to the external variable with the name of the index
+	 *
+	 * @param documentIndexes
+	 */
+	public void setDocumentIndexes(List<XQueryDocumentIndex> documentIndexes) {
+		Assert.notEmpty(documentIndexes, "Provide a non empty list of document indexes");
+		this.documentIndexes = new ArrayList<XQueryDocumentIndex>(documentIndexes);
+	}
+
+	/**
+	 * Sets the XQuery's .xq file as the resource. The contents of this file will be read as xQuery
+	 *
+	 * @param xQueryFileResource
+	 */
+	public void setXQueryFileResource(Resource xQueryFileResource) {
+		Assert.isTrue(xQuery == null,"Only one of XQuery resource file or XQuery may be specified");
+		this.xQueryFileResource = xQueryFileResource;
+	}
+
+	/**
+	 * Sets the {@link XQDataSource}
+	 * @param xqDataSource
+	 */
+	public void setXQDataSource(XQDataSource xqDataSource) {
+		Assert.notNull(xqDataSource, "Provide a non null instance of the XQDatasource");
+		this.xqDataSource = xqDataSource;
+	}
+
+
+	/**
+	 * Sets the parameter map where the parameter name is the key and the
+	 * {@link XQueryParameter} instance is the value
+	 *
+	 * @param xQueryParameterMap
+	 */
+	public void setXQueryParameterMap(
+			Map<String, XQueryParameter> xQueryParameterMap) {
+		this.xQueryParameterMap = xQueryParameterMap;
+	}
+
+	/**
+	 * Convenience method to add a {@link XQueryParameter} to the map
+	 * @param param
+	 */
+	public void addXQueryParameter(XQueryParameter param) {
+		if(xQueryParameterMap == null) {
+			xQueryParameterMap = new HashMap<String, XQueryParameter>();
+		}
+		xQueryParameterMap.put(param.getParameterName(), param);
+	}
+
+	/**
+	 * Convenience method that would be used to set the parameters in the parameter
+	 * map. Any non conflicting parameters would be retained
+	 * @param params
+	 */
+	public void setXQueryParameters(List<XQueryParameter> params) {
+		if(params != null && params.size() > 0) {
+			if(xQueryParameterMap == null)
+				xQueryParameterMap = new HashMap<String, XQueryParameter>();
+			for(XQueryParameter param:params) {
+				xQueryParameterMap.put(param.getParameterName(), param);
+			}
+		}
+	}
+
+	/**
+	 * If the output result is an xml, the value of this parameter will determine
 	 * if the output xml is to be formatted or not. By default, the output will
 	 * not be formatted
 	 *
-	 * @param formatOutput
+	 * @param formatOutput
+	 */
+	public void setFormatOutput(boolean formatOutput) {
+		this.formatOutput = formatOutput;
+	}
+
+	/**
+	 * Sets the {@link XQueryEngine} used to compile and execute the XQuery. If none is
+	 * provided, the {@link XQJXQueryEngine} using the {@link XQDataSource} is used.
+	 * Use the {@link SaxonXQueryEngine} to execute the XQuery natively using Saxon
+	 *
+	 * @param engine
+	 */
+	public void setEngine(XQueryEngine engine) {
+		Assert.notNull(engine, "Provide a non null instance of the XQueryEngine");
+		this.engine = engine;
+	}
+
+	/**
+	 * Sets the {@link XQueryDocumentCache} shared by the executors of the endpoints a message
+	 * flows through, the payload is then parsed once rather than by every executor. The
+	 * documents are shared amongst the executors whose engines have the same document owner,
+	 * see {@link XQueryEngine#getDocumentOwner()}, or that use the same custom converter.
+	 * The streamed payloads are weighed by the bytes or characters read while parsed, the
+	 * sources with no stream such as a SAXSource are not cached as their size is not known
+	 *
+	 * @param documentCache
+	 */
+	public void setDocumentCache(XQueryDocumentCache documentCache) {
+		Assert.notNull(documentCache, "Provide a non null document cache");
+		this.documentCache = documentCache;
+	}
+
+	/**
+	 * Sets the number of results cached by their parameter values, the least recently used
+	 * ones are evicted first. The results are cached only if they depend on the parameter
+	 * values alone, that is the XQuery does not use the context item or uses the static
+	 * document as the context item; the setting is ignored otherwise. The cached results are
+	 * shared amongst the messages as unmodifiable lists, hence the mapped items should not be
+	 * modified. The parameter values need to implement equals and hashCode, and the XQuery
+	 * should not depend on anything but them, for instance the current date. Defaults to 0,
+	 * nothing is cached. Not applicable to the {@link #iterate(Message, XQueryItemMapper)}
+	 * methods
+	 *
+	 * @param resultCacheSize
+	 */
+	public void setResultCacheSize(int resultCacheSize) {
+		Assert.isTrue(resultCacheSize >= 0, "The result cache size should not be negative");
+		this.resultCacheSize = resultCacheSize;
+	}
+
+	/**
+	 * Sets the {@link XQConnectionPool} the XQJ engine obtains its connections from, by default
+	 * a connection is opened for every message unless the prepared expressions are reused.
+	 * The pool may be shared by several executors and is not closed along with this executor,
+	 * it is closed by the container as a {@link DisposableBean} or else by its creator.
+	 * Applicable to the default XQJ engine only
+	 *
+	 * @param connectionPool
+	 */
+	public void setConnectionPool(XQConnectionPool connectionPool) {
+		Assert.notNull(connectionPool, "Provide a non null instance of the XQConnectionPool");
+		this.connectionPool = connectionPool;
+	}
+
+	/**
+	 * Sets the strategy used to reuse the prepared XQuery expressions across the messages.
+	 * By default, the XQuery is prepared afresh for every message, {@link Mode#POOLED}
+	 * shares a bounded number of prepared expressions amongst the threads and
+	 * {@link Mode#THREAD_CONFINED} keeps one prepared expression per thread, for at most
+	 * the expression pool size threads, meant for a fixed size pool of threads.
+	 * Applicable to the default XQJ engine only
+	 *
+	 * @param expressionPoolMode
+	 */
+	public void setExpressionPoolMode(Mode expressionPoolMode) {
+		Assert.notNull(expressionPoolMode, "Provide a non null expression pool mode");
+		this.expressionPoolMode = expressionPoolMode;
+	}
+
+	/**
+	 * Sets the maximum number of prepared expressions held when the expression pool
+	 * mode is {@link Mode#POOLED} or {@link Mode#THREAD_CONFINED}, defaults to
+	 * {@link XQPreparedExpressionPool#DEFAULT_POOL_SIZE}
+	 *
+	 * @param expressionPoolSize
+	 */
+	public void setExpressionPoolSize(int expressionPoolSize) {
+		Assert.isTrue(expressionPoolSize > 0, "The expression pool size should be a positive number");
+		this.expressionPoolSize = expressionPoolSize;
+	}
+
+	/**
+	 * Sets the executor of the preceding stage of a pipeline. The XQuery of the preceding
+	 * stage is executed against the message and its result, a single node, is the context
+	 * item of this XQuery. The node is passed in memory without being serialized or parsed
+	 * again, and without copying it if it is a document node and both engines share the
+	 * Saxon configuration, as the default engines do. Any other node is copied into a new
+	 * document, as it would be parsed into one by an endpoint downstream of a channel. The
+	 * parameters of every stage are derived from the message. The preceding stage is not
+	 * executed at all if this XQuery does not use the context item. The preceding stage
+	 * needs to be initialized and destroyed on its own
+	 *
+	 * @param precedingStage
+	 */
+	public void setPrecedingStage(XQueryExecutor precedingStage) {
+		Assert.notNull(precedingStage, "Provide a non null preceding stage");
+		this.precedingStage = precedingStage;
+	}
+
+	/**
+	 * Sets the name of the records of the payload, the child elements of its root, the
+	 * payload is then partitioned and the XQuery executed against every partition, see
+	 * {@link XQueryDocumentPartitioner}. The results of the partitions are merged in
+	 * their order. Set it only for the XQueries that are record local, that is whose result
+	 * for the whole document is the concatenation of their results for the partitions, for
+	 * instance /feed/record[price > 10]. The name is either the local name of the records,
+	 * matching any namespace, or the {uri}local name. The String, byte[], {@link File},
+	 * {@link InputStream}, {@link Reader}, java.nio.file.Path and {@link StreamSource}
+	 * payloads are partitioned unless a custom converter is provided. Applicable to the
+	 * execute methods only
+	 *
+	 * @param partitionElement
+	 */
+	public void setPartitionElement(String partitionElement) {
+		Assert.hasText(partitionElement, "Provide a non empty partition element");
+		this.partitionElement = partitionElement;
+	}
+
+	/**
+	 * Sets the number of records of every partition, defaults to
+	 * {@link XQueryDocumentPartitioner#DEFAULT_PARTITION_SIZE}
+	 *
+	 * @param partitionSize
+	 */
+	public void setPartitionSize(int partitionSize) {
+		Assert.isTrue(partitionSize > 0, "The partition size should be a positive number");
+		this.partitionSize = partitionSize;
+	}
+
+	/**
+	 * Sets the {@link Executor} executing the XQuery against the partitions in parallel,
+	 * while the calling thread reads the following ones. The partitions are executed by the
+	 * calling thread by default. The executor should bound the number of queued partitions
+	 * if the payloads are large, every pending partition being held in memory
+	 *
+	 * @param partitionTaskExecutor
+	 */
+	public void setPartitionTaskExecutor(Executor partitionTaskExecutor) {
+		Assert.notNull(partitionTaskExecutor, "Provide a non null partition task executor");
+		this.partitionTaskExecutor = partitionTaskExecutor;
+	}
+
+	/**
+	 * Sets the {@link Executor} of the asynchronous executions, used instead of the default
+	 * bounded pool. Its queue should be bounded as well, its rejection policy applying once
+	 * it is saturated
+	 *
+	 * @param asyncExecutor
+	 */
+	public void setAsyncExecutor(Executor asyncExecutor) {
+		Assert.notNull(asyncExecutor, "Provide a non null async executor");
+		this.asyncExecutor = asyncExecutor;
+	}
+
+	/**
+	 * Sets the number of threads of the default pool of the asynchronous executions,
+	 * defaults to the number of processors
+	 *
+	 * @param asyncPoolSize
+	 */
+	public void setAsyncPoolSize(int asyncPoolSize) {
+		Assert.isTrue(asyncPoolSize > 0, "The async pool size should be a positive number");
+		this.asyncPoolSize = asyncPoolSize;
+	}
+
+	/**
+	 * Sets the number of asynchronous executions queued by the default pool, defaults to
+	 * {@link #DEFAULT_ASYNC_QUEUE_CAPACITY}
+	 *
+	 * @param asyncQueueCapacity
+	 */
+	public void setAsyncQueueCapacity(int asyncQueueCapacity) {
+		Assert.isTrue(asyncQueueCapacity > 0, "The async queue capacity should be a positive number");
+		this.asyncQueueCapacity = asyncQueueCapacity;
+	}
+
+	/**
+	 * Sets whether the asynchronous executions run on virtual threads, available from Java
+	 * 21 onwards, the default pool of platform threads being used on the older JVMs. Every
+	 * execution then gets a new virtual thread, up to async pool size plus async queue
+	 * capacity executions at a time, the others being handled by the async rejected
+	 * execution handler. A virtual thread blocked on I/O, for instance reading the documents
+	 * of the doc() or collection() functions, releases its carrier thread to the other
+	 * executions, which hence are not limited by the number of processors. Defaults to false
+	 *
+	 * @param asyncVirtualThreads
+	 */
+	public void setAsyncVirtualThreads(boolean asyncVirtualThreads) {
+		this.asyncVirtualThreads = asyncVirtualThreads;
+	}
+
+	/**
+	 * Sets the timeout of the executions in milliseconds, an execution not complete by then
+	 * is cancelled and fails with an {@link XQueryTimeoutException}. The timeouts are
+	 * enforced by a timer shared by all the executors, cancelling the evaluation through
+	 * {@link XQueryEngine#cancel(Thread)}, the Saxon and XQJ engines are hence made
+	 * cancellable. The default XQJ engine then uses a Saxon data source compiling with
+	 * tracing, a Saxon data source provided has to compile with tracing for its executions
+	 * to be cancelled, see {@link XQJXQueryEngine#setCancellable(boolean)}. An execution the
+	 * engine cannot interrupt fails once it completes. Applies to the executions returning
+	 * the mapped results and the effective boolean value, not to the results iterated or
+	 * published as the consumer consumes them. Defaults to 0, no timeout
+	 *
+	 * @param executionTimeout
 	 */
-	public void setFormatOutput(boolean formatOutput) {
-		this.formatOutput = formatOutput;
+	public void setExecutionTimeout(long executionTimeout) {
+		Assert.isTrue(executionTimeout >= 0, "The execution timeout should not be negative");
+		this.executionTimeout = executionTimeout;
+	}
+
+	/**
+	 * The number of executions that did not complete within the timeout
+	 *
+	 * @return
+	 */
+	public long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+
+	/**
+	 * Sets the handler of the asynchronous executions the default pool cannot queue,
+	 * defaults to the {@link ThreadPoolExecutor.CallerRunsPolicy} executing them with the
+	 * calling thread. Use the {@link ThreadPoolExecutor.AbortPolicy} to reject them instead
+	 *
+	 * @param asyncRejectedExecutionHandler
+	 */
+	public void setAsyncRejectedExecutionHandler(RejectedExecutionHandler asyncRejectedExecutionHandler) {
+		Assert.notNull(asyncRejectedExecutionHandler, "Provide a non null rejected execution handler");
+		this.asyncRejectedExecutionHandler = asyncRejectedExecutionHandler;
 	}
 
 	//TODO: Support date, dateTime data types
@@ -405,120 +1524,596 @@ public class XQueryExecutor implements InitializingBean {
 
 
 
-	public static class StringResultMapper extends AbstractXQueryResultMapper<String> {
+	/**
+	 * The source of the value of an external variable of the XQuery
+	 */
+	private static interface ParameterBinding {
+
+		Object getValue(Message<?> message);
+	}
+
+	/**
+	 * The timer of the execution timeouts shared by the executors, its daemon thread is
+	 * started on the first execution with a timeout
+	 */
+	private static class ExecutionTimer {
+
+		private static final ScheduledThreadPoolExecutor TIMER;
+
+		static {
+			CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("xquery-timeout-");
+			threadFactory.setDaemon(true);
+			TIMER = new ScheduledThreadPoolExecutor(1, threadFactory);
+			//Java 7 onwards, the timeouts of the completed executions are held until expired otherwise
+			Method removeOnCancelMethod = ReflectionUtils.findMethod(ScheduledThreadPoolExecutor.class,
+					"setRemoveOnCancelPolicy", boolean.class);
+			if(removeOnCancelMethod != null) {
+				ReflectionUtils.invokeMethod(removeOnCancelMethod, TIMER, Boolean.TRUE);
+			}
+		}
+	}
+
+	/**
+	 * The data source shared by the default XQJ engines with an execution timeout, created
+	 * on first use. It compiles the XQueries with tracing for the executions to be cancelled,
+	 * see {@link XQJXQueryEngine#setCancellable(boolean)}, and shares the name pool and the
+	 * document numbers of the default configuration, its nodes are hence used by the other
+	 * default engines without being copied
+	 */
+	private static class CancellableXQDataSource {
+
+		private static final XQDataSource DATA_SOURCE;
+
+		static {
+			Configuration defaultConfiguration = SaxonXQueryEngine.DEFAULT_PROCESSOR.getUnderlyingConfiguration();
+			Configuration configuration = new TracingConfiguration();
+			configuration.setNamePool(defaultConfiguration.getNamePool());
+			configuration.setDocumentNumberAllocator(defaultConfiguration.getDocumentNumberAllocator());
+			DATA_SOURCE = new SaxonXQDataSource(configuration);
+		}
+	}
+
+	/**
+	 * Compiles the XQueries prepared through XQJ with tracing, the flag of the configuration
+	 * itself is not applied to the static contexts of the Saxon XQJ implementation
+	 */
+	@SuppressWarnings("serial")
+	private static class TracingConfiguration extends Configuration {
+
+		@Override
+		public StaticQueryContext newStaticQueryContext() {
+			StaticQueryContext context = super.newStaticQueryContext();
+			context.setCompileWithTracing(true);
+			return context;
+		}
+	}
+
+	/**
+	 * The timeout of one execution, cancelling the executions of the engine in progress on
+	 * the calling thread and the threads of the partitions once expired
+	 */
+	private class ExecutionTimeout implements Runnable {
+
+		//guarded by this
+		private final List<Thread> threads = new ArrayList<Thread>(1);
+
+		//guarded by this
+		private boolean expired;
+
+		//guarded by this
+		private boolean stopped;
+
+		private final ScheduledFuture<?> expiry;
+
+		private ExecutionTimeout() {
+			threads.add(Thread.currentThread());
+			expiry = ExecutionTimer.TIMER.schedule(this, executionTimeout, TimeUnit.MILLISECONDS);
+		}
+
+		public synchronized void run() {
+			if(stopped) {
+				return;
+			}
+			expired = true;
+			for(Thread thread:threads) {
+				engine.cancel(thread);
+			}
+		}
+
+		/**
+		 * Registers the current thread as executing the XQuery, failing if expired already
+		 */
+		private synchronized void enter() {
+			if(expired) {
+				throw new MessagingException("The execution of the XQuery is cancelled");
+			}
+			threads.add(Thread.currentThread());
+		}
+
+		private synchronized void exit() {
+			threads.remove(Thread.currentThread());
+		}
+
+		/**
+		 * Stops the timeout once the execution is complete. An execution completing without
+		 * failure is not timed out, even if the timeout expired meanwhile
+		 *
+		 * @param message
+		 * @param failure the exception thrown by the execution, null if none
+		 * @return the exception to be thrown, the {@link XQueryTimeoutException} if expired
+		 * before the execution failed
+		 */
+		private RuntimeException stop(Message<?> message, RuntimeException failure) {
+			expiry.cancel(false);
+			synchronized (this) {
+				stopped = true;
+				if(!expired || failure == null) {
+					return failure;
+				}
+			}
+			timeoutCount.incrementAndGet();
+			return new XQueryTimeoutException(message, "The execution of the XQuery did not complete within "
+					+ executionTimeout + " ms", failure);
+		}
+	}
+
+	/**
+	 * Counts the bytes or characters read from the stream of a source as it is parsed, the
+	 * weight of the document cached for a streamed payload
+	 */
+	private static class ReadCounter {
+
+		private long count;
+
+		/**
+		 * The source reading the stream of the given source through this counter
+		 *
+		 * @param source
+		 * @return the counted source, null if the given source has no stream
+		 */
+		private Source countedSource(Source source) {
+			if(!(source instanceof StreamSource)) {
+				return null;
+			}
+			StreamSource streamSource = (StreamSource)source;
+			StreamSource counted;
+			if(streamSource.getInputStream() != null) {
+				counted = new StreamSource(new FilterInputStream(streamSource.getInputStream()) {
+
+					@Override
+					public int read() throws IOException {
+						int read = super.read();
+						if(read >= 0) {
+							count++;
+						}
+						return read;
+					}
+
+					@Override
+					public int read(byte[] buffer, int offset, int length) throws IOException {
+						int read = super.read(buffer, offset, length);
+						if(read > 0) {
+							count += read;
+						}
+						return read;
+					}
+				});
+			}
+			else if(streamSource.getReader() != null) {
+				counted = new StreamSource(new FilterReader(streamSource.getReader()) {
+
+					@Override
+					public int read() throws IOException {
+						int read = super.read();
+						if(read >= 0) {
+							count++;
+						}
+						return read;
+					}
+
+					@Override
+					public int read(char[] buffer, int offset, int length) throws IOException {
+						int read = super.read(buffer, offset, length);
+						if(read > 0) {
+							count += read;
+						}
+						return read;
+					}
+				});
+			}
+			else {
+				return null;
+			}
+			counted.setSystemId(streamSource.getSystemId());
+			counted.setPublicId(streamSource.getPublicId());
+			return counted;
+		}
+	}
+
+	/**
+	 * The value derived from the message by the {@link XQueryParameter}
+	 */
+	private static class MessageParameterBinding implements ParameterBinding {
+
+		private final XQueryParameter parameter;
+
+		private MessageParameterBinding(XQueryParameter parameter) {
+			this.parameter = parameter;
+		}
+
+		public Object getValue(Message<?> message) {
+			return parameter.evaluate(message);
+		}
+	}
+
+	/**
+	 * The least recently used entries are evicted beyond the maximum size
+	 */
+	@SuppressWarnings("serial")
+	private static class ResultCache extends LinkedHashMap<List<Object>, List<?>> {
+
+		private final int maxSize;
+
+		private ResultCache(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<List<Object>, List<?>> eldest) {
+			return size() > maxSize;
+		}
+	}
+
+	/**
+	 * The same value for every message
+	 */
+	private static class StaticValueBinding implements ParameterBinding {
+
+		private final Object value;
+
+		private StaticValueBinding(Object value) {
+			this.value = value;
+		}
+
+		public Object getValue(Message<?> message) {
+			return value;
+		}
+	}
+
+	/**
+	 * The nodes of the static document looked up in the index by the key of the message,
+	 * an empty sequence if none are found
+	 */
+	private static class DocumentIndexBinding implements ParameterBinding {
+
+		private final XQueryDocumentIndex index;
+
+		private final Map<String, List<Object>> nodes;
+
+		private DocumentIndexBinding(XQueryDocumentIndex index, Map<String, List<Object>> nodes) {
+			this.index = index;
+			this.nodes = nodes;
+		}
+
+		public Object getValue(Message<?> message) {
+			String key = index.getKey(message);
+			List<Object> found = key != null ? nodes.get(key) : null;
+			return found != null ? found : Collections.emptyList();
+		}
+	}
+
+	public static class StringResultMapper extends AbstractXQueryResultMapper<String>
+					implements XdmResultMapper<String>, XQueryItemMapper<String>, XdmItemMapper<String> {
 
 		public List<String> mapResults(XQResultSequence result) {
 			List<String> results = new ArrayList<String>();
 			try {
 				while(result.next()) {
-					XQItemType type = result.getItemType();
-					String value = convertToString(type, result);
-					if(value == null) {
-						Number number = convertToNumber(type, result);
-						if(number == null) {
-							Boolean boolValue = convertToBoolean(type, result);
-							if(boolValue == null) {
-								if(isNodeType(type)) {
-									Node n = result.getNode();
-									value = transformNodeToString(n);
-								}
-							}
-							else {
-								value = boolValue.toString();
+					results.add(mapItem(result));
+				}
+			} catch (XQException e) {
+				throw new MessagingException("Caught Exception while mapping the result sequence to string",e);
+			}
+			return results;
+		}
+
+		public List<String> mapResults(XdmValue result) {
+			List<String> results = new ArrayList<String>();
+			for(XdmItem item:result) {
+				results.add(mapItem(item));
+			}
+			return results;
+		}
+
+		public String mapItem(XQResultSequence result) {
+			try {
+				XQItemType type = result.getItemType();
+				String value = convertToString(type, result);
+				if(value == null) {
+					Number number = convertToNumber(type, result);
+					if(number == null) {
+						Boolean boolValue = convertToBoolean(type, result);
+						if(boolValue == null) {
+							if(isNodeType(type)) {
+								Node n = result.getNode();
+								value = transformNodeToString(n);
 							}
 						}
 						else {
-							value = number.toString();
+							value = boolValue.toString();
 						}
 					}
-					results.add(value);
+					else {
+						value = number.toString();
+					}
+				}
+				return value;
+			} catch (Exception e) {
+				throw new MessagingException("Caught Exception while mapping the result sequence to string",e);
+			}
+		}
 
+		public String mapItem(XdmItem item) {
+			try {
+				String value = convertToString(item);
+				if(value == null) {
+					Number number = convertToNumber(item);
+					if(number == null) {
+						Boolean boolValue = convertToBoolean(item);
+						if(boolValue == null) {
+							if(isNodeType(item)) {
+								value = transformNodeToString((XdmNode)item);
+							}
+						}
+						else {
+							value = boolValue.toString();
+						}
+					}
+					else {
+						value = number.toString();
+					}
 				}
+				return value;
 			} catch (Exception e) {
 				throw new MessagingException("Caught Exception while mapping the result sequence to string",e);
 			}
-			return results;
 		}
 	}
 
 
-	public static class BooleanResultMapper extends AbstractXQueryResultMapper<Boolean> {
+	public static class BooleanResultMapper extends AbstractXQueryResultMapper<Boolean>
+					implements XdmResultMapper<Boolean>, XQueryItemMapper<Boolean>, XdmItemMapper<Boolean> {
 
 		public List<Boolean> mapResults(XQResultSequence result) {
 			List<Boolean> results = new ArrayList<Boolean>();
+			try {
+				while(result.next()) {
+					results.add(mapItem(result));
+				}
+			} catch (XQException e) {
+				throw new MessagingException("Caught Exception while mapping the result sequence to string",e);
+			}
+			return results;
+		}
+
+		public List<Boolean> mapResults(XdmValue result) {
+			List<Boolean> results = new ArrayList<Boolean>();
+			for(XdmItem item:result) {
+				results.add(mapItem(item));
+			}
+			return results;
+		}
+
+		public Boolean mapItem(XQResultSequence result) {
 			try {
 				//check for boolean or string type and convert it accordingly, if a node then get it's text
 				//content and convert to boolean
-				while(result.next()) {
-					XQItemType type = result.getItemType();
-					Boolean value = convertToBoolean(type, result);
-					if(value == null) {
-						if(isNodeType(type)) {
-							Node n = result.getNode();
-							value = Boolean.valueOf(transformNodeToString(n));
-						}
+				XQItemType type = result.getItemType();
+				Boolean value = convertToBoolean(type, result);
+				if(value == null) {
+					if(isNodeType(type)) {
+						Node n = result.getNode();
+						value = Boolean.valueOf(transformNodeToString(n));
 					}
-					results.add(value);
 				}
+				return value;
+			} catch (Exception e) {
+				throw new MessagingException("Caught Exception while mapping the result sequence to string",e);
+			}
+		}
+
+		public Boolean mapItem(XdmItem item) {
+			try {
+				Boolean value = convertToBoolean(item);
+				if(value == null) {
+					if(isNodeType(item)) {
+						value = Boolean.valueOf(transformNodeToString((XdmNode)item));
+					}
+				}
+				return value;
 			} catch (Exception e) {
 				throw new MessagingException("Caught Exception while mapping the result sequence to string",e);
 			}
-			return results;
 		}
 
 	}
 
 
-	public static class NumberResultMapper extends AbstractXQueryResultMapper<Number> {
+	public static class NumberResultMapper extends AbstractXQueryResultMapper<Number>
+					implements XdmResultMapper<Number>, XQueryItemMapper<Number>, XdmItemMapper<Number> {
 
 		public List<Number> mapResults(XQResultSequence result) {
 			List<Number> results = new ArrayList<Number>();
 			try {
 				while(result.next()) {
+					results.add(mapItem(result));
+				}
+			} catch (XQException e) {
+				throw new MessagingException("Caught Exception while mapping the result sequence to string",e);
+			}
+			return results;
+		}
 
-					XQItemType type = result.getItemType();
-					Number value = convertToNumber(type, result);
-					if(value == null) {
-						if(isNodeType(type)) {
-							Node n = result.getNode();
-							String strValue = transformNodeToString(n);
-							if(StringUtils.hasText(strValue)) {
-								if(strValue.indexOf(".") > 0) {
-									value = Double.valueOf(strValue);
-								}
-								else {
-									value = Long.valueOf(strValue);
-								}
-							}
-						}
+		public List<Number> mapResults(XdmValue result) {
+			List<Number> results = new ArrayList<Number>();
+			for(XdmItem item:result) {
+				results.add(mapItem(item));
+			}
+			return results;
+		}
+
+		public Number mapItem(XQResultSequence result) {
+			try {
+				XQItemType type = result.getItemType();
+				Number value = convertToNumber(type, result);
+				if(value == null) {
+					if(isNodeType(type)) {
+						Node n = result.getNode();
+						value = toNumber(transformNodeToString(n));
 					}
-					results.add(value);
 				}
+				return value;
 			} catch (Exception e) {
 				throw new MessagingException("Caught Exception while mapping the result sequence to string",e);
 			}
-			return results;
+		}
+
+		public Number mapItem(XdmItem item) {
+			try {
+				Number value = convertToNumber(item);
+				if(value == null) {
+					if(isNodeType(item)) {
+						value = toNumber(transformNodeToString((XdmNode)item));
+					}
+				}
+				return value;
+			} catch (Exception e) {
+				throw new MessagingException("Caught Exception while mapping the result sequence to string",e);
+			}
+		}
+
+		private Number toNumber(String strValue) {
+			Number value = null;
+			if(StringUtils.hasText(strValue)) {
+				if(strValue.indexOf(".") > 0) {
+					value = Double.valueOf(strValue);
+				}
+				else {
+					value = Long.valueOf(strValue);
+				}
+			}
+			return value;
 		}
 
 	}
 
-	public static class NodeResultMapper extends AbstractXQueryResultMapper<Node> {
+	/**
+	 * Maps the node items to {@link Node}, the items that are not nodes are skipped when
+	 * the results are mapped to a {@link List} and are mapped to null by the item mappers
+	 */
+	public static class NodeResultMapper extends AbstractXQueryResultMapper<Node>
+					implements XdmResultMapper<Node>, XQueryItemMapper<Node>, XdmItemMapper<Node> {
 
 		public List<Node> mapResults(XQResultSequence result) {
 			List<Node> results = new ArrayList<Node>();
 			try {
 				while(result.next()) {
-					XQItemType type = result.getItemType();
-					if(isNodeType(type)) {
-						Node n = result.getNode();
+					Node n = mapItem(result);
+					if(n != null) {
 						results.add(n);
 					}
 				}
-			} catch (Exception e) {
+			} catch (XQException e) {
 				throw new MessagingException("Caught Exception while mapping the result sequence to string",e);
 			}
 			return results;
 		}
+
+		public List<Node> mapResults(XdmValue result) {
+			List<Node> results = new ArrayList<Node>();
+			for(XdmItem item:result) {
+				Node n = mapItem(item);
+				if(n != null) {
+					results.add(n);
+				}
+			}
+			return results;
+		}
+
+		public Node mapItem(XQResultSequence result) {
+			try {
+				if(isNodeType(result.getItemType())) {
+					return result.getNode();
+				}
+				return null;
+			} catch (Exception e) {
+				throw new MessagingException("Caught Exception while mapping the result sequence to string",e);
+			}
+		}
+
+		public Node mapItem(XdmItem item) {
+			if(isNodeType(item)) {
+				return toDomNode((XdmNode)item);
+			}
+			return null;
+		}
 	}
 
+
+	/**
+	 * Maps the nodes of the result to the Saxon {@link XdmNode}s, the atomic values are ignored.
+	 * The nodes are not copied, they are passed as is to the downstream executors which bind them
+	 * without parsing them again. The XQJ engine needs to use the Saxon XQJ implementation
+	 */
+	public static class XdmNodeResultMapper extends AbstractXQueryResultMapper<XdmNode>
+					implements XdmResultMapper<XdmNode>, XQueryItemMapper<XdmNode>, XdmItemMapper<XdmNode> {
+
+		public List<XdmNode> mapResults(XQResultSequence result) {
+			List<XdmNode> results = new ArrayList<XdmNode>();
+			try {
+				while(result.next()) {
+					XdmNode n = mapItem(result);
+					if(n != null) {
+						results.add(n);
+					}
+				}
+			} catch (XQException e) {
+				throw new MessagingException("Caught Exception while mapping the result sequence to XdmNode",e);
+			}
+			return results;
+		}
+
+		public List<XdmNode> mapResults(XdmValue result) {
+			List<XdmNode> results = new ArrayList<XdmNode>();
+			for(XdmItem item:result) {
+				XdmNode n = mapItem(item);
+				if(n != null) {
+					results.add(n);
+				}
+			}
+			return results;
+		}
+
+		public XdmNode mapItem(XQResultSequence result) {
+			try {
+				if(!isNodeType(result.getItemType())) {
+					return null;
+				}
+				Node node = result.getNode();
+				Assert.isInstanceOf(NodeOverNodeInfo.class, node,
+						"The XdmNode results need the Saxon XQJ implementation");
+				return new XdmNode(((NodeOverNodeInfo)node).getUnderlyingNodeInfo());
+			} catch (XQException e) {
+				throw new MessagingException("Caught Exception while mapping the result sequence to XdmNode",e);
+			}
+		}
+
+		public XdmNode mapItem(XdmItem item) {
+			if(isNodeType(item)) {
+				return (XdmNode)item;
+			}
+			return null;
+		}
+	}
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery;
+
+import javax.xml.xquery.XQResultSequence;
+
+/**
+ * The streaming counterpart of {@link XQueryResultMapper}, maps one item of the
+ * {@link XQResultSequence} at a time so that the results can be consumed as they
+ * are produced using an {@link XQueryResultIterator}.
+ *
+ * @author Amol Nayak
+ *
+ */
+public interface XQueryItemMapper<T> {
+
+	/**
+	 * Maps the current item of the {@link XQResultSequence}, the implementation
+	 * should not move the sequence to the next item
+	 *
+	 * @param result the sequence positioned on the item to be mapped
+	 * @return
+	 */
+	T mapItem(XQResultSequence result);
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import net.sf.saxon.s9api.XdmNode;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.integration.Message;
+import org.springframework.integration.MessagingException;
+import org.springframework.integration.xml.XmlPayloadConverter;
+import org.springframework.util.Assert;
+
+/**
+ * Executes a number of {@link XQueryExecutor}s against the same message, parsing the
+ * payload once into a Saxon {@link XdmNode}. The native Saxon trees are immutable, the
+ * document is hence read concurrently by the executors if an {@link Executor} is provided,
+ * the latency of the message then being the one of the slowest XQuery rather than the sum
+ * of all of them. The default XQJ and Saxon engines share the Saxon configuration and bind
+ * the document without parsing or copying it again.
+ * <p>
+ * The results are combined in a {@link List}, in the order of the executors. The executors
+ * need to be initialized and destroyed on their own.
+ *
+ * @author Amol Nayak
+ *
+ */
+public class XQueryParallelExecutor implements InitializingBean, DisposableBean {
+
+	private volatile List<XQueryExecutor> executors;
+
+	private volatile Executor taskExecutor;
+
+	private volatile XmlPayloadConverter converter;
+
+	//parses the payload once for all the executors
+	private volatile XQueryExecutor documentExecutor;
+
+	private volatile boolean contextItemUsed;
+
+	public void afterPropertiesSet() {
+		Assert.notEmpty(executors, "At least one XQueryExecutor should be provided");
+		for(XQueryExecutor executor:executors) {
+			contextItemUsed |= executor.isContextItemUsed();
+		}
+		documentExecutor = new XQueryExecutor();
+		documentExecutor.setEngine(new SaxonXQueryEngine());
+		documentExecutor.setXQuery(".");
+		if(converter != null) {
+			documentExecutor.setConverter(converter);
+		}
+		documentExecutor.afterPropertiesSet();
+	}
+
+	/**
+	 * Executes every XQuery and maps the results to the given type
+	 *
+	 * @param <T>
+	 * @param message
+	 * @param returnType
+	 * @return the results of every executor, in their order
+	 */
+	public <T> List<List<T>> execute(Message<?> message, final Class<T> returnType) {
+		Assert.notNull(returnType,"Non null type expected");
+		return execute(message, new XQueryExecutorCallback<List<T>>() {
+			public List<T> doWithExecutor(int index, XQueryExecutor executor, Message<?> message, Object document) {
+				return executor.execute(message, document, returnType);
+			}
+		});
+	}
+
+	/**
+	 * Executes every XQuery and maps the results using the given mapper
+	 *
+	 * @param <T>
+	 * @param message
+	 * @param mapper
+	 * @return the results of every executor, in their order
+	 */
+	public <T> List<List<T>> execute(Message<?> message, final XQueryResultMapper<T> mapper) {
+		Assert.notNull(mapper,"Non null mapper expected");
+		return execute(message, new XQueryExecutorCallback<List<T>>() {
+			public List<T> doWithExecutor(int index, XQueryExecutor executor, Message<?> message, Object document) {
+				return executor.execute(message, document, mapper);
+			}
+		});
+	}
+
+	/**
+	 * Computes the effective boolean value of every XQuery, for instance to select the
+	 * recipients of the message
+	 *
+	 * @param message
+	 * @return the effective boolean values, in the order of the executors
+	 */
+	public List<Boolean> effectiveBooleanValues(Message<?> message) {
+		return execute(message, new XQueryExecutorCallback<Boolean>() {
+			public Boolean doWithExecutor(int index, XQueryExecutor executor, Message<?> message, Object document) {
+				return executor.effectiveBooleanValue(message, document);
+			}
+		});
+	}
+
+	/**
+	 * Invokes the callback with every executor, the message and the parsed document. All the
+	 * invocations but the last one are submitted to the task executor, if any,
+	 * the last one is made by the calling thread which then makes those not yet started by
+	 * the task executor and waits for the others. The first exception thrown, including the
+	 * rejection of a submission, is rethrown, the pending invocations are then cancelled
+	 *
+	 * @param <T>
+	 * @param message
+	 * @param callback
+	 * @return the values returned by the callback, in the order of the executors
+	 */
+	public <T> List<T> execute(final Message<?> message, final XQueryExecutorCallback<T> callback) {
+		Assert.notNull(message,"Non null message expected");
+		Assert.notNull(callback,"Non null callback expected");
+		final XdmNode document = parse(message);
+		List<XQueryExecutor> executors = this.executors;
+		List<T> values = new ArrayList<T>(executors.size());
+		if(taskExecutor == null) {
+			for(int i = 0;i < executors.size();i++) {
+				values.add(callback.doWithExecutor(i, executors.get(i), message, document));
+			}
+			return values;
+		}
+		List<FutureTask<T>> tasks = new ArrayList<FutureTask<T>>(executors.size());
+		for(int i = 0;i < executors.size();i++) {
+			final int index = i;
+			final XQueryExecutor executor = executors.get(i);
+			tasks.add(new FutureTask<T>(new Callable<T>() {
+				public T call() {
+					return callback.doWithExecutor(index, executor, message, document);
+				}
+			}));
+		}
+		try {
+			for(int i = 0;i < tasks.size() - 1;i++) {
+				taskExecutor.execute(tasks.get(i));
+			}
+			tasks.get(tasks.size() - 1).run();
+			for(FutureTask<T> task:tasks) {
+				//a saturated or shared task executor may not have started the task yet, it is
+				//then run by the calling thread, it is a no op if already started
+				task.run();
+				values.add(task.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MessagingException(message, "Interrupted while waiting for the XQuery results", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			if(cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new MessagingException(message, "Caught Exception while executing the XQuery", cause);
+		} finally {
+			for(FutureTask<T> task:tasks) {
+				task.cancel(true);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Parses the payload of the message once for all the executors
+	 *
+	 * @param message
+	 * @return the parsed document, null if the payload is not needed, already is a document
+	 * or could not be converted
+	 */
+	private XdmNode parse(Message<?> message) {
+		if(!contextItemUsed || message.getPayload() instanceof XdmNode) {
+			return null;
+		}
+		List<XdmNode> document = documentExecutor.executeForXdmNode(message);
+		if(document == null || document.size() != 1) {
+			return null;
+		}
+		return document.get(0);
+	}
+
+	/**
+	 * Releases the resources held by the executor parsing the payload
+	 */
+	public void destroy() {
+		if(documentExecutor != null) {
+			documentExecutor.destroy();
+		}
+	}
+
+	/**
+	 * Sets the executors executed against every message
+	 *
+	 * @param executors
+	 */
+	public void setExecutors(List<XQueryExecutor> executors) {
+		Assert.notEmpty(executors, "Provide a non empty list of the executors");
+		this.executors = new ArrayList<XQueryExecutor>(executors);
+	}
+
+	/**
+	 * Sets the {@link Executor} executing the XQueries in parallel, the calling thread
+	 * executes one of them and waits for the others. By default all the XQueries are
+	 * executed by the calling thread
+	 *
+	 * @param taskExecutor
+	 */
+	public void setTaskExecutor(Executor taskExecutor) {
+		Assert.notNull(taskExecutor, "Provide a non null task executor");
+		this.taskExecutor = taskExecutor;
+	}
+
+	/**
+	 * Sets the converter used to convert the payload once for all the executors, the
+	 * converters of the executors are not used
+	 *
+	 * @param converter
+	 */
+	public void setConverter(XmlPayloadConverter converter) {
+		Assert.notNull(converter, "Provide a non null converter");
+		this.converter = converter;
+	}
+
+	/**
+	 * The callback invoked with every executor against the parsed document, executed with
+	 * the overloads of the executor taking the document along with the message, such as
+	 * {@link XQueryExecutor#execute(Message, Object, Class)}. The parameters of the XQueries
+	 * are then derived from the message as given, its payload and headers included
+	 *
+	 * @param <T>
+	 */
+	public static interface XQueryExecutorCallback<T> {
+
+		/**
+		 * @param index the index of the executor
+		 * @param executor
+		 * @param message the message being processed
+		 * @param document the parsed payload, null if the payload is used as is
+		 * @return
+		 */
+		T doWithExecutor(int index, XQueryExecutor executor, Message<?> message, Object document);
+	}
+}
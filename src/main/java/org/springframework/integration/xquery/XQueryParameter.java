@@ -38,6 +38,10 @@ public class XQueryParameter {
 	private volatile boolean isValueSet;
 	//Will be used only when an expression is set
 	private volatile ExpressionEvaluatingMessageProcessor<Object> messageProcessor;
+	//Reads the value directly for the common expressions, SpEL is evaluated otherwise
+	private volatile XQueryParameterAccessor accessor;
+	//The XQuery sequence type the value is bound with, if any
+	private volatile String type;
 
 	/**
 	 * The default no argument constructor
@@ -93,6 +97,22 @@ public class XQueryParameter {
 	}
 
 
+	/**
+	 * Gets the static value of the parameter, null if an expression is set
+	 * @return
+	 */
+	public Object getParameterValue() {
+		return parameterValue;
+	}
+
+	/**
+	 * Returns true if the parameter has a static value, the same for every message
+	 * @return
+	 */
+	public boolean isValueSet() {
+		return isValueSet;
+	}
+
 	/**
 	 * Sets the expression that would be evaluated to get the parameter value
 	 * @param expression
@@ -107,6 +127,29 @@ public class XQueryParameter {
 		SpelExpressionParser parser = new SpelExpressionParser();
 		Expression expr = parser.parseExpression(expression);
 		messageProcessor = new ExpressionEvaluatingMessageProcessor<Object>(expr);
+		accessor = XQueryParameterAccessor.forExpression(expression);
+	}
+
+	/**
+	 * Gets the XQuery sequence type the value of the parameter is bound with, null if the
+	 * value is bound as per its Java type
+	 * @return
+	 */
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * Sets the XQuery sequence type, for instance xs:integer or element()*, the value of the
+	 * parameter is bound with. The type should be the one the external variable is declared
+	 * with in the XQuery or a subtype of it, this is validated on startup. String values bound
+	 * to an atomic type are cast from their lexical form, for instance a header value to an
+	 * xs:integer.
+	 * @param type
+	 */
+	public void setType(String type) {
+		Assert.isTrue(StringUtils.hasText(type), "Please provide a non null, non empty type");
+		this.type = type;
 	}
 
 	/**
@@ -121,6 +164,12 @@ public class XQueryParameter {
 			return parameterValue;
 		}
 		else {
+			if(accessor != null) {
+				Object value = accessor.getValue(message);
+				if(value != XQueryParameterAccessor.UNRESOLVED) {
+					return value;
+				}
+			}
 			if(messageProcessor != null) {
 				return messageProcessor.processMessage(message);
 			}
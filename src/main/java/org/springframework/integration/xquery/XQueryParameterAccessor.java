@@ -0,0 +1,223 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.integration.Message;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * The direct accessor for the values of the commonly used shapes of the parameter
+ * expressions, used by the {@link XQueryParameter} in place of evaluating the SpEL
+ * expression. The recognized expressions are the literals, headers['name'], headers.name,
+ * payload, headers and payload.property. Whenever the accessor cannot give the same value
+ * as SpEL would, it returns {@link #UNRESOLVED} and the SpEL expression is evaluated instead.
+ *
+ * @author Amol Nayak
+ *
+ */
+abstract class XQueryParameterAccessor {
+
+	/**
+	 * Returned if the value is to be obtained by evaluating the SpEL expression
+	 */
+	static final Object UNRESOLVED = new Object();
+
+	private static final String IDENTIFIER = "([A-Za-z_$][A-Za-z0-9_$]*)";
+
+	private static final Pattern HEADER_INDEX = Pattern.compile("headers\\s*\\[\\s*'([^']*)'\\s*\\]");
+
+	private static final Pattern HEADER_PROPERTY = Pattern.compile("headers\\s*\\.\\s*" + IDENTIFIER);
+
+	private static final Pattern PAYLOAD_PROPERTY = Pattern.compile("payload\\s*\\.\\s*" + IDENTIFIER);
+
+	private static final Pattern STRING_LITERAL = Pattern.compile("'((?:[^']|'')*)'");
+
+	private static final Pattern INTEGER_LITERAL = Pattern.compile("-?[0-9]+");
+
+	private static final Pattern DECIMAL_LITERAL = Pattern.compile("-?[0-9]+\\.[0-9]+");
+
+	/**
+	 * Gets the value for the given message
+	 *
+	 * @param message
+	 * @return the value, {@link #UNRESOLVED} if the SpEL expression needs to be evaluated
+	 */
+	abstract Object getValue(Message<?> message);
+
+	/**
+	 * Gets the accessor for the given expression
+	 *
+	 * @param expression
+	 * @return the accessor, null if the expression is not one of the recognized shapes
+	 */
+	static XQueryParameterAccessor forExpression(String expression) {
+		String trimmed = expression.trim();
+		Matcher matcher;
+		if("payload".equals(trimmed)) {
+			return new PayloadAccessor();
+		}
+		else if("headers".equals(trimmed)) {
+			return new HeadersAccessor();
+		}
+		else if((matcher = HEADER_INDEX.matcher(trimmed)).matches()) {
+			return new HeaderAccessor(matcher.group(1), false);
+		}
+		else if((matcher = HEADER_PROPERTY.matcher(trimmed)).matches()) {
+			return new HeaderAccessor(matcher.group(1), true);
+		}
+		else if((matcher = PAYLOAD_PROPERTY.matcher(trimmed)).matches()) {
+			return new PayloadPropertyAccessor(matcher.group(1));
+		}
+		else if((matcher = STRING_LITERAL.matcher(trimmed)).matches()) {
+			return new LiteralAccessor(matcher.group(1).replace("''", "'"));
+		}
+		else if(INTEGER_LITERAL.matcher(trimmed).matches()) {
+			try {
+				return new LiteralAccessor(Integer.valueOf(trimmed));
+			} catch (NumberFormatException e) {
+				//too large for an int literal, left to SpEL
+				return null;
+			}
+		}
+		else if(DECIMAL_LITERAL.matcher(trimmed).matches()) {
+			return new LiteralAccessor(Double.valueOf(trimmed));
+		}
+		else if("true".equals(trimmed) || "false".equals(trimmed)) {
+			return new LiteralAccessor(Boolean.valueOf(trimmed));
+		}
+		else if("null".equals(trimmed)) {
+			return new LiteralAccessor(null);
+		}
+		return null;
+	}
+
+	private static class LiteralAccessor extends XQueryParameterAccessor {
+
+		private final Object value;
+
+		private LiteralAccessor(Object value) {
+			this.value = value;
+		}
+
+		@Override
+		Object getValue(Message<?> message) {
+			return value;
+		}
+	}
+
+	private static class PayloadAccessor extends XQueryParameterAccessor {
+
+		@Override
+		Object getValue(Message<?> message) {
+			return message.getPayload();
+		}
+	}
+
+	private static class HeadersAccessor extends XQueryParameterAccessor {
+
+		@Override
+		Object getValue(Message<?> message) {
+			return message.getHeaders();
+		}
+	}
+
+	private static class HeaderAccessor extends XQueryParameterAccessor {
+
+		private final String name;
+
+		//headers.name fails in SpEL if the header is not present, headers['name'] gives null
+		private final boolean required;
+
+		private HeaderAccessor(String name, boolean required) {
+			this.name = name;
+			this.required = required;
+		}
+
+		@Override
+		Object getValue(Message<?> message) {
+			Object value = message.getHeaders().get(name);
+			if(value == null && required && !message.getHeaders().containsKey(name)) {
+				return UNRESOLVED;
+			}
+			return value;
+		}
+	}
+
+	private static class PayloadPropertyAccessor extends XQueryParameterAccessor {
+
+		private final String property;
+
+		//the getter for the last payload type seen, payloads mostly are of one type
+		private volatile Getter getter;
+
+		private PayloadPropertyAccessor(String property) {
+			this.property = property;
+		}
+
+		@Override
+		Object getValue(Message<?> message) {
+			Object payload = message.getPayload();
+			if(payload instanceof Map) {
+				Map<?, ?> map = (Map<?, ?>)payload;
+				Object value = map.get(property);
+				if(value == null && !map.containsKey(property)) {
+					return UNRESOLVED;
+				}
+				return value;
+			}
+			Class<?> type = payload.getClass();
+			Getter getter = this.getter;
+			if(getter == null || getter.type != type) {
+				getter = new Getter(type, findReadMethod(type));
+				this.getter = getter;
+			}
+			if(getter.method == null) {
+				return UNRESOLVED;
+			}
+			//the exception thrown by the getter is rethrown as is rather than invoking it again
+			//through SpEL
+			return ReflectionUtils.invokeMethod(getter.method, payload);
+		}
+
+		private Method findReadMethod(Class<?> type) {
+			if(!Modifier.isPublic(type.getModifiers())) {
+				return null;
+			}
+			PropertyDescriptor descriptor = BeanUtils.getPropertyDescriptor(type, property);
+			return descriptor != null ? descriptor.getReadMethod() : null;
+		}
+	}
+
+	private static class Getter {
+
+		private final Class<?> type;
+
+		private final Method method;
+
+		private Getter(Class<?> type, Method method) {
+			this.type = type;
+			this.method = method;
+		}
+	}
+}
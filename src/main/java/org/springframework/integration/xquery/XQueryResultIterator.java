@@ -0,0 +1,37 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery;
+
+import java.util.Iterator;
+
+/**
+ * An {@link Iterator} over the results of an XQuery that maps the items as they are
+ * requested, backed by the open result sequence. The resources held, like the result
+ * sequence and the prepared expression, are released once the iterator is exhausted
+ * or is closed, whichever happens first. A consumer not iterating through all the
+ * results is hence required to close the iterator. {@link #remove()} is not supported.
+ *
+ * @author Amol Nayak
+ *
+ */
+public interface XQueryResultIterator<T> extends Iterator<T> {
+
+	/**
+	 * Releases the resources held by this iterator, invoking it more than once
+	 * has no effect
+	 */
+	void close();
+}
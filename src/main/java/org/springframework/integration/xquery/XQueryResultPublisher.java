@@ -0,0 +1,242 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.integration.Message;
+import org.springframework.util.Assert;
+
+/**
+ * A publisher of the items of the result of an XQuery executed against a message, emitting
+ * them to its {@link Subscriber} as they are requested. The XQuery is executed on the first
+ * request and the result sequence is advanced only as far as the outstanding demand, the
+ * results are hence never held in memory all at once and a slow subscriber applies
+ * backpressure on the evaluation rather than on a buffer.
+ * <p>
+ * The {@link Subscriber} and {@link Subscription} contracts are those of the Reactive
+ * Streams specification, a subscriber of a reactive library is adapted by delegating
+ * its methods one to one. The publisher is cold and accepts a single subscriber, the items
+ * are emitted on the thread requesting them, never concurrently. Each one returned by
+ * {@link XQueryExecutor#publish(Message, XQueryItemMapper)} executes the XQuery once.
+ *
+ * @author Amol Nayak
+ *
+ */
+public class XQueryResultPublisher<T> {
+
+	private final XQueryExecutor executor;
+
+	private final Message<?> message;
+
+	private final XQueryItemMapper<T> mapper;
+
+	private final AtomicBoolean subscribed = new AtomicBoolean();
+
+	XQueryResultPublisher(XQueryExecutor executor, Message<?> message, XQueryItemMapper<T> mapper) {
+		this.executor = executor;
+		this.message = message;
+		this.mapper = mapper;
+	}
+
+	/**
+	 * Subscribes the given subscriber to the result items, a publisher accepts one
+	 * subscriber only, the subsequent ones are signalled an {@link IllegalStateException}
+	 *
+	 * @param subscriber
+	 */
+	public void subscribe(Subscriber<? super T> subscriber) {
+		Assert.notNull(subscriber, "Provide a non null subscriber");
+		if(!subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(new Subscription() {
+				public void request(long n) {
+				}
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("The XQuery result publisher accepts a single subscriber"));
+			return;
+		}
+		subscriber.onSubscribe(new ResultSubscription(subscriber));
+	}
+
+	/**
+	 * The receiver of the result items, the methods are invoked serially. No item is
+	 * received before some are requested through the {@link Subscription}
+	 */
+	public interface Subscriber<T> {
+
+		/**
+		 * Invoked once, before any other method, with the subscription to request the
+		 * items from
+		 *
+		 * @param subscription
+		 */
+		void onSubscribe(Subscription subscription);
+
+		/**
+		 * Invoked with the next item of the result, never more often than requested
+		 *
+		 * @param item
+		 */
+		void onNext(T item);
+
+		/**
+		 * Invoked if the XQuery could not be executed or an item could not be mapped, no
+		 * other method is invoked afterwards
+		 *
+		 * @param error
+		 */
+		void onError(Throwable error);
+
+		/**
+		 * Invoked once all the items of the result are received, no other method is
+		 * invoked afterwards
+		 */
+		void onComplete();
+	}
+
+	/**
+	 * The demand of a {@link Subscriber}
+	 */
+	public interface Subscription {
+
+		/**
+		 * Requests n more items, Long.MAX_VALUE requesting all the remaining ones. A non
+		 * positive n terminates the subscription with an {@link IllegalArgumentException}
+		 *
+		 * @param n
+		 */
+		void request(long n);
+
+		/**
+		 * Stops the emission of the items and releases the result sequence, the items
+		 * being emitted may still be received
+		 */
+		void cancel();
+	}
+
+	/**
+	 * Emits the items in a drain loop entered by one thread at a time, a request made
+	 * from within onNext is hence served by the loop in progress rather than recursively
+	 */
+	private class ResultSubscription implements Subscription {
+
+		private final Subscriber<? super T> subscriber;
+
+		private final AtomicLong requested = new AtomicLong();
+
+		//the number of the drain requests not yet served by the thread in the loop
+		private final AtomicInteger pending = new AtomicInteger();
+
+		private volatile boolean cancelled;
+
+		private volatile boolean invalidRequest;
+
+		//accessed from within the drain loop only
+		private XQueryResultIterator<T> iterator;
+
+		private boolean done;
+
+		private ResultSubscription(Subscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		public void request(long n) {
+			if(n <= 0) {
+				invalidRequest = true;
+			}
+			else {
+				long current;
+				long next;
+				do {
+					current = requested.get();
+					next = current + n < 0 ? Long.MAX_VALUE : current + n;
+				} while(!requested.compareAndSet(current, next));
+			}
+			drain();
+		}
+
+		public void cancel() {
+			cancelled = true;
+			drain();
+		}
+
+		private void drain() {
+			if(pending.getAndIncrement() != 0) {
+				return;
+			}
+			int missed = 1;
+			do {
+				emit();
+				missed = pending.addAndGet(-missed);
+			} while(missed != 0);
+		}
+
+		private void emit() {
+			while(!done) {
+				if(cancelled) {
+					terminate();
+					return;
+				}
+				if(invalidRequest) {
+					terminate();
+					subscriber.onError(new IllegalArgumentException("The number of the requested items should be positive"));
+					return;
+				}
+				long demand = requested.get();
+				if(demand == 0) {
+					return;
+				}
+				T item;
+				try {
+					if(iterator == null) {
+						iterator = executor.iterate(message, mapper);
+					}
+					if(iterator == null || !iterator.hasNext()) {
+						terminate();
+						subscriber.onComplete();
+						return;
+					}
+					item = iterator.next();
+				} catch (RuntimeException e) {
+					terminate();
+					subscriber.onError(e);
+					return;
+				}
+				if(demand != Long.MAX_VALUE) {
+					requested.decrementAndGet();
+				}
+				try {
+					subscriber.onNext(item);
+				} catch (RuntimeException e) {
+					//the subscriber broke its contract, the result sequence is released anyway
+					terminate();
+					throw e;
+				}
+			}
+		}
+
+		private void terminate() {
+			done = true;
+			if(iterator != null) {
+				iterator.close();
+			}
+		}
+	}
+}
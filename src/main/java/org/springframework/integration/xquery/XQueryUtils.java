@@ -19,7 +19,16 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.springframework.core.io.Resource;
 import org.springframework.integration.MessagingException;
@@ -35,6 +44,34 @@ import org.springframework.util.Assert;
  */
 public class XQueryUtils {
 
+	//the atomic types the values are bound as by XQJ, the same ones are used for the constants
+	private static final Map<Class<?>, String> CONSTANT_TYPES = new HashMap<Class<?>, String>();
+
+	static {
+		CONSTANT_TYPES.put(String.class, "xs:string");
+		CONSTANT_TYPES.put(Boolean.class, "xs:boolean");
+		CONSTANT_TYPES.put(Byte.class, "xs:byte");
+		CONSTANT_TYPES.put(Short.class, "xs:short");
+		CONSTANT_TYPES.put(Integer.class, "xs:int");
+		CONSTANT_TYPES.put(Long.class, "xs:long");
+		CONSTANT_TYPES.put(BigInteger.class, "xs:integer");
+		CONSTANT_TYPES.put(BigDecimal.class, "xs:decimal");
+		CONSTANT_TYPES.put(Float.class, "xs:float");
+		CONSTANT_TYPES.put(Double.class, "xs:double");
+	}
+
+	//the built-in atomic types with a constructor function accepting the lexical form,
+	//the abstract ones, xs:anyAtomicType and xs:NOTATION, and xs:QName are not
+	private static final Set<String> CONSTRUCTIBLE_TYPES = new HashSet<String>(Arrays.asList(
+			"xs:string", "xs:normalizedString", "xs:token", "xs:language", "xs:NMTOKEN", "xs:Name",
+			"xs:NCName", "xs:ID", "xs:IDREF", "xs:ENTITY", "xs:untypedAtomic", "xs:anyURI",
+			"xs:boolean", "xs:decimal", "xs:integer", "xs:nonPositiveInteger", "xs:negativeInteger",
+			"xs:long", "xs:int", "xs:short", "xs:byte", "xs:nonNegativeInteger", "xs:unsignedLong",
+			"xs:unsignedInt", "xs:unsignedShort", "xs:unsignedByte", "xs:positiveInteger",
+			"xs:float", "xs:double", "xs:duration", "xs:dayTimeDuration", "xs:yearMonthDuration",
+			"xs:dateTime", "xs:date", "xs:time", "xs:gYearMonth", "xs:gYear", "xs:gMonthDay",
+			"xs:gDay", "xs:gMonth", "xs:hexBinary", "xs:base64Binary"));
+
 	/**
 	 * Reads the XQuery string from the resource file specified
 	 *
@@ -63,4 +100,102 @@ public class XQueryUtils {
 			throw new MessagingException("Error while reading the xQuery resource", e);
 		}
 	}
+
+	/**
+	 * Creates the XQuery used by the engines to index a document, it returns every node
+	 * selected by the match expression followed by one of its keys, once for every key
+	 *
+	 * @param match
+	 * @param use
+	 * @return
+	 */
+	static String createIndexQuery(String match, String use) {
+		Assert.hasText(match, "Provide a non empty match expression for the index");
+		Assert.hasText(use, "Provide a non empty use expression for the index");
+		return "for $node in (" + match + "), $key in distinct-values($node/(" + use + ")) " +
+				"return ($node, string($key))";
+	}
+
+	/**
+	 * Replaces the external declaration of the given variable by the declaration of the
+	 * given constant value, letting the XQuery processor fold the expressions depending on it
+	 * when the XQuery is compiled. Only the variables declared without a type or with a
+	 * single built-in atomic type with a constructor function can be declared with a constant,
+	 * and only String, Boolean and Number values of the primitive wrappers, BigInteger and
+	 * BigDecimal. If the variable is declared with a type, the value is cast to it from its
+	 * lexical form. The declarations within the comments and the string literals are ignored.
+	 *
+	 * @param xQuery
+	 * @param name the local name of the external variable
+	 * @param value
+	 * @return the XQuery with the variable declared with the constant value, null if it can't be
+	 */
+	static String declareConstantVariable(String xQuery, String name, Object value) {
+		if(value == null || !CONSTANT_TYPES.containsKey(value.getClass())
+				|| (value instanceof Double && ((Double)value).isInfinite())
+				|| (value instanceof Float && ((Float)value).isInfinite())) {
+			return null;
+		}
+		Pattern declaration = Pattern.compile("declare\\s+variable\\s+\\$" + Pattern.quote(name)
+				+ "(\\s+as\\s+([\\w.\\-]+:)?[\\w.\\-]+)?\\s+external\\s*;");
+		Matcher matcher = declaration.matcher(maskCommentsAndStrings(xQuery));
+		if(!matcher.find()) {
+			return null;
+		}
+		String type = matcher.group(1) == null ? CONSTANT_TYPES.get(value.getClass())
+											: matcher.group(1).trim().substring(2).trim();
+		if(!CONSTRUCTIBLE_TYPES.contains(type)) {
+			return null;
+		}
+		String lexical = value instanceof BigDecimal ? ((BigDecimal)value).toPlainString() : value.toString();
+		String literal = "\"" + lexical.replace("&", "&amp;").replace("\"", "\"\"").replace("\r", "&#13;") + "\"";
+		String constant = "declare variable $" + name + " as " + type + " := " + type + "(" + literal + ");";
+		return xQuery.substring(0, matcher.start()) + constant + xQuery.substring(matcher.end());
+	}
+
+	/**
+	 * Blanks out the comments and the string literals of the XQuery, keeping the offsets of
+	 * the remaining text unchanged
+	 *
+	 * @param xQuery
+	 * @return
+	 */
+	private static String maskCommentsAndStrings(String xQuery) {
+		char[] masked = xQuery.toCharArray();
+		int commentDepth = 0;
+		char quote = 0;
+		for(int i = 0;i < masked.length;i++) {
+			char c = masked[i];
+			char next = i + 1 < masked.length ? masked[i + 1] : 0;
+			if(quote != 0) {
+				masked[i] = ' ';
+				if(c == quote) {
+					if(next == quote) {
+						//an escaped quote within the literal
+						masked[++i] = ' ';
+					}
+					else {
+						quote = 0;
+					}
+				}
+			}
+			else if(c == '(' && next == ':') {
+				commentDepth++;
+				masked[i] = ' ';
+				masked[++i] = ' ';
+			}
+			else if(commentDepth > 0) {
+				masked[i] = ' ';
+				if(c == ':' && next == ')') {
+					commentDepth--;
+					masked[++i] = ' ';
+				}
+			}
+			else if(c == '"' || c == '\'') {
+				quote = c;
+				masked[i] = ' ';
+			}
+		}
+		return new String(masked);
+	}
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery;
+
+import net.sf.saxon.s9api.XdmItem;
+
+/**
+ * The {@link XdmItem} counterpart of {@link XQueryItemMapper}. The {@link XQueryItemMapper}
+ * used with the {@link SaxonXQueryEngine} is required to implement this interface, all
+ * the default mappers do.
+ *
+ * @author Amol Nayak
+ *
+ */
+public interface XdmItemMapper<T> {
+
+	/**
+	 * Maps the given {@link XdmItem} to the specific type
+	 *
+	 * @param item
+	 * @return
+	 */
+	T mapItem(XdmItem item);
+}
@@ -32,5 +32,9 @@ public class IntegrationXQueryNamespaceHandler extends
 	public void init() {
 		registerBeanDefinitionParser("xquery-router", new XQueryRouterParser());
 		registerBeanDefinitionParser("xquery-transformer", new XQueryTransformerParser());
+		registerBeanDefinitionParser("xquery-splitter", new XQuerySplitterParser());
+		registerBeanDefinitionParser("xquery-filter", new XQueryFilterParser());
+		registerBeanDefinitionParser("xquery-pipeline", new XQueryPipelineParser());
+		registerBeanDefinitionParser("xquery-header-enricher", new XQueryHeaderEnricherParser());
 	}
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery.config;
+
+import java.util.List;
+
+import net.sf.saxon.s9api.XdmNode;
+
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.support.ManagedMap;
+import org.springframework.beans.factory.xml.ParserContext;
+import org.springframework.integration.config.xml.AbstractTransformerParser;
+import org.springframework.integration.config.xml.IntegrationNamespaceUtils;
+import org.springframework.integration.xquery.transformer.XQueryHeaderValue;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import org.springframework.util.xml.DomUtils;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * The parser for the XQuery header enricher component
+ *
+ * @author Amol Nayak
+ *
+ */
+public class XQueryHeaderEnricherParser extends AbstractTransformerParser {
+
+	/* (non-Javadoc)
+	 * @see org.springframework.integration.config.xml.AbstractTransformerParser#getTransformerClassName()
+	 */
+	@Override
+	protected String getTransformerClassName() {
+		return "org.springframework.integration.xquery.transformer.XQueryHeaderEnricher";
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.integration.config.xml.AbstractTransformerParser#parseTransformer(org.w3c.dom.Element, org.springframework.beans.factory.xml.ParserContext, org.springframework.beans.factory.support.BeanDefinitionBuilder)
+	 */
+	@Override
+	protected void parseTransformer(Element element,
+			ParserContext parserContext, BeanDefinitionBuilder builder) {
+		IntegrationNamespaceUtils.setValueIfAttributeDefined(builder, element, "default-overwrite");
+		IntegrationNamespaceUtils.setReferenceIfAttributeDefined(builder, element, "converter");
+		IntegrationNamespaceUtils.setReferenceIfAttributeDefined(builder, element, "task-executor");
+		List<Element> headerElements = DomUtils.getChildElementsByTagName(element, "header");
+		Assert.isTrue(!headerElements.isEmpty(), "At least one header should be provided");
+		ManagedMap<String, Object> headers = new ManagedMap<String, Object>();
+		for(Element header:headerElements) {
+			String name = header.getAttribute("name");
+			Assert.isTrue(StringUtils.hasText(name), "Non empty, non null header name should be provided");
+			Assert.isTrue(!headers.containsKey(name), "The header " + name + " is provided more than once");
+			BeanDefinitionBuilder headerBuilder = BeanDefinitionBuilder.genericBeanDefinition(XQueryHeaderValue.class);
+			headerBuilder.addConstructorArgValue(XQueryParserUtils.getXQueryExecutor(header));
+			IntegrationNamespaceUtils.setValueIfAttributeDefined(headerBuilder, header, "overwrite");
+			String resultType = header.getAttribute("result-type");
+			boolean hasResultType = StringUtils.hasText(resultType);
+			String resultMapper = header.getAttribute("xquery-result-mapper");
+			boolean hasResultMapper = StringUtils.hasText(resultMapper);
+			Assert.isTrue(!(hasResultType && hasResultMapper),
+					"Only one of result-type or xquery-result-mapper may be specified");
+			if(hasResultType) {
+				Class<?> type;
+				if("string".equalsIgnoreCase(resultType)) {
+					type = String.class;
+				}
+				else if("boolean".equalsIgnoreCase(resultType)) {
+					type = Boolean.class;
+				}
+				else if("number".equalsIgnoreCase(resultType)) {
+					type = Number.class;
+				}
+				else if("node".equalsIgnoreCase(resultType)) {
+					type = Node.class;
+				}
+				else if("xdm-node".equalsIgnoreCase(resultType)) {
+					type = XdmNode.class;
+				}
+				else {
+					throw new IllegalArgumentException("Unsupported result-type " + resultType
+							+ ", should be one of string, boolean, number, node or xdm-node");
+				}
+				headerBuilder.addPropertyValue("resultType", type);
+			}
+			else if(hasResultMapper) {
+				headerBuilder.addPropertyReference("resultMapper", resultMapper);
+			}
+			headers.put(name, headerBuilder.getBeanDefinition());
+		}
+		builder.addPropertyValue("headers", headers);
+	}
+}
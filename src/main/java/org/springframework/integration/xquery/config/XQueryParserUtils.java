@@ -15,13 +15,19 @@
  */
 package org.springframework.integration.xquery.config;
 
+import java.util.concurrent.ThreadPoolExecutor;
+
 import org.springframework.beans.factory.support.AbstractBeanDefinition;
 import org.springframework.beans.factory.support.BeanDefinitionBuilder;
 import org.springframework.beans.factory.support.ManagedList;
+import org.springframework.core.Conventions;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
 import org.springframework.integration.config.xml.IntegrationNamespaceUtils;
+import org.springframework.integration.xquery.SaxonXQueryEngine;
+import org.springframework.integration.xquery.XQConnectionPool;
+import org.springframework.integration.xquery.XQueryDocumentIndex;
 import org.springframework.integration.xquery.XQueryExecutor;
 import org.springframework.integration.xquery.XQueryParameter;
 import org.springframework.util.Assert;
@@ -51,8 +57,58 @@ public class XQueryParserUtils {
 	public static final AbstractBeanDefinition getXQueryExecutor(Element element) {
 		BeanDefinitionBuilder builder = BeanDefinitionBuilder.genericBeanDefinition(XQueryExecutor.class);
 		IntegrationNamespaceUtils.setReferenceIfAttributeDefined(builder, element, "converter");
+		IntegrationNamespaceUtils.setReferenceIfAttributeDefined(builder, element, "document-cache");
 		IntegrationNamespaceUtils.setReferenceIfAttributeDefined(builder, element, "xq-datasource","xQDataSource");
 		IntegrationNamespaceUtils.setValueIfAttributeDefined(builder, element, "format-output");
+		String engine = element.getAttribute("engine");
+		if(StringUtils.hasText(engine) && !"xqj".equals(engine.trim())) {
+			Assert.isTrue("saxon".equals(engine.trim()), "Unsupported engine " + engine
+					+ ", the engine should be one of xqj or saxon");
+			Assert.isTrue(!element.hasAttribute("xq-datasource"),
+					"The xq-datasource attribute is applicable to the xqj engine only");
+			builder.addPropertyValue("engine",
+					BeanDefinitionBuilder.genericBeanDefinition(SaxonXQueryEngine.class).getBeanDefinition());
+		}
+		IntegrationNamespaceUtils.setValueIfAttributeDefined(builder, element, "expression-pool-size");
+		IntegrationNamespaceUtils.setValueIfAttributeDefined(builder, element, "result-cache-size");
+		IntegrationNamespaceUtils.setValueIfAttributeDefined(builder, element, "partition-element");
+		IntegrationNamespaceUtils.setValueIfAttributeDefined(builder, element, "partition-size");
+		IntegrationNamespaceUtils.setReferenceIfAttributeDefined(builder, element, "partition-task-executor");
+		IntegrationNamespaceUtils.setValueIfAttributeDefined(builder, element, "execution-timeout");
+		IntegrationNamespaceUtils.setReferenceIfAttributeDefined(builder, element, "async-executor");
+		IntegrationNamespaceUtils.setValueIfAttributeDefined(builder, element, "async-pool-size");
+		IntegrationNamespaceUtils.setValueIfAttributeDefined(builder, element, "async-queue-capacity");
+		if(StringUtils.hasText(element.getAttribute("async-virtual-threads"))) {
+			Assert.isTrue(!element.hasAttribute("async-executor"),
+					"The async-virtual-threads attribute is applicable to the default async executor only");
+			IntegrationNamespaceUtils.setValueIfAttributeDefined(builder, element, "async-virtual-threads");
+		}
+		String rejectionPolicy = element.getAttribute("async-rejection-policy");
+		if(StringUtils.hasText(rejectionPolicy)) {
+			Assert.isTrue(!element.hasAttribute("async-executor"),
+					"The async-rejection-policy attribute is applicable to the default async executor only");
+			Class<?> policy;
+			if("caller-runs".equals(rejectionPolicy.trim())) {
+				policy = ThreadPoolExecutor.CallerRunsPolicy.class;
+			}
+			else {
+				Assert.isTrue("abort".equals(rejectionPolicy.trim()), "Unsupported async rejection policy "
+						+ rejectionPolicy + ", the policy should be one of caller-runs or abort");
+				policy = ThreadPoolExecutor.AbortPolicy.class;
+			}
+			builder.addPropertyValue("asyncRejectedExecutionHandler",
+					BeanDefinitionBuilder.genericBeanDefinition(policy).getBeanDefinition());
+		}
+		String expressionPoolMode = element.getAttribute("expression-pool-mode");
+		if(StringUtils.hasText(expressionPoolMode)) {
+			//none, pooled or thread-confined to the constants of XQPreparedExpressionPool.Mode
+			builder.addPropertyValue("expressionPoolMode",
+					expressionPoolMode.trim().toUpperCase().replace('-', '_'));
+		}
+		AbstractBeanDefinition connectionPool = getConnectionPool(element);
+		if(connectionPool != null) {
+			builder.addPropertyValue("connectionPool", connectionPool);
+		}
 		NodeList list = element.getElementsByTagNameNS(element.getNamespaceURI(), "xquery");
 		Attr xQueryAttribute = element.getAttributeNode("xquery");
 		Attr xQueryResource = element.getAttributeNode("xquery-file-resource");
@@ -75,18 +131,7 @@ public class XQueryParserUtils {
 			//resource specified
 			String textContent = xQueryResource.getTextContent();
 			Assert.isTrue(StringUtils.hasText(textContent),"Non empty, non null resource path should be provided");
-			Resource resource;
-			if(textContent.startsWith(ResourceUtils.CLASSPATH_URL_PREFIX)) {
-				resource = new ClassPathResource(textContent.substring(ResourceUtils.CLASSPATH_URL_PREFIX.length()));
-			}
-			else if(textContent.startsWith(ResourceUtils.FILE_URL_PREFIX)) {
-				resource = new FileSystemResource(textContent.substring(ResourceUtils.FILE_URL_PREFIX.length()));
-			}
-			else {
-				//assuming its a classpath resource
-				resource = new ClassPathResource(textContent);
-			}
-			builder.addPropertyValue("xQueryFileResource", resource);
+			builder.addPropertyValue("xQueryFileResource", getResource(textContent));
 		}
 		else {
 			//child element or attribute defined
@@ -112,7 +157,8 @@ public class XQueryParserUtils {
 			for(int i = 0;i < parameters.getLength();i++) {
 				Node node = parameters.item(i);
 				NamedNodeMap attrs = node.getAttributes();
-				Assert.isTrue(attrs.getLength() > 1,
+				Assert.isTrue(attrs.getNamedItem("value") != null || attrs.getNamedItem("ref") != null
+						|| attrs.getNamedItem("expression") != null,
 						"One of ref, value or expression should be present with the name attribute");
 				Attr nameAttr = (Attr)attrs.getNamedItem("name");
 
@@ -136,12 +182,101 @@ public class XQueryParserUtils {
 					attr = (Attr)attrs.getNamedItem("expression");
 					paramBuilder.addPropertyValue("expression", attr.getTextContent());
 				}
+				if(attrs.getNamedItem("type") != null) {
+					attr = (Attr)attrs.getNamedItem("type");
+					paramBuilder.addPropertyValue("type", attr.getTextContent());
+				}
 				params.add(paramBuilder.getBeanDefinition());
 			}
 			builder.addPropertyValue("xQueryParameters", params);
 		}
 
+		NodeList staticDocuments = element.getElementsByTagNameNS(element.getNamespaceURI(), "static-document");
+		if(staticDocuments != null && staticDocuments.getLength() > 0) {
+			Assert.isTrue(staticDocuments.getLength() == 1, "Maximum one static-document child node may be specified");
+			setStaticDocument(builder, (Element)staticDocuments.item(0));
+		}
+
+		return builder.getBeanDefinition();
+	}
 
+	/**
+	 * Sets the static document and its indexes from the static-document element
+	 *
+	 * @param builder
+	 * @param staticDocument
+	 */
+	private static void setStaticDocument(BeanDefinitionBuilder builder, Element staticDocument) {
+		String location = staticDocument.getAttribute("location");
+		Assert.isTrue(StringUtils.hasText(location), "Non empty, non null static document location should be provided");
+		builder.addPropertyValue("staticDocument", getResource(location));
+		IntegrationNamespaceUtils.setValueIfAttributeDefined(builder, staticDocument, "variable", "staticDocumentVariable");
+		NodeList indexes = staticDocument.getElementsByTagNameNS(staticDocument.getNamespaceURI(), "index");
+		if(indexes != null && indexes.getLength() > 0) {
+			ManagedList<AbstractBeanDefinition> documentIndexes = new ManagedList<AbstractBeanDefinition>();
+			for(int i = 0;i < indexes.getLength();i++) {
+				Element index = (Element)indexes.item(i);
+				BeanDefinitionBuilder indexBuilder =
+					BeanDefinitionBuilder.genericBeanDefinition(XQueryDocumentIndex.class);
+				indexBuilder.addConstructorArgValue(index.getAttribute("variable"));
+				indexBuilder.addConstructorArgValue(index.getAttribute("match"));
+				indexBuilder.addConstructorArgValue(index.getAttribute("use"));
+				indexBuilder.addConstructorArgValue(index.getAttribute("key-expression"));
+				documentIndexes.add(indexBuilder.getBeanDefinition());
+			}
+			builder.addPropertyValue("documentIndexes", documentIndexes);
+		}
+	}
+
+	/**
+	 * Gets the {@link Resource} for the given location, currently only classpath and file
+	 * resources are supported, a location without a prefix is assumed to be on the classpath
+	 *
+	 * @param location
+	 * @return
+	 */
+	private static Resource getResource(String location) {
+		Resource resource;
+		if(location.startsWith(ResourceUtils.CLASSPATH_URL_PREFIX)) {
+			resource = new ClassPathResource(location.substring(ResourceUtils.CLASSPATH_URL_PREFIX.length()));
+		}
+		else if(location.startsWith(ResourceUtils.FILE_URL_PREFIX)) {
+			resource = new FileSystemResource(location.substring(ResourceUtils.FILE_URL_PREFIX.length()));
+		}
+		else {
+			//assuming its a classpath resource
+			resource = new ClassPathResource(location);
+		}
+		return resource;
+	}
+
+	/**
+	 * Creates the {@link XQConnectionPool} definition if any of the connection-pool-*
+	 * attributes is specified
+	 *
+	 * @param element
+	 * @return the definition, null if the connection pool is not configured
+	 */
+	private static AbstractBeanDefinition getConnectionPool(Element element) {
+		String[] attributes = {"connection-pool-max-size", "connection-pool-min-idle",
+				"connection-pool-max-idle", "connection-pool-max-wait",
+				"connection-pool-idle-timeout", "connection-pool-validation-query"};
+		BeanDefinitionBuilder builder = BeanDefinitionBuilder.genericBeanDefinition(XQConnectionPool.class);
+		boolean configured = false;
+		for(String attribute:attributes) {
+			if(StringUtils.hasText(element.getAttribute(attribute))) {
+				//connection-pool-max-size to maxSize and so on
+				IntegrationNamespaceUtils.setValueIfAttributeDefined(builder, element, attribute,
+						Conventions.attributeNameToPropertyName(attribute.substring("connection-pool-".length())));
+				configured = true;
+			}
+		}
+		if(!configured) {
+			return null;
+		}
+		String engine = element.getAttribute("engine");
+		Assert.isTrue(!StringUtils.hasText(engine) || "xqj".equals(engine.trim()),
+				"The connection-pool-* attributes are applicable to the xqj engine only");
 		return builder.getBeanDefinition();
 	}
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery.config;
+
+import java.util.List;
+
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import org.springframework.util.xml.DomUtils;
+import org.w3c.dom.Element;
+
+/**
+ * The parser for the XQuery pipeline, a transformer executing the XQueries of its
+ * stages one after the other, each stage getting the resulting node of the preceding
+ * one as its context item
+ *
+ * @author Amol Nayak
+ *
+ */
+public class XQueryPipelineParser extends XQueryTransformerParser {
+
+	/* (non-Javadoc)
+	 * @see org.springframework.integration.xquery.config.XQueryTransformerParser#getXQueryExecutor(org.w3c.dom.Element)
+	 */
+	@Override
+	protected AbstractBeanDefinition getXQueryExecutor(Element element) {
+		List<Element> stages = DomUtils.getChildElementsByTagName(element, "stage");
+		Assert.isTrue(!stages.isEmpty(), "At least one stage should be provided for the pipeline");
+		AbstractBeanDefinition executor = null;
+		for(Element stage:stages) {
+			AbstractBeanDefinition stageExecutor = XQueryParserUtils.getXQueryExecutor(stage);
+			if(executor != null) {
+				stageExecutor.getPropertyValues().addPropertyValue("precedingStage", executor);
+			}
+			executor = stageExecutor;
+		}
+		//the output of the last stage is the output of the pipeline
+		String formatOutput = element.getAttribute("format-output");
+		if(StringUtils.hasText(formatOutput)) {
+			executor.getPropertyValues().addPropertyValue("formatOutput", formatOutput);
+		}
+		return executor;
+	}
+}
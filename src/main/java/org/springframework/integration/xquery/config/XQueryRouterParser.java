@@ -20,6 +20,7 @@ import org.springframework.beans.factory.support.AbstractBeanDefinition;
 import org.springframework.beans.factory.support.BeanDefinitionBuilder;
 import org.springframework.beans.factory.xml.ParserContext;
 import org.springframework.integration.config.xml.AbstractRouterParser;
+import org.springframework.integration.config.xml.IntegrationNamespaceUtils;
 import org.springframework.integration.xquery.router.XQueryRouter;
 import org.w3c.dom.Element;
 
@@ -36,6 +37,7 @@ public class XQueryRouterParser extends AbstractRouterParser {
 		BeanDefinitionBuilder routerBuilder = BeanDefinitionBuilder.genericBeanDefinition(XQueryRouter.class);
 		AbstractBeanDefinition executor = XQueryParserUtils.getXQueryExecutor(element);
 		routerBuilder.addPropertyValue("executor", executor);
+		IntegrationNamespaceUtils.setValueIfAttributeDefined(routerBuilder, element, "async");
 		return routerBuilder.getBeanDefinition();
 	}
 }
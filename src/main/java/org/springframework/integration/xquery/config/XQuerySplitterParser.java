@@ -0,0 +1,80 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery.config;
+
+import net.sf.saxon.s9api.XdmNode;
+
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.xml.ParserContext;
+import org.springframework.integration.config.xml.AbstractConsumerEndpointParser;
+import org.springframework.integration.config.xml.IntegrationNamespaceUtils;
+import org.springframework.integration.xquery.splitter.XQuerySplitter;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * The parser for the XQuery splitter component
+ * @author Amol Nayak
+ *
+ */
+public class XQuerySplitterParser extends AbstractConsumerEndpointParser {
+
+	@Override
+	protected BeanDefinitionBuilder parseHandler(Element element, ParserContext parserContext) {
+		BeanDefinitionBuilder builder = BeanDefinitionBuilder.genericBeanDefinition(XQuerySplitter.class);
+		AbstractBeanDefinition executor = XQueryParserUtils.getXQueryExecutor(element);
+		builder.addPropertyValue("executor", executor);
+		IntegrationNamespaceUtils.setValueIfAttributeDefined(builder, element, "apply-sequence");
+		IntegrationNamespaceUtils.setValueIfAttributeDefined(builder, element, "chunk-size");
+		IntegrationNamespaceUtils.setValueIfAttributeDefined(builder, element, "streaming");
+		String resultType = element.getAttribute("result-type");
+		boolean hasResultType = StringUtils.hasText(resultType);
+		String itemMapper = element.getAttribute("xquery-item-mapper");
+		boolean hasItemMapper = StringUtils.hasText(itemMapper);
+		Assert.isTrue(!(hasResultType && hasItemMapper),
+				"Only one of result-type or xquery-item-mapper may be specified");
+		if(hasResultType) {
+			Class<?> type;
+			if("string".equalsIgnoreCase(resultType)) {
+				type = String.class;
+			}
+			else if("boolean".equalsIgnoreCase(resultType)) {
+				type = Boolean.class;
+			}
+			else if("number".equalsIgnoreCase(resultType)) {
+				type = Number.class;
+			}
+			else if("node".equalsIgnoreCase(resultType)) {
+				type = Node.class;
+			}
+			else if("xdm-node".equalsIgnoreCase(resultType)) {
+				type = XdmNode.class;
+			}
+			else {
+				throw new IllegalArgumentException("Unsupported result-type " + resultType
+						+ ", should be one of string, boolean, number, node or xdm-node");
+			}
+			builder.addPropertyValue("resultType", type);
+		}
+		else if(hasItemMapper) {
+			builder.addPropertyReference("itemMapper", itemMapper);
+		}
+		return builder;
+	}
+}
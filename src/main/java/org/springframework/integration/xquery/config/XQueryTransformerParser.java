@@ -15,10 +15,14 @@
  */
 package org.springframework.integration.xquery.config;
 
+import net.sf.saxon.s9api.XdmNode;
+
 import org.springframework.beans.factory.support.AbstractBeanDefinition;
 import org.springframework.beans.factory.support.BeanDefinitionBuilder;
 import org.springframework.beans.factory.xml.ParserContext;
 import org.springframework.integration.config.xml.AbstractTransformerParser;
+import org.springframework.integration.config.xml.IntegrationNamespaceUtils;
+import org.springframework.integration.xquery.transformer.XQueryAsyncTransformingHandler;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 import org.w3c.dom.Element;
@@ -39,14 +43,30 @@ public class XQueryTransformerParser extends AbstractTransformerParser {
 		return "org.springframework.integration.xquery.transformer.XQueryTransformer";
 	}
 
+	/* (non-Javadoc)
+	 * @see org.springframework.integration.config.xml.AbstractTransformerParser#parseHandler(org.w3c.dom.Element, org.springframework.beans.factory.xml.ParserContext)
+	 */
+	@Override
+	protected BeanDefinitionBuilder parseHandler(Element element, ParserContext parserContext) {
+		if(!"true".equals(element.getAttribute("async").trim())) {
+			return super.parseHandler(element, parserContext);
+		}
+		//the transformer is executed by the async executor of its XQuery executor
+		BeanDefinitionBuilder transformerBuilder = BeanDefinitionBuilder.genericBeanDefinition(getTransformerClassName());
+		parseTransformer(element, parserContext, transformerBuilder);
+		BeanDefinitionBuilder builder = BeanDefinitionBuilder.genericBeanDefinition(XQueryAsyncTransformingHandler.class);
+		builder.addConstructorArgValue(transformerBuilder.getBeanDefinition());
+		IntegrationNamespaceUtils.setValueIfAttributeDefined(builder, element, "send-timeout");
+		return builder;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.springframework.integration.config.xml.AbstractTransformerParser#parseTransformer(org.w3c.dom.Element, org.springframework.beans.factory.xml.ParserContext, org.springframework.beans.factory.support.BeanDefinitionBuilder)
 	 */
 	@Override
 	protected void parseTransformer(Element element,
 			ParserContext parserContext, BeanDefinitionBuilder builder) {
-		AbstractBeanDefinition executor = XQueryParserUtils.getXQueryExecutor(element);
-		builder.addPropertyValue("executor", executor);
+		builder.addPropertyValue("executor", getXQueryExecutor(element));
 		//Add the result type and the result class attributes
 		String resultType = element.getAttribute("result-type");
 		boolean hasResultType = StringUtils.hasText(resultType);
@@ -68,6 +88,9 @@ public class XQueryTransformerParser extends AbstractTransformerParser {
 			else if("node".equalsIgnoreCase(resultType)) {
 				type = Node.class;
 			}
+			else if("xdm-node".equalsIgnoreCase(resultType)) {
+				type = XdmNode.class;
+			}
 			else {
 				try {
 					type = Class.forName(resultType);
@@ -82,4 +105,15 @@ public class XQueryTransformerParser extends AbstractTransformerParser {
 			builder.addPropertyReference("resultMapper", xqueryResultMapper);
 		}
 	}
+
+	/**
+	 * Creates the definition of the {@link org.springframework.integration.xquery.XQueryExecutor}
+	 * the transformer executes
+	 *
+	 * @param element
+	 * @return
+	 */
+	protected AbstractBeanDefinition getXQueryExecutor(Element element) {
+		return XQueryParserUtils.getXQueryExecutor(element);
+	}
 }
@@ -17,9 +17,12 @@ package org.springframework.integration.xquery.router;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import org.springframework.integration.Message;
+import org.springframework.integration.channel.MessagePublishingErrorHandler;
 import org.springframework.integration.router.AbstractMappingMessageRouter;
+import org.springframework.integration.util.ErrorHandlingTaskExecutor;
 import org.springframework.integration.xquery.XQueryExecutor;
 import org.springframework.util.Assert;
 
@@ -36,6 +39,11 @@ public class XQueryRouter extends AbstractMappingMessageRouter {
 
 	private Class<?> resultType;
 
+	private volatile boolean async;
+
+	//executes the routing with the async executor of the XQuery executor, publishing the errors
+	private volatile Executor asyncExecutor;
+
 	@Override
 	public void onInit() {
 		super.onInit();
@@ -43,6 +51,29 @@ public class XQueryRouter extends AbstractMappingMessageRouter {
 		if(resultType == null) {
 			resultType = String.class;
 		}
+		if(async) {
+			MessagePublishingErrorHandler errorHandler = new MessagePublishingErrorHandler();
+			if(getBeanFactory() != null) {
+				errorHandler.setBeanFactory(getBeanFactory());
+			}
+			asyncExecutor = new ErrorHandlingTaskExecutor(executor.getAsyncExecutor(), errorHandler);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.integration.router.AbstractMessageRouter#handleMessageInternal(org.springframework.integration.Message)
+	 */
+	@Override
+	protected void handleMessageInternal(final Message<?> message) {
+		if(!async) {
+			super.handleMessageInternal(message);
+			return;
+		}
+		asyncExecutor.execute(new Runnable() {
+			public void run() {
+				XQueryRouter.super.handleMessageInternal(message);
+			}
+		});
 	}
 
 	/* (non-Javadoc)
@@ -72,6 +103,18 @@ public class XQueryRouter extends AbstractMappingMessageRouter {
 		this.executor = executor;
 	}
 
+	/**
+	 * Sets whether the XQuery is executed and the message routed asynchronously, with the
+	 * async executor of the {@link XQueryExecutor}, releasing the calling thread, for
+	 * instance the thread of the poller. The exceptions are then sent to the error channel
+	 * of the message, or the default error channel. Defaults to false
+	 *
+	 * @param async
+	 */
+	public void setAsync(boolean async) {
+		this.async = async;
+	}
+
 	/**
 	 * Determines the type of the object that would returned in the {@link List} returned
 	 * from getChannelKeys method. If non specified, {@link String} is assumed.
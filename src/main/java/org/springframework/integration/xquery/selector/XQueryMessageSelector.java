@@ -0,0 +1,49 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery.selector;
+
+import org.springframework.integration.Message;
+import org.springframework.integration.core.MessageSelector;
+import org.springframework.integration.xquery.XQueryExecutor;
+import org.springframework.util.Assert;
+
+/**
+ * The {@link MessageSelector} that accepts the message if the effective boolean value
+ * of the result of the XQuery is true. An empty result is false, a result starting with
+ * a node is true and a single atomic value is tested as the boolean() function of XQuery
+ * would. Only the first item of the result is looked at.
+ *
+ * @author Amol Nayak
+ *
+ */
+public class XQueryMessageSelector implements MessageSelector {
+
+	private final XQueryExecutor executor;
+
+	/**
+	 * The constructor accepting the executor of the XQuery used to test the messages
+	 *
+	 * @param executor
+	 */
+	public XQueryMessageSelector(XQueryExecutor executor) {
+		Assert.notNull(executor,"Provide a non null XQueryExecutor instance");
+		this.executor = executor;
+	}
+
+	public boolean accept(Message<?> message) {
+		return executor.effectiveBooleanValue(message);
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery.splitter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.integration.Message;
+import org.springframework.integration.aggregator.CorrelationStrategy;
+import org.springframework.integration.aggregator.ReleaseStrategy;
+import org.springframework.integration.store.MessageGroup;
+
+/**
+ * The {@link ReleaseStrategy} of the aggregators downstream of a streaming
+ * {@link XQuerySplitter}. The messages sent in the streaming mode have a sequence size of
+ * 0 except the last one, carrying the actual number of messages, the default strategy
+ * looking at the sequence size of the first message of the group never releases it.
+ * <p>
+ * The release strategy only sees the group, it is hence also the {@link CorrelationStrategy}
+ * of the aggregator, correlating the messages by their correlation id as by default and
+ * remembering the sequence size declared for the group. The group is released once it
+ * holds that many messages, without looking at the messages it holds. Configure the same
+ * instance as both strategies of the aggregator. The groups of the messages split
+ * otherwise are released as by default. The size of a group expired before it is
+ * released is held until a group with the same correlation id is released
+ *
+ * @author Amol Nayak
+ *
+ */
+public class StreamingSequenceReleaseStrategy implements ReleaseStrategy, CorrelationStrategy {
+
+	//the sequence sizes declared, by correlation id, until the group is released
+	private final ConcurrentMap<Object, Integer> sequenceSizes = new ConcurrentHashMap<Object, Integer>();
+
+	public Object getCorrelationKey(Message<?> message) {
+		Object correlationId = message.getHeaders().getCorrelationId();
+		Integer sequenceSize = message.getHeaders().getSequenceSize();
+		if(correlationId != null && sequenceSize != null && sequenceSize.intValue() > 0) {
+			sequenceSizes.put(correlationId, sequenceSize);
+		}
+		return correlationId;
+	}
+
+	public boolean canRelease(MessageGroup group) {
+		Integer sequenceSize = sequenceSizes.get(group.getGroupId());
+		if(sequenceSize == null || group.size() < sequenceSize.intValue()) {
+			return false;
+		}
+		sequenceSizes.remove(group.getGroupId());
+		return true;
+	}
+}
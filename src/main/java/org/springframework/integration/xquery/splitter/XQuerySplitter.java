@@ -0,0 +1,225 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery.splitter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.sf.saxon.s9api.XdmNode;
+
+import org.springframework.integration.Message;
+import org.springframework.integration.MessageChannel;
+import org.springframework.integration.MessagingException;
+import org.springframework.integration.splitter.AbstractMessageSplitter;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.integration.support.channel.BeanFactoryChannelResolver;
+import org.springframework.integration.xquery.XQueryExecutor;
+import org.springframework.integration.xquery.XQueryItemMapper;
+import org.springframework.integration.xquery.XQueryResultIterator;
+import org.springframework.util.Assert;
+import org.w3c.dom.Node;
+
+/**
+ * The splitter that executes an XQuery and produces a message for every item, or every
+ * chunk of items, of the result. The items are mapped as the result is iterated. In the
+ * streaming mode, the messages are also sent as the result is iterated instead of being
+ * collected first, keeping the memory used bounded for large results. As the total number
+ * of messages is not known upfront, the sequence size of the messages sent in the streaming
+ * mode is 0, except the last one carrying the actual number of messages. An aggregator
+ * downstream then needs the {@link StreamingSequenceReleaseStrategy}, as both its release
+ * and correlation strategy, to release them.
+ *
+ * @author Amol Nayak
+ *
+ */
+@SuppressWarnings("rawtypes")
+public class XQuerySplitter extends AbstractMessageSplitter {
+
+	private volatile XQueryExecutor executor;
+
+	private volatile Class<?> resultType;
+
+	private volatile XQueryItemMapper itemMapper;
+
+	private volatile int chunkSize = 1;
+
+	private volatile boolean streaming;
+
+	//the ones in the super class are not accessible
+	private volatile boolean applySequence = true;
+
+	private volatile MessageChannel outputChannel;
+
+	@Override
+	protected void onInit() {
+		super.onInit();
+		Assert.notNull(executor,"No XQueryExecutor instance provided");
+		if(itemMapper == null && resultType == null) {
+			resultType = String.class;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	protected Object splitMessage(Message<?> message) {
+		XQueryResultIterator<?> iterator;
+		if(resultType != null) {
+			iterator = executor.iterate(message, resultType);
+		}
+		else {
+			iterator = executor.iterate(message, itemMapper);
+		}
+		if(iterator == null) {
+			return null;
+		}
+		try {
+			if(streaming) {
+				sendParts(message, iterator);
+				//all sent already, nothing left for the super class to send
+				return Collections.emptyList();
+			}
+			List<Object> parts = new ArrayList<Object>();
+			while(iterator.hasNext()) {
+				parts.add(nextPart(iterator));
+			}
+			return parts;
+		} finally {
+			iterator.close();
+		}
+	}
+
+	/**
+	 * Sends every part as it is read, the next item is looked up before sending a part for
+	 * the last one to carry the sequence size. The items mapped to null are skipped by the
+	 * iterator, as they are by the result mappers
+	 */
+	private void sendParts(Message<?> message, XQueryResultIterator<?> iterator) {
+		MessageChannel channel = getOutputChannel(message);
+		int sequenceNumber = 0;
+		boolean hasNext = iterator.hasNext();
+		while(hasNext) {
+			Object part = nextPart(iterator);
+			hasNext = iterator.hasNext();
+			MessageBuilder<?> builder = MessageBuilder.withPayload(part).copyHeaders(message.getHeaders());
+			if(applySequence) {
+				sequenceNumber++;
+				builder.pushSequenceDetails(message.getHeaders().getId(), sequenceNumber, hasNext ? 0 : sequenceNumber);
+			}
+			getMessagingTemplate().send(channel, builder.build());
+		}
+	}
+
+	private Object nextPart(XQueryResultIterator<?> iterator) {
+		if(chunkSize == 1) {
+			return iterator.next();
+		}
+		List<Object> chunk = new ArrayList<Object>(chunkSize);
+		while(chunk.size() < chunkSize && iterator.hasNext()) {
+			chunk.add(iterator.next());
+		}
+		return chunk;
+	}
+
+	private MessageChannel getOutputChannel(Message<?> message) {
+		if(outputChannel != null) {
+			return outputChannel;
+		}
+		Object replyChannel = message.getHeaders().getReplyChannel();
+		if(replyChannel instanceof MessageChannel) {
+			return (MessageChannel)replyChannel;
+		}
+		else if(replyChannel instanceof String && getBeanFactory() != null) {
+			return new BeanFactoryChannelResolver(getBeanFactory()).resolveChannelName((String)replyChannel);
+		}
+		throw new MessagingException(message, "No output-channel or replyChannel header available to send the split messages");
+	}
+
+	@Override
+	public void setOutputChannel(MessageChannel outputChannel) {
+		super.setOutputChannel(outputChannel);
+		this.outputChannel = outputChannel;
+	}
+
+	@Override
+	public void setApplySequence(boolean applySequence) {
+		super.setApplySequence(applySequence);
+		this.applySequence = applySequence;
+	}
+
+	/**
+	 * Sets the XQuery executor instance to be used by the {@link XQuerySplitter}
+	 * @param executor
+	 */
+	public void setExecutor(XQueryExecutor executor) {
+		Assert.notNull(executor,"Provide a non null XQueryExecutor instance");
+		this.executor = executor;
+	}
+
+	/**
+	 * Sets the type every item of the result is mapped to, if none specified and if a
+	 * {@link XQueryItemMapper} instance is not provided, String is assumed by default.
+	 * The permitted value of the class is one of String.class, Boolean.class, Number.class
+	 * Node.class or XdmNode.class. The {@link XdmNode}s are passed to the downstream XQuery
+	 * endpoints as they are, without being serialized or parsed again. For any other type
+	 * of class provide an instance of {@link XQueryItemMapper}
+	 *
+	 * @param resultType
+	 */
+	public void setResultType(Class<?> resultType) {
+		Assert.notNull(resultType,"Provide a non null value for the result type");
+		Assert.isTrue(itemMapper == null,"Only one of the item mapper of the resultType can be set");
+		Assert.isTrue(String.class == resultType || Boolean.class == resultType
+						|| Number.class == resultType || Node.class == resultType
+						|| XdmNode.class == resultType,
+					"Valid values for the result type class is String, Boolean, Number, Node or XdmNode, " +
+					"for any other type, provide a custom implementation of XQueryItemMapper");
+		this.resultType = resultType;
+	}
+
+	/**
+	 * Sets the mapper used to map every item of the result to the payload of a message
+	 * @param itemMapper
+	 */
+	public void setItemMapper(XQueryItemMapper itemMapper) {
+		Assert.notNull(itemMapper,"Provide a non null value for the item mapper");
+		Assert.isTrue(resultType == null,"Only one of the item mapper of the resultType can be set");
+		this.itemMapper = itemMapper;
+	}
+
+	/**
+	 * Sets the number of items sent together as a {@link List} in one message, by default
+	 * every item is sent in a message of its own
+	 *
+	 * @param chunkSize
+	 */
+	public void setChunkSize(int chunkSize) {
+		Assert.isTrue(chunkSize > 0, "The chunk size should be a positive number");
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * If true, the messages are sent as the result is iterated rather than once all the
+	 * items are mapped. The sequence size of the messages is then 0, except the last one
+	 * carrying the number of messages, see {@link StreamingSequenceReleaseStrategy}.
+	 * Defaults to false
+	 *
+	 * @param streaming
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery.transformer;
+
+import java.util.concurrent.Executor;
+
+import org.springframework.integration.Message;
+import org.springframework.integration.MessageChannel;
+import org.springframework.integration.channel.MessagePublishingErrorHandler;
+import org.springframework.integration.core.MessageProducer;
+import org.springframework.integration.handler.AbstractMessageHandler;
+import org.springframework.integration.transformer.MessageTransformingHandler;
+import org.springframework.integration.util.ErrorHandlingTaskExecutor;
+import org.springframework.util.Assert;
+
+/**
+ * The handler transforming the messages with an {@link XQueryTransformer} asynchronously,
+ * with the async executor of its {@link org.springframework.integration.xquery.XQueryExecutor},
+ * releasing the calling thread, for instance the thread of the poller. The transformed
+ * messages are sent to the output channel by the thread of the executor, the exceptions
+ * are sent to the error channel of the message, or the default error channel
+ *
+ * @author Amol Nayak
+ *
+ */
+public class XQueryAsyncTransformingHandler extends AbstractMessageHandler implements MessageProducer {
+
+	private final XQueryTransformer transformer;
+
+	private final MessageTransformingHandler handler;
+
+	private volatile Executor asyncExecutor;
+
+	public XQueryAsyncTransformingHandler(XQueryTransformer transformer) {
+		Assert.notNull(transformer, "Provide a non null XQueryTransformer instance");
+		this.transformer = transformer;
+		this.handler = new MessageTransformingHandler(transformer);
+	}
+
+	@Override
+	protected void onInit() throws Exception {
+		MessagePublishingErrorHandler errorHandler = new MessagePublishingErrorHandler();
+		if(getBeanFactory() != null) {
+			handler.setBeanFactory(getBeanFactory());
+			errorHandler.setBeanFactory(getBeanFactory());
+		}
+		handler.afterPropertiesSet();
+		asyncExecutor = new ErrorHandlingTaskExecutor(transformer.getExecutor().getAsyncExecutor(), errorHandler);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.integration.handler.AbstractMessageHandler#handleMessageInternal(org.springframework.integration.Message)
+	 */
+	@Override
+	protected void handleMessageInternal(final Message<?> message) {
+		asyncExecutor.execute(new Runnable() {
+			public void run() {
+				handler.handleMessage(message);
+			}
+		});
+	}
+
+	@Override
+	public String getComponentType() {
+		return "transformer";
+	}
+
+	/**
+	 * Sets the channel the transformed messages are sent to
+	 *
+	 * @param outputChannel
+	 */
+	public void setOutputChannel(MessageChannel outputChannel) {
+		handler.setOutputChannel(outputChannel);
+	}
+
+	/**
+	 * Sets the timeout of sending the transformed messages
+	 *
+	 * @param sendTimeout
+	 */
+	public void setSendTimeout(long sendTimeout) {
+		handler.setSendTimeout(sendTimeout);
+	}
+}
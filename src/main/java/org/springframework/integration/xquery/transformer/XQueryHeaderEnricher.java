@@ -0,0 +1,159 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery.transformer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.integration.Message;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.integration.transformer.AbstractTransformer;
+import org.springframework.integration.xml.XmlPayloadConverter;
+import org.springframework.integration.xquery.XQueryExecutor;
+import org.springframework.integration.xquery.XQueryParallelExecutor;
+import org.springframework.integration.xquery.XQueryParallelExecutor.XQueryExecutorCallback;
+import org.springframework.util.Assert;
+
+/**
+ * The transformer adding the results of a number of XQueries to the headers of the
+ * message. The payload is parsed once and every XQuery is executed against the same
+ * document by an {@link XQueryParallelExecutor}, one after the other, or in parallel
+ * if an {@link Executor} is provided
+ *
+ * @author Amol Nayak
+ *
+ */
+public class XQueryHeaderEnricher extends AbstractTransformer implements DisposableBean {
+
+	private volatile Map<String, XQueryHeaderValue> headers;
+
+	private volatile boolean defaultOverwrite;
+
+	private volatile XmlPayloadConverter converter;
+
+	private volatile Executor taskExecutor;
+
+	private volatile List<XQueryHeaderValue> headerValues;
+
+	//parses the payload once and executes the XQueries of the headers
+	private volatile XQueryParallelExecutor parallelExecutor;
+
+	private final XQueryExecutorCallback<Object> headerValueCallback = new XQueryExecutorCallback<Object>() {
+		public Object doWithExecutor(int index, XQueryExecutor executor, Message<?> message, Object document) {
+			return headerValues.get(index).getValue(message, document);
+		}
+	};
+
+	@Override
+	public void onInit() {
+		Assert.notEmpty(headers, "At least one header should be provided");
+		headerValues = new ArrayList<XQueryHeaderValue>(headers.values());
+		List<XQueryExecutor> executors = new ArrayList<XQueryExecutor>(headerValues.size());
+		for(XQueryHeaderValue header:headerValues) {
+			executors.add(header.getExecutor());
+		}
+		parallelExecutor = new XQueryParallelExecutor();
+		parallelExecutor.setExecutors(executors);
+		if(taskExecutor != null) {
+			parallelExecutor.setTaskExecutor(taskExecutor);
+		}
+		if(converter != null) {
+			parallelExecutor.setConverter(converter);
+		}
+		parallelExecutor.afterPropertiesSet();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.integration.transformer.AbstractTransformer#doTransform(org.springframework.integration.Message)
+	 */
+	@Override
+	protected Object doTransform(Message<?> message) throws Exception {
+		List<Object> values = parallelExecutor.execute(message, headerValueCallback);
+		MessageBuilder<?> builder = MessageBuilder.fromMessage(message);
+		int i = 0;
+		for(Map.Entry<String, XQueryHeaderValue> header:headers.entrySet()) {
+			Object value = values.get(i++);
+			if(value == null) {
+				continue;
+			}
+			Boolean overwrite = header.getValue().getOverwrite();
+			if(overwrite != null ? overwrite.booleanValue() : defaultOverwrite) {
+				builder.setHeader(header.getKey(), value);
+			}
+			else {
+				builder.setHeaderIfAbsent(header.getKey(), value);
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Releases the resources held by the executor parsing the payload, the executors of
+	 * the headers are destroyed on their own
+	 */
+	public void destroy() {
+		if(parallelExecutor != null) {
+			parallelExecutor.destroy();
+		}
+	}
+
+	/**
+	 * Sets the values of the headers by their names
+	 *
+	 * @param headers
+	 */
+	public void setHeaders(Map<String, XQueryHeaderValue> headers) {
+		Assert.notEmpty(headers, "Provide a non empty map of the headers");
+		this.headers = new LinkedHashMap<String, XQueryHeaderValue>(headers);
+	}
+
+	/**
+	 * Sets whether the headers replace the ones already present in the message, unless
+	 * set for a header. Defaults to false
+	 *
+	 * @param defaultOverwrite
+	 */
+	public void setDefaultOverwrite(boolean defaultOverwrite) {
+		this.defaultOverwrite = defaultOverwrite;
+	}
+
+	/**
+	 * Sets the converter used to convert the payload once for all the XQueries, the
+	 * converters of the executors of the headers are not used
+	 *
+	 * @param converter
+	 */
+	public void setConverter(XmlPayloadConverter converter) {
+		Assert.notNull(converter, "Provide a non null converter");
+		this.converter = converter;
+	}
+
+	/**
+	 * Sets the {@link Executor} executing the XQueries of the headers in parallel, the
+	 * calling thread executes one of them and waits for the others. By default all the
+	 * XQueries are executed by the calling thread
+	 *
+	 * @param taskExecutor
+	 */
+	public void setTaskExecutor(Executor taskExecutor) {
+		Assert.notNull(taskExecutor, "Provide a non null task executor");
+		this.taskExecutor = taskExecutor;
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery.transformer;
+
+import java.util.List;
+
+import net.sf.saxon.s9api.XdmNode;
+
+import org.springframework.integration.Message;
+import org.springframework.integration.xquery.XQueryExecutor;
+import org.springframework.integration.xquery.XQueryResultMapper;
+import org.springframework.util.Assert;
+import org.w3c.dom.Node;
+
+/**
+ * The value of a header added by the {@link XQueryHeaderEnricher}, the result of the
+ * XQuery executed by the given {@link XQueryExecutor}. An empty result adds no header,
+ * a single item is the value of the header and the list of items is the value otherwise
+ *
+ * @author Amol Nayak
+ *
+ */
+@SuppressWarnings("rawtypes")
+public class XQueryHeaderValue {
+
+	private final XQueryExecutor executor;
+
+	private volatile Class<?> resultType = String.class;
+
+	private volatile XQueryResultMapper resultMapper;
+
+	private volatile Boolean overwrite;
+
+	/**
+	 * @param executor the executor of the XQuery computing the value of the header
+	 */
+	public XQueryHeaderValue(XQueryExecutor executor) {
+		Assert.notNull(executor, "Provide a non null XQueryExecutor instance");
+		this.executor = executor;
+	}
+
+	/**
+	 * Executes the XQuery against the given message
+	 *
+	 * @param message
+	 * @return the value of the header, null if the result is empty
+	 */
+	public Object getValue(Message<?> message) {
+		return getValue(message, null);
+	}
+
+	/**
+	 * Executes the XQuery against the given document in place of the payload of the message,
+	 * see {@link XQueryExecutor#execute(Message, Object, Class)}
+	 *
+	 * @param message
+	 * @param document the parsed payload, the payload is used as is if null
+	 * @return the value of the header, null if the result is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public Object getValue(Message<?> message, Object document) {
+		List<Object> result;
+		if(resultMapper != null) {
+			result = executor.execute(message, document, resultMapper);
+		}
+		else {
+			result = (List<Object>)executor.execute(message, document, resultType);
+		}
+		if(result == null || result.isEmpty()) {
+			return null;
+		}
+		return result.size() == 1 ? result.get(0) : result;
+	}
+
+	/**
+	 * The executor of the XQuery computing the value of the header
+	 *
+	 * @return
+	 */
+	public XQueryExecutor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Sets the type of the value, one of String.class, Boolean.class, Number.class,
+	 * Node.class or XdmNode.class. Defaults to String. For any other type provide an
+	 * instance of {@link XQueryResultMapper}
+	 *
+	 * @param resultType
+	 */
+	public void setResultType(Class<?> resultType) {
+		Assert.notNull(resultType, "Provide a non null value for the result type");
+		Assert.isTrue(String.class == resultType || Boolean.class == resultType
+						|| Number.class == resultType || Node.class == resultType
+						|| XdmNode.class == resultType,
+					"Valid values for the result type class is String, Boolean, Number, Node or XdmNode, " +
+					"for any other type, provide a custom implementation of XQueryResultMapper");
+		this.resultType = resultType;
+	}
+
+	/**
+	 * Sets the mapper of the result of the XQuery, used instead of the result type
+	 *
+	 * @param resultMapper
+	 */
+	public void setResultMapper(XQueryResultMapper resultMapper) {
+		Assert.notNull(resultMapper, "Provide a non null value for the result mapper");
+		this.resultMapper = resultMapper;
+	}
+
+	/**
+	 * Whether the header replaces the one already present in the message, if not set the
+	 * default of the {@link XQueryHeaderEnricher} applies
+	 *
+	 * @return
+	 */
+	public Boolean getOverwrite() {
+		return overwrite;
+	}
+
+	/**
+	 * Sets whether the header replaces the one already present in the message
+	 *
+	 * @param overwrite
+	 */
+	public void setOverwrite(Boolean overwrite) {
+		this.overwrite = overwrite;
+	}
+}
@@ -17,6 +17,8 @@ package org.springframework.integration.xquery.transformer;
 
 import java.util.List;
 
+import net.sf.saxon.s9api.XdmNode;
+
 import org.springframework.integration.Message;
 import org.springframework.integration.transformer.AbstractTransformer;
 import org.springframework.integration.xquery.XQueryExecutor;
@@ -72,6 +74,14 @@ public class XQueryTransformer extends AbstractTransformer {
 		return transformed;
 	}
 
+	/**
+	 * The XQuery executor instance used by the {@link XQueryTransformer}
+	 * @return
+	 */
+	XQueryExecutor getExecutor() {
+		return executor;
+	}
+
 	/**
 	 * Sets the XQuery executor instance to be used by the {@link XQueryTransformer}
 	 * @param executor
@@ -85,7 +95,9 @@ public class XQueryTransformer extends AbstractTransformer {
 	 * Sets the Type of the result, if none specified and if a {@link XQueryResultMapper} instance is
 	 * not provided, String is assumed by default.
 	 * The permitted value of the class is one of the
-	 * String.class, Boolean.class, Number.class or Node.class. For any other type of class
+	 * String.class, Boolean.class, Number.class, Node.class or XdmNode.class. The {@link XdmNode}s
+	 * are passed to the downstream XQuery endpoints as they are, without being serialized or
+	 * parsed again. For any other type of class
 	 * Provide an instance of {@link XQueryResultMapper}
 	 *
 	 * @param resultType
@@ -94,8 +106,9 @@ public class XQueryTransformer extends AbstractTransformer {
 		Assert.notNull(resultType,"Provide a non null value for the result type");
 		Assert.isTrue(resultMapper == null,"Only one of the result mapper of the resultType can be set");
 		Assert.isTrue(String.class == resultType || Boolean.class == resultType
-						|| Number.class == resultType || Node.class == resultType,
-					"Valid values for the result type class is String, Boolean, Number or Node, " +
+						|| Number.class == resultType || Node.class == resultType
+						|| XdmNode.class == resultType,
+					"Valid values for the result type class is String, Boolean, Number, Node or XdmNode, " +
 					"for any other type, provide a custom implementation of XQueryResultMapper");
 		this.resultType = resultType;
 	}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery;
+
+import javax.xml.xquery.XQConnection;
+
+import net.sf.saxon.xqj.SaxonXQDataSource;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.integration.MessagingException;
+
+/**
+ * The test class for {@link XQConnectionPool}
+ *
+ * @author Amol Nayak
+ *
+ */
+public class XQConnectionPoolTests {
+
+	@Test
+	public void reuseAndMaxIdle() throws Exception {
+		XQConnectionPool pool = new XQConnectionPool(new SaxonXQDataSource());
+		pool.setMaxSize(3);
+		pool.setMinIdle(1);
+		pool.setMaxIdle(1);
+		pool.start();
+		Assert.assertEquals(1, pool.getIdleCount());
+		XQConnection first = pool.getConnection();
+		XQConnection second = pool.getConnection();
+		Assert.assertNotSame(first, second);
+		Assert.assertEquals(2, pool.getActiveCount());
+		pool.release(first);
+		pool.release(second);
+		//only one is retained
+		Assert.assertEquals(1, pool.getIdleCount());
+		Assert.assertTrue(second.isClosed());
+		Assert.assertSame(first, pool.getConnection());
+		Assert.assertEquals(2, pool.getCreatedCount());
+		Assert.assertEquals(3, pool.getBorrowedCount());
+		pool.close();
+	}
+
+	@Test
+	public void maxWait() throws Exception {
+		XQConnectionPool pool = new XQConnectionPool(new SaxonXQDataSource());
+		pool.setMaxSize(1);
+		pool.setMaxWait(10);
+		XQConnection connection = pool.getConnection();
+		try {
+			pool.getConnection();
+			Assert.fail("Expected the wait for the connection to time out");
+		} catch (MessagingException e) {
+			Assert.assertEquals(1, pool.getWaitCount());
+		}
+		pool.release(connection);
+		Assert.assertSame(connection, pool.getConnection());
+		pool.close();
+	}
+
+	@Test
+	public void validation() throws Exception {
+		XQConnectionPool pool = new XQConnectionPool(new SaxonXQDataSource());
+		pool.setValidationQuery("1");
+		XQConnection connection = pool.getConnection();
+		pool.release(connection);
+		//validates fine
+		Assert.assertSame(connection, pool.getConnection());
+		pool.release(connection);
+		pool.setValidationQuery("this is not an xquery");
+		XQConnection another = pool.getConnection();
+		Assert.assertNotSame(connection, another);
+		Assert.assertTrue(connection.isClosed());
+		Assert.assertEquals(1, pool.getValidationFailureCount());
+		pool.release(another);
+		pool.close();
+	}
+
+	@Test
+	public void idleTrimming() throws Exception {
+		XQConnectionPool pool = new XQConnectionPool(new SaxonXQDataSource());
+		pool.setMinIdle(1);
+		pool.setIdleTimeout(50);
+		pool.start();
+		XQConnection first = pool.getConnection();
+		XQConnection second = pool.getConnection();
+		pool.release(first);
+		pool.release(second);
+		Assert.assertEquals(2, pool.getIdleCount());
+		long timeout = System.currentTimeMillis() + 5000;
+		while(pool.getIdleCount() > 1 && System.currentTimeMillis() < timeout) {
+			Thread.sleep(20);
+		}
+		//the minimum idle connection is retained
+		Assert.assertEquals(1, pool.getIdleCount());
+		Assert.assertEquals(1, pool.getDestroyedCount());
+		pool.close();
+	}
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Collections;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.sax.SAXSource;
+
+import net.sf.saxon.xqj.SaxonXQDataSource;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.integration.Message;
+import org.springframework.integration.support.MessageBuilder;
+import org.xml.sax.InputSource;
+
+/**
+ * The test class for {@link XQueryDocumentCache}
+ *
+ * @author Amol Nayak
+ *
+ */
+public class XQueryDocumentCacheTests {
+
+	@Test
+	public void identityAndOwner() {
+		XQueryDocumentCache cache = new XQueryDocumentCache();
+		String payload = "<a/>";
+		Object owner = new Object();
+		cache.put(payload, owner, "document", 4);
+		Assert.assertEquals("document", cache.get(payload, owner));
+		//equal but not the same payload
+		Assert.assertNull(cache.get(new String(payload), owner));
+		Assert.assertNull(cache.get(payload, new Object()));
+		Assert.assertEquals(1, cache.getHitCount());
+		Assert.assertEquals(2, cache.getMissCount());
+		cache.remove(owner);
+		Assert.assertEquals(0, cache.getSize());
+		Assert.assertEquals(0, cache.getWeight());
+	}
+
+	@Test
+	public void removeParsedBy() {
+		XQueryDocumentCache cache = new XQueryDocumentCache();
+		Object owner = new Object(), parser = new Object();
+		String first = "first", second = "second";
+		cache.put(first, owner, "1", 5, parser);
+		cache.put(second, owner, "2", 6, new Object());
+		cache.removeParsedBy(parser);
+		Assert.assertNull(cache.get(first, owner));
+		Assert.assertEquals("2", cache.get(second, owner));
+		Assert.assertEquals(6, cache.getWeight());
+	}
+
+	@Test
+	public void evictLeastRecentlyUsed() {
+		XQueryDocumentCache cache = new XQueryDocumentCache();
+		cache.setMaxSize(2);
+		cache.setMaxWeight(10);
+		Object owner = new Object();
+		String first = "first", second = "second", third = "third";
+		cache.put(first, owner, "1", 4);
+		cache.put(second, owner, "2", 4);
+		//the first one is now the most recently used
+		Assert.assertNotNull(cache.get(first, owner));
+		cache.put(third, owner, "3", 1);
+		Assert.assertNull(cache.get(second, owner));
+		Assert.assertEquals(1, cache.getEvictionCount());
+		Assert.assertEquals(5, cache.getWeight());
+		//beyond the maximum weight, the first one is evicted
+		cache.put(second, owner, "2", 6);
+		Assert.assertNull(cache.get(first, owner));
+		Assert.assertEquals(2, cache.getEvictionCount());
+		Assert.assertEquals(7, cache.getWeight());
+		//heavier than the maximum weight, not cached
+		cache.put(first, owner, "1", 11);
+		Assert.assertEquals(2, cache.getSize());
+		cache.clear();
+		Assert.assertEquals(0, cache.getSize());
+		Assert.assertEquals(0, cache.getWeight());
+	}
+
+	/**
+	 * The payload is parsed once for the executors sharing the cache and the data source
+	 */
+	@Test
+	public void sharedByExecutors() {
+		XQueryDocumentCache cache = new XQueryDocumentCache();
+		SaxonXQDataSource dataSource = new SaxonXQDataSource();
+		XQueryExecutor nameExecutor = new XQueryExecutor();
+		nameExecutor.setXQuery("string(/person/name)");
+		nameExecutor.setXQDataSource(dataSource);
+		nameExecutor.setDocumentCache(cache);
+		nameExecutor.afterPropertiesSet();
+		XQueryExecutor activeExecutor = new XQueryExecutor();
+		activeExecutor.setXQuery("/person/@active = 'true'");
+		activeExecutor.setXQDataSource(dataSource);
+		activeExecutor.setDocumentCache(cache);
+		activeExecutor.afterPropertiesSet();
+
+		Message<String> message = MessageBuilder.withPayload("<person active=\"true\"><name>Mike</name></person>").build();
+		Assert.assertEquals(Collections.singletonList("Mike"), nameExecutor.executeForString(message));
+		Assert.assertTrue(activeExecutor.effectiveBooleanValue(message));
+		Assert.assertEquals(1, cache.getMissCount());
+		Assert.assertEquals(1, cache.getHitCount());
+		Assert.assertEquals(message.getPayload().length(), cache.getWeight());
+
+		//the documents may not be used once the engine parsing them is closed
+		nameExecutor.destroy();
+		Assert.assertEquals(0, cache.getSize());
+		Assert.assertTrue(activeExecutor.effectiveBooleanValue(message));
+		Assert.assertEquals(2, cache.getMissCount());
+		activeExecutor.destroy();
+	}
+
+	/**
+	 * The executors with the default XQJ engine share the documents too
+	 */
+	@Test
+	public void sharedByDefaultExecutors() {
+		XQueryDocumentCache cache = new XQueryDocumentCache();
+		XQueryExecutor nameExecutor = new XQueryExecutor();
+		nameExecutor.setXQuery("string(/person/name)");
+		nameExecutor.setDocumentCache(cache);
+		nameExecutor.afterPropertiesSet();
+		XQueryExecutor activeExecutor = new XQueryExecutor();
+		activeExecutor.setXQuery("/person/@active = 'true'");
+		activeExecutor.setDocumentCache(cache);
+		activeExecutor.afterPropertiesSet();
+
+		Message<String> message = MessageBuilder.withPayload("<person active=\"true\"><name>Mike</name></person>").build();
+		Assert.assertEquals(Collections.singletonList("Mike"), nameExecutor.executeForString(message));
+		Assert.assertTrue(activeExecutor.effectiveBooleanValue(message));
+		Assert.assertEquals(1, cache.getMissCount());
+		Assert.assertEquals(1, cache.getHitCount());
+
+		//the executors share the data source, only the documents of the one destroyed are removed
+		activeExecutor.destroy();
+		Assert.assertEquals(1, cache.getSize());
+		Assert.assertEquals(Collections.singletonList("Mike"), nameExecutor.executeForString(message));
+		Assert.assertEquals(2, cache.getHitCount());
+		nameExecutor.destroy();
+		Assert.assertEquals(0, cache.getSize());
+	}
+
+	/**
+	 * The streamed payloads are weighed by the size read, the sources with no stream are not cached
+	 */
+	@Test
+	public void streamedPayloads() throws Exception {
+		XQueryDocumentCache cache = new XQueryDocumentCache();
+		XQueryExecutor nameExecutor = new XQueryExecutor();
+		nameExecutor.setXQuery("string(/person/name)");
+		nameExecutor.setDocumentCache(cache);
+		nameExecutor.afterPropertiesSet();
+		XQueryExecutor activeExecutor = new XQueryExecutor();
+		activeExecutor.setXQuery("/person/@active = 'true'");
+		activeExecutor.setDocumentCache(cache);
+		activeExecutor.afterPropertiesSet();
+
+		String xml = "<person active=\"true\"><name>Mike</name></person>";
+		byte[] bytes = xml.getBytes("UTF-8");
+		Message<InputStream> streamMessage = MessageBuilder.withPayload((InputStream)new ByteArrayInputStream(bytes)).build();
+		Assert.assertEquals(Collections.singletonList("Mike"), nameExecutor.executeForString(streamMessage));
+		//the stream is consumed, the document is read from the cache
+		Assert.assertTrue(activeExecutor.effectiveBooleanValue(streamMessage));
+		Assert.assertEquals(bytes.length, cache.getWeight());
+
+		Message<Reader> readerMessage = MessageBuilder.withPayload((Reader)new StringReader(xml)).build();
+		Assert.assertEquals(Collections.singletonList("Mike"), nameExecutor.executeForString(readerMessage));
+		Assert.assertTrue(activeExecutor.effectiveBooleanValue(readerMessage));
+		Assert.assertEquals(bytes.length + xml.length(), cache.getWeight());
+		Assert.assertEquals(2, cache.getHitCount());
+
+		//not cached beyond the maximum weight
+		cache.clear();
+		cache.setMaxWeight(bytes.length - 1);
+		Message<InputStream> heavyMessage = MessageBuilder.withPayload((InputStream)new ByteArrayInputStream(bytes)).build();
+		Assert.assertEquals(Collections.singletonList("Mike"), nameExecutor.executeForString(heavyMessage));
+		Assert.assertEquals(0, cache.getSize());
+
+		Source source = new SAXSource(new InputSource(new StringReader(xml)));
+		Message<Source> sourceMessage = MessageBuilder.withPayload(source).build();
+		Assert.assertEquals(Collections.singletonList("Mike"), nameExecutor.executeForString(sourceMessage));
+		Assert.assertEquals(0, cache.getSize());
+		nameExecutor.destroy();
+		activeExecutor.destroy();
+	}
+}
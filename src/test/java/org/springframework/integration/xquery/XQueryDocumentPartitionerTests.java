@@ -0,0 +1,76 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.integration.xquery.XQueryDocumentPartitioner.PartitionHandler;
+
+/**
+ * The test class for {@link XQueryDocumentPartitioner}
+ *
+ * @author Amol Nayak
+ *
+ */
+public class XQueryDocumentPartitionerTests {
+
+	@Test
+	public void partitionRecords() {
+		List<String> partitions = partition("record", 2,
+				"<?xml version=\"1.0\"?><feed date=\"today\"><header/><record>1</record><record>2</record>"
+				+ "<record>3</record></feed>");
+		Assert.assertEquals(Arrays.asList(
+				"<feed date=\"today\"><header></header><record>1</record><record>2</record></feed>",
+				"<feed date=\"today\"><record>3</record></feed>"), partitions);
+	}
+
+	@Test
+	public void partitionNamespacedRecords() {
+		String feed = "<f:feed xmlns:f=\"urn:feed\"><f:record>1</f:record><record>2</record><f:record>3</f:record></f:feed>";
+		Assert.assertEquals(Arrays.asList(
+				"<f:feed xmlns:f=\"urn:feed\"><f:record>1</f:record><record>2</record><f:record>3</f:record></f:feed>"),
+				partition("{urn:feed}record", 2, feed));
+		Assert.assertEquals(Arrays.asList(
+				"<f:feed xmlns:f=\"urn:feed\"><f:record>1</f:record><record>2</record></f:feed>",
+				"<f:feed xmlns:f=\"urn:feed\"><f:record>3</f:record></f:feed>"),
+				partition("record", 2, feed));
+	}
+
+	@Test
+	public void withoutRecords() {
+		Assert.assertEquals(Arrays.asList("<feed></feed>"), partition("record", 2, "<feed/>"));
+		Assert.assertEquals(Arrays.asList("<feed><record>1</record></feed>"),
+				partition("record", 1, "<feed><record>1</record></feed>"));
+	}
+
+	private List<String> partition(String recordElement, int partitionSize, String document) {
+		final List<String> partitions = new ArrayList<String>();
+		new XQueryDocumentPartitioner(recordElement, partitionSize).partition(
+				new StreamSource(new StringReader(document)), new PartitionHandler() {
+					public void handlePartition(String partition) {
+						partitions.add(partition);
+					}
+				});
+		return partitions;
+	}
+}
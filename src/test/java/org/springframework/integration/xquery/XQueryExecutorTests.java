@@ -16,15 +16,38 @@
 package org.springframework.integration.xquery;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.stream.StreamSource;
 import javax.xml.xquery.XQDataSource;
 import javax.xml.xquery.XQResultSequence;
 
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmValue;
+import net.sf.saxon.xqj.SaxonXQDataSource;
+
 import org.junit.Assert;
 import org.junit.Test;
 import org.springframework.core.io.ClassPathResource;
@@ -33,10 +56,13 @@ import org.springframework.integration.Message;
 import org.springframework.integration.MessagingException;
 import org.springframework.integration.support.MessageBuilder;
 import org.springframework.integration.test.util.TestUtils;
+import org.springframework.integration.xml.DefaultXmlPayloadConverter;
 import org.springframework.integration.xquery.XQueryExecutor.BooleanResultMapper;
 import org.springframework.integration.xquery.XQueryExecutor.NodeResultMapper;
 import org.springframework.integration.xquery.XQueryExecutor.NumberResultMapper;
 import org.springframework.integration.xquery.XQueryExecutor.StringResultMapper;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
 import org.w3c.dom.Node;
 
 /**
@@ -636,6 +662,1072 @@ public class XQueryExecutorTests {
 
 
 
+	/**
+	 * Executes the XQuery multiple times with pooled expressions, the XQuery should be
+	 * prepared only once
+	 */
+	@Test
+	public void withPooledExpressions() {
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery("//person/name/text()");
+		executor.setExpressionPoolMode(XQPreparedExpressionPool.Mode.POOLED);
+		executor.setExpressionPoolSize(2);
+		executor.afterPropertiesSet();
+		for(int i = 0;i < 5;i++) {
+			List<String> names = executor.executeForString(MessageBuilder.withPayload(xmlString).build());
+			Assert.assertEquals(1, names.size());
+			Assert.assertTrue(names.contains("Mike"));
+		}
+		XQPreparedExpressionPool pool =
+			TestUtils.getPropertyValue(executor, "engine.expressionPool", XQPreparedExpressionPool.class);
+		Assert.assertEquals(1, pool.getPreparedCount());
+		executor.destroy();
+	}
+
+	/**
+	 * With the default sizes, the expression pool is larger than the connection pool, the
+	 * threads beyond the connections wait for the pooled expressions rather than for a
+	 * connection held by one of them
+	 */
+	@Test
+	public void withPooledExpressionsAndConnectionPool() throws Exception {
+		final XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery("//person/name/text()");
+		executor.setExpressionPoolMode(XQPreparedExpressionPool.Mode.POOLED);
+		XQConnectionPool connectionPool = new XQConnectionPool();
+		executor.setConnectionPool(connectionPool);
+		executor.afterPropertiesSet();
+		int threads = XQPreparedExpressionPool.DEFAULT_POOL_SIZE + 6;
+		ExecutorService taskExecutor = Executors.newFixedThreadPool(threads);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+		for(int i = 0;i < threads * 5;i++) {
+			results.add(taskExecutor.submit(new Callable<List<String>>() {
+				public List<String> call() throws Exception {
+					start.await();
+					return executor.executeForString(MessageBuilder.withPayload(xmlString).build());
+				}
+			}));
+		}
+		start.countDown();
+		for(Future<List<String>> result:results) {
+			Assert.assertEquals(Collections.singletonList("Mike"), result.get(30, TimeUnit.SECONDS));
+		}
+		taskExecutor.shutdown();
+		XQPreparedExpressionPool pool =
+			TestUtils.getPropertyValue(executor, "engine.expressionPool", XQPreparedExpressionPool.class);
+		Assert.assertTrue(pool.getPreparedCount() <= XQConnectionPool.DEFAULT_MAX_SIZE);
+		//every pooled expression holds its connection
+		Assert.assertEquals(pool.getPreparedCount(), connectionPool.getActiveCount());
+		executor.destroy();
+	}
+
+	/**
+	 * Executes the XQuery with parameters multiple times with thread confined expressions,
+	 * the parameters should be bound afresh for every execution
+	 */
+	@Test
+	public void withThreadConfinedExpressions() {
+		File file = new File("./src/test/resources/org/springframework/integration/xquery/SubjectMapping.xml");
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery(EXT_VARIABLE_XQUERY);
+		executor.setExpressionPoolMode(XQPreparedExpressionPool.Mode.THREAD_CONFINED);
+		executor.addXQueryParameter(new XQueryParameter("name", "headers['studentName']"));
+		executor.addXQueryParameter(new XQueryParameter("class", Integer.valueOf(1)));
+		executor.afterPropertiesSet();
+		List<String> subjects = executor.executeForString(MessageBuilder.withPayload(file)
+											.setHeader("studentName", "Jughead").build());
+		Assert.assertEquals(2, subjects.size());
+		subjects = executor.executeForString(MessageBuilder.withPayload(file)
+											.setHeader("studentName", "Nobody").build());
+		Assert.assertEquals(0, subjects.size());
+		XQPreparedExpressionPool pool =
+			TestUtils.getPropertyValue(executor, "engine.expressionPool", XQPreparedExpressionPool.class);
+		Assert.assertEquals(1, pool.getPreparedCount());
+		executor.destroy();
+	}
+
+	/**
+	 * At most the pool size threads keep their own expression, the ones of the threads no
+	 * longer alive are discarded to make room for the others
+	 */
+	@Test
+	public void withThreadConfinedExpressionsOfRotatingThreads() throws Exception {
+		final XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery("//person/name/text()");
+		executor.setExpressionPoolMode(XQPreparedExpressionPool.Mode.THREAD_CONFINED);
+		executor.setExpressionPoolSize(2);
+		executor.afterPropertiesSet();
+		final List<String> names = Collections.synchronizedList(new ArrayList<String>());
+		for(int i = 0;i < 5;i++) {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					names.addAll(executor.executeForString(MessageBuilder.withPayload(xmlString).build()));
+				}
+			});
+			thread.start();
+			thread.join();
+		}
+		Assert.assertEquals(Collections.nCopies(5, "Mike"), names);
+		XQPreparedExpressionPool pool =
+			TestUtils.getPropertyValue(executor, "engine.expressionPool", XQPreparedExpressionPool.class);
+		//the one of the thread compiling the XQuery and the one of the last thread
+		Assert.assertEquals(2, TestUtils.getPropertyValue(pool, "cachedExpressions", Collection.class).size());
+		Assert.assertEquals(6, pool.getPreparedCount());
+		executor.destroy();
+	}
+
+	/**
+	 * The connections are taken from the pool and reused across the messages
+	 */
+	@Test
+	public void withConnectionPool() {
+		File file = new File("./src/test/resources/org/springframework/integration/xquery/SubjectMapping.xml");
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery(EXT_VARIABLE_XQUERY);
+		XQConnectionPool connectionPool = new XQConnectionPool();
+		connectionPool.setMaxSize(2);
+		executor.setConnectionPool(connectionPool);
+		executor.addXQueryParameter(new XQueryParameter("name", "headers['studentName']"));
+		executor.addXQueryParameter(new XQueryParameter("class", Integer.valueOf(1)));
+		executor.afterPropertiesSet();
+		for(int i = 0;i < 5;i++) {
+			List<String> subjects = executor.executeForString(MessageBuilder.withPayload(file)
+												.setHeader("studentName", "Jughead").build());
+			Assert.assertEquals(2, subjects.size());
+		}
+		Assert.assertEquals(1, connectionPool.getCreatedCount());
+		Assert.assertEquals(6, connectionPool.getBorrowedCount());
+		Assert.assertEquals(0, connectionPool.getActiveCount());
+		Assert.assertEquals(1, connectionPool.getIdleCount());
+		executor.destroy();
+		//the pool is not owned by the executor
+		Assert.assertEquals(1, connectionPool.getIdleCount());
+		connectionPool.destroy();
+		Assert.assertEquals(0, connectionPool.getIdleCount());
+		Assert.assertEquals(1, connectionPool.getDestroyedCount());
+	}
+
+	/**
+	 * The connection pool shared by several executors outlives any one of them
+	 */
+	@Test
+	public void withSharedConnectionPool() {
+		XQConnectionPool connectionPool = new XQConnectionPool();
+		XQueryExecutor[] executors = new XQueryExecutor[2];
+		for(int i = 0;i < executors.length;i++) {
+			executors[i] = new XQueryExecutor();
+			executors[i].setXQuery("string(/person/name)");
+			executors[i].setConnectionPool(connectionPool);
+			executors[i].afterPropertiesSet();
+		}
+		Message<String> message = MessageBuilder.withPayload("<person><name>Mike</name></person>").build();
+		Assert.assertEquals(Collections.singletonList("Mike"), executors[0].executeForString(message));
+		executors[0].destroy();
+		Assert.assertEquals(Collections.singletonList("Mike"), executors[1].executeForString(message));
+		executors[1].destroy();
+		connectionPool.destroy();
+	}
+
+	/**
+	 * Executes the XQuery with parameters using the native Saxon engine
+	 */
+	@Test
+	public void withSaxonEngine() {
+		File file = new File("./src/test/resources/org/springframework/integration/xquery/SubjectMapping.xml");
+		Message<File> message = MessageBuilder.withPayload(file)
+									.setHeader("studentName", "Jughead")
+									.build();
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setEngine(new SaxonXQueryEngine());
+		executor.setXQuery(EXT_VARIABLE_XQUERY);
+		executor.addXQueryParameter(new XQueryParameter("name", "headers['studentName']"));
+		executor.addXQueryParameter(new XQueryParameter("class", Integer.valueOf(1)));
+		executor.afterPropertiesSet();
+		List<String> subjects = executor.executeForString(message);
+		Assert.assertEquals(2, subjects.size());
+		Assert.assertTrue(subjects.contains("Cooking"));
+		Assert.assertTrue(subjects.contains("Math"));
+		List<Node> nodes = executor.executeForNode(message);
+		Assert.assertEquals(2, nodes.size());
+		Assert.assertEquals(Node.TEXT_NODE, nodes.get(0).getNodeType());
+	}
+
+	/**
+	 * The native Saxon engine should map the results to the same values as the XQJ engine
+	 */
+	@Test
+	public void withSaxonEngineResultTypes() {
+		XQueryExecutor executor = getSaxonExecutor("//person/age/text()");
+		Assert.assertTrue(executor.executeForNumber(MessageBuilder.withPayload(xmlString).build())
+				.contains(Long.valueOf(29)));
+		executor = getSaxonExecutor("//person/@active");
+		Assert.assertTrue(executor.executeForBoolean(MessageBuilder.withPayload(xmlString).build())
+				.contains(Boolean.TRUE));
+		executor = getSaxonExecutor("2.0 + 2.1");
+		Assert.assertTrue(executor.executeForNumber(MessageBuilder.withPayload("<test/>").build())
+				.contains(Double.valueOf(4.1)));
+		executor = getSaxonExecutor("1 = 2");
+		Assert.assertTrue(executor.executeForString(MessageBuilder.withPayload("<test/>").build())
+				.contains("false"));
+		executor = getSaxonExecutor("//person");
+		List<String> persons = executor.executeForString(MessageBuilder.withPayload(xmlString).build());
+		List<String> xqjPersons = getXQJExecutor("//person").executeForString(MessageBuilder.withPayload(xmlString).build());
+		Assert.assertEquals(xqjPersons, persons);
+		List<Node> nodes = executor.executeForNode(MessageBuilder.withPayload(xmlString).build());
+		Assert.assertEquals("person", nodes.get(0).getLocalName());
+	}
+
+	/**
+	 * The nodes are serialized the same way irrespective of the engine and the tree model
+	 */
+	@Test
+	public void serializeNodesWithFormatting() throws Exception {
+		XQueryExecutor xqjExecutor = new XQueryExecutor();
+		xqjExecutor.setXQuery("//person");
+		xqjExecutor.setFormatOutput(true);
+		xqjExecutor.afterPropertiesSet();
+		XQueryExecutor saxonExecutor = new XQueryExecutor();
+		saxonExecutor.setEngine(new SaxonXQueryEngine());
+		saxonExecutor.setXQuery("//person");
+		saxonExecutor.setFormatOutput(true);
+		saxonExecutor.afterPropertiesSet();
+		String xml = "<person active=\"true\"><name>Mike</name></person>";
+		List<String> persons = xqjExecutor.executeForString(MessageBuilder.withPayload(xml).build());
+		Assert.assertEquals(persons, saxonExecutor.executeForString(MessageBuilder.withPayload(xml).build()));
+		Assert.assertTrue(persons.get(0).contains("\n   <name>Mike</name>"));
+		//a DOM node is serialized using the cached transformer
+		Node domNode = new DefaultXmlPayloadConverter().convertToDocument(xml).getDocumentElement();
+		Assert.assertEquals(persons.get(0), NodeSerializer.getInstance(true).serialize(domNode).trim());
+		Assert.assertEquals(persons.get(0), NodeSerializer.getInstance(true).serialize(domNode).trim());
+	}
+
+	/**
+	 * A custom mapper not implementing {@link XdmResultMapper} cannot be used with the Saxon engine
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void withSaxonEngineAndCustomMapper() {
+		XQueryExecutor executor = getSaxonExecutor("//person");
+		executor.execute(MessageBuilder.withPayload(xmlString).build(), new CustomNodeMapper());
+	}
+
+	/**
+	 * The byte[] and Source payloads are parsed by the engine without the DOM conversion
+	 */
+	@Test
+	public void withByteArrayAndSourcePayloads() {
+		XQueryExecutor[] executors = {getXQJExecutor("//person/name/text()"),
+										getSaxonExecutor("//person/name/text()")};
+		for(XQueryExecutor executor:executors) {
+			List<String> names = executor.executeForString(
+					MessageBuilder.withPayload(xmlString.getBytes()).build());
+			Assert.assertEquals(1, names.size());
+			Assert.assertEquals("Mike", names.get(0));
+			names = executor.executeForString(
+					MessageBuilder.withPayload(new StreamSource(new StringReader(xmlString))).build());
+			Assert.assertEquals(1, names.size());
+			Assert.assertEquals("Mike", names.get(0));
+		}
+	}
+
+	/**
+	 * The InputStream, Reader and java.nio.file.Path payloads are streamed to the engine
+	 */
+	@Test
+	public void withStreamingPayloads() throws Exception {
+		String fileName = "./src/test/resources/org/springframework/integration/xquery/SubjectMapping.xml";
+		XQueryExecutor[] executors = {getXQJExecutor("count(/mappings/students/student)"),
+										getSaxonExecutor("count(/mappings/students/student)")};
+		for(XQueryExecutor executor:executors) {
+			InputStream in = new FileInputStream(fileName);
+			try {
+				List<Number> counts = executor.executeForNumber(MessageBuilder.withPayload(in).build());
+				Assert.assertEquals(6, counts.get(0).intValue());
+			} finally {
+				in.close();
+			}
+			Reader reader = new FileReader(fileName);
+			try {
+				List<Number> counts = executor.executeForNumber(MessageBuilder.withPayload(reader).build());
+				Assert.assertEquals(6, counts.get(0).intValue());
+			} finally {
+				reader.close();
+			}
+			if(ClassUtils.isPresent("java.nio.file.Path", getClass().getClassLoader())) {
+				//java.nio.file.Path, Java 7 onwards only
+				Object path = ReflectionUtils.invokeMethod(File.class.getMethod("toPath"), new File(fileName));
+				List<Number> counts = executor.executeForNumber(MessageBuilder.withPayload(path).build());
+				Assert.assertEquals(6, counts.get(0).intValue());
+			}
+		}
+	}
+
+	/**
+	 * The results are mapped lazily as they are iterated
+	 */
+	@Test
+	public void iterateResults() {
+		String xQuery = "for $i in 1 to 100000 return concat('item', $i)";
+		XQueryExecutor[] executors = {getXQJExecutor(xQuery), getSaxonExecutor(xQuery)};
+		for(XQueryExecutor executor:executors) {
+			XQueryResultIterator<String> iterator =
+				executor.iterate(MessageBuilder.withPayload("<test/>").build(), String.class);
+			int count = 0;
+			while(iterator.hasNext()) {
+				Assert.assertEquals("item" + (++count), iterator.next());
+			}
+			Assert.assertEquals(100000, count);
+			Assert.assertFalse(iterator.hasNext());
+			iterator.close();
+		}
+	}
+
+	/**
+	 * The atomic items the node mappers map to null are skipped, as they are by execute
+	 */
+	@Test
+	public void iterateSkipsUnmappedItems() {
+		String xQuery = "(<a/>, 1, <b/>, 2)";
+		XQueryExecutor[] executors = {getXQJExecutor(xQuery), getSaxonExecutor(xQuery)};
+		Message<String> message = MessageBuilder.withPayload("<test/>").build();
+		for(XQueryExecutor executor:executors) {
+			Assert.assertEquals(2, executor.executeForXdmNode(message).size());
+			XQueryResultIterator<XdmNode> nodes = executor.iterate(message, XdmNode.class);
+			Assert.assertEquals("a", nodes.next().getNodeName().getLocalName());
+			Assert.assertEquals("b", nodes.next().getNodeName().getLocalName());
+			Assert.assertFalse(nodes.hasNext());
+			XQueryResultIterator<Node> domNodes = executor.iterate(message, Node.class);
+			Assert.assertEquals("a", domNodes.next().getLocalName());
+			Assert.assertEquals("b", domNodes.next().getLocalName());
+			Assert.assertFalse(domNodes.hasNext());
+			executor.destroy();
+		}
+	}
+
+	/**
+	 * The prepared expression is released to the pool once the iterator is exhausted or closed
+	 */
+	@Test
+	public void iterateReleasesExpression() {
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery("//person/*");
+		executor.setExpressionPoolMode(XQPreparedExpressionPool.Mode.POOLED);
+		executor.setExpressionPoolSize(1);
+		executor.afterPropertiesSet();
+		Message<String> message = MessageBuilder.withPayload(xmlString).build();
+		//closed before it is exhausted, the second one would block otherwise
+		XQueryResultIterator<Node> nodes = executor.iterate(message, Node.class);
+		Assert.assertEquals("name", nodes.next().getLocalName());
+		nodes.close();
+		Assert.assertFalse(nodes.hasNext());
+		XQueryResultIterator<String> values = executor.iterate(message, String.class);
+		Assert.assertTrue(values.next().endsWith("<name>Mike</name>"));
+		Assert.assertTrue(values.next().endsWith("<age>29</age>"));
+		Assert.assertFalse(values.hasNext());
+		Assert.assertEquals(2, executor.executeForString(message).size());
+		XQPreparedExpressionPool pool =
+			TestUtils.getPropertyValue(executor, "engine.expressionPool", XQPreparedExpressionPool.class);
+		Assert.assertEquals(1, pool.getPreparedCount());
+		executor.destroy();
+	}
+
+	/**
+	 * A custom converter is always used to convert the payload to a DOM Node
+	 */
+	@Test
+	public void withCustomConverter() {
+		XQueryExecutor executor = new XQueryExecutor();
+		final List<Object> converted = new ArrayList<Object>();
+		executor.setConverter(new DefaultXmlPayloadConverter() {
+			@Override
+			public Node convertToNode(Object object) {
+				converted.add(object);
+				return super.convertToNode(object);
+			}
+		});
+		executor.setXQuery("//person/name/text()");
+		executor.afterPropertiesSet();
+		List<String> names = executor.executeForString(MessageBuilder.withPayload(xmlString).build());
+		Assert.assertEquals("Mike", names.get(0));
+		Assert.assertEquals(Collections.singletonList(xmlString), converted);
+	}
+
+	/**
+	 * Both engines compute the effective boolean value as the boolean() function would
+	 */
+	@Test
+	public void effectiveBooleanValue() {
+		String[] trueQueries = {"//person", "//person/@active", "true()", "'false'", "1.5", "xs:double(-1)",
+								"(//person, 1)", "xs:anyURI('http://localhost')"};
+		String[] falseQueries = {"//address", "false()", "''", "0", "0.0", "xs:double('NaN')",
+								"//person/name[. = 'Jughead']"};
+		Message<String> message = MessageBuilder.withPayload(xmlString).build();
+		for(String xQuery:trueQueries) {
+			Assert.assertTrue(xQuery, getXQJExecutor(xQuery).effectiveBooleanValue(message));
+			Assert.assertTrue(xQuery, getSaxonExecutor(xQuery).effectiveBooleanValue(message));
+		}
+		for(String xQuery:falseQueries) {
+			Assert.assertFalse(xQuery, getXQJExecutor(xQuery).effectiveBooleanValue(message));
+			Assert.assertFalse(xQuery, getSaxonExecutor(xQuery).effectiveBooleanValue(message));
+		}
+		XQueryExecutor[] executors = {getXQJExecutor("(1, 2)"), getSaxonExecutor("(1, 2)")};
+		for(XQueryExecutor executor:executors) {
+			try {
+				executor.effectiveBooleanValue(message);
+				Assert.fail("Expected a MessagingException");
+			} catch (MessagingException e) {
+				//expected, not defined for two atomic values
+			}
+		}
+	}
+
+	/**
+	 * The static document is the context item, the payload is not even parsed
+	 */
+	@Test
+	public void withStaticDocument() {
+		XQueryExecutor[] executors = {new XQueryExecutor(), new XQueryExecutor()};
+		executors[1].setEngine(new SaxonXQueryEngine());
+		for(XQueryExecutor executor:executors) {
+			executor.setXQuery("declare variable $name as xs:string external; " +
+					"/mappings/students/student[name = $name]/@id/string()");
+			executor.addXQueryParameter(new XQueryParameter("name", "headers['studentName']"));
+			executor.setStaticDocument(new ClassPathResource("org/springframework/integration/xquery/SubjectMapping.xml"));
+			executor.afterPropertiesSet();
+			Message<String> message = MessageBuilder.withPayload("not xml")
+										.setHeader("studentName", "Betty").build();
+			Assert.assertEquals(Collections.singletonList("5"), executor.executeForString(message));
+			executor.destroy();
+		}
+	}
+
+	/**
+	 * The static document bound to a variable along with the payload as the context item
+	 */
+	@Test
+	public void withStaticDocumentVariable() {
+		XQueryExecutor[] executors = {new XQueryExecutor(), new XQueryExecutor()};
+		executors[1].setEngine(new SaxonXQueryEngine());
+		for(XQueryExecutor executor:executors) {
+			executor.setXQuery("declare variable $mappings external; " +
+					"let $name := /person/name return $mappings//student[name = $name]/@id/string()");
+			executor.setStaticDocument(new ClassPathResource("org/springframework/integration/xquery/SubjectMapping.xml"));
+			executor.setStaticDocumentVariable("mappings");
+			executor.afterPropertiesSet();
+			Message<String> message = MessageBuilder.withPayload("<person><name>Reggie</name></person>").build();
+			Assert.assertEquals(Collections.singletonList("3"), executor.executeForString(message));
+			executor.destroy();
+		}
+	}
+
+	/**
+	 * The nodes are looked up in the index, all the nodes with the key are bound
+	 */
+	@Test
+	public void withStaticDocumentIndex() {
+		XQueryExecutor[] executors = {new XQueryExecutor(), new XQueryExecutor()};
+		executors[1].setEngine(new SaxonXQueryEngine());
+		for(XQueryExecutor executor:executors) {
+			executor.setXQuery("declare variable $subjects external; " +
+					"for $subject in $subjects return string($subject/name)");
+			executor.setStaticDocument(new ClassPathResource("org/springframework/integration/xquery/SubjectMapping.xml"));
+			executor.setDocumentIndexes(Collections.singletonList(new XQueryDocumentIndex("subjects",
+					"/mappings/subjects/subject", "students/studentId", "headers['studentId']")));
+			executor.afterPropertiesSet();
+			Message<String> message = MessageBuilder.withPayload("").setHeader("studentId", 1).build();
+			List<String> subjects = executor.executeForString(message);
+			Assert.assertEquals(2, subjects.size());
+			Assert.assertEquals("Math", subjects.get(0));
+			Assert.assertEquals("Cooking", subjects.get(1));
+			message = MessageBuilder.withPayload("").setHeader("studentId", 7).build();
+			Assert.assertTrue(executor.executeForString(message).isEmpty());
+			executor.destroy();
+		}
+	}
+
+	/**
+	 * The variables are resolved on compilation, the ones declared as a single atomic value
+	 * are bound with their declared type
+	 */
+	@Test
+	public void withParameterBindingPlan() {
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery("declare variable $name as xs:string external; declare variable $any external;" +
+				"declare variable $ids as xs:integer* external; concat($name, $any, count($ids))");
+		executor.addXQueryParameter(new XQueryParameter("name", "headers['name']"));
+		executor.addXQueryParameter(new XQueryParameter("any", "headers['any']"));
+		executor.addXQueryParameter(new XQueryParameter("ids", "headers['ids']"));
+		executor.afterPropertiesSet();
+		Object[] bindings = TestUtils.getPropertyValue(executor, "parameterBindings", Object[].class);
+		Assert.assertEquals(3, bindings.length);
+		XQJXQueryEngine engine = TestUtils.getPropertyValue(executor, "engine", XQJXQueryEngine.class);
+		List<String> names = engine.getExternalVariableNames();
+		Object[] types = TestUtils.getPropertyValue(engine, "externalVariableTypes", Object[].class);
+		Assert.assertNotNull(types[names.indexOf("name")]);
+		Assert.assertNull(types[names.indexOf("any")]);
+		Assert.assertNull(types[names.indexOf("ids")]);
+		Message<String> message = MessageBuilder.withPayload("<a/>").setHeader("name", "Mike")
+									.setHeader("any", Integer.valueOf(1)).setHeader("ids", Arrays.asList(1, 2, 3)).build();
+		Assert.assertEquals(Collections.singletonList("Mike13"), executor.executeForString(message));
+		executor.destroy();
+	}
+
+	/**
+	 * A String header value bound with a declared atomic type is cast from its lexical form
+	 */
+	@Test
+	public void withTypedParameter() {
+		String xQuery = "declare variable $count as xs:integer external; $count + 1";
+		Message<String> message = MessageBuilder.withPayload("<a/>").setHeader("count", "41").build();
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery(xQuery);
+		XQueryParameter parameter = new XQueryParameter("count", "headers['count']");
+		parameter.setType("xs:integer");
+		executor.addXQueryParameter(parameter);
+		executor.afterPropertiesSet();
+		Assert.assertEquals(Collections.singletonList("42"), executor.executeForString(message));
+		executor.destroy();
+
+		executor = new XQueryExecutor();
+		executor.setEngine(new SaxonXQueryEngine());
+		executor.setXQuery(xQuery);
+		executor.addXQueryParameter(parameter);
+		executor.afterPropertiesSet();
+		Assert.assertEquals(Collections.singletonList("42"), executor.executeForString(message));
+		executor.destroy();
+	}
+
+	/**
+	 * A parameter type not compatible with the type declared in the XQuery fails on startup
+	 */
+	@Test
+	public void withIncompatibleParameterType() {
+		String xQuery = "declare variable $count as xs:integer external; $count + 1";
+		XQueryParameter parameter = new XQueryParameter("count", "headers['count']");
+		parameter.setType("xs:string*");
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery(xQuery);
+		executor.addXQueryParameter(parameter);
+		try {
+			executor.afterPropertiesSet();
+			Assert.fail("Expected a MessagingException for the XQJ engine");
+		} catch (MessagingException e) {
+			//expected
+		}
+
+		executor = new XQueryExecutor();
+		executor.setEngine(new SaxonXQueryEngine());
+		executor.setXQuery(xQuery);
+		executor.addXQueryParameter(parameter);
+		try {
+			executor.afterPropertiesSet();
+			Assert.fail("Expected a MessagingException for the Saxon engine");
+		} catch (MessagingException e) {
+			//expected
+		}
+	}
+
+	/**
+	 * The parameters with a static value are declared in the XQuery as constants, only the
+	 * ones with an expression remain external variables bound for every message
+	 */
+	@Test
+	public void withConstantParameterFolding() {
+		String xQuery = "declare variable $factor as xs:integer external; declare variable $suffix external;" +
+				"declare variable $quote external; declare variable $count external;" +
+				"concat(string($count * $factor), $suffix, $quote)";
+		Message<String> message = MessageBuilder.withPayload("<a/>").setHeader("count", 7).build();
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery(xQuery);
+		executor.addXQueryParameter(new XQueryParameter("factor", (Object)"6"));
+		executor.addXQueryParameter(new XQueryParameter("suffix", (Object)" & \"more\""));
+		executor.addXQueryParameter(new XQueryParameter("quote", Boolean.TRUE));
+		executor.addXQueryParameter(new XQueryParameter("count", "headers['count']"));
+		executor.afterPropertiesSet();
+		XQueryEngine engine = TestUtils.getPropertyValue(executor, "engine", XQueryEngine.class);
+		Assert.assertEquals(Collections.singletonList("count"), engine.getExternalVariableNames());
+		Assert.assertEquals(Collections.singletonList("42 & \"more\"true"), executor.executeForString(message));
+		executor.destroy();
+
+		executor = new XQueryExecutor();
+		executor.setEngine(new SaxonXQueryEngine());
+		executor.setXQuery(xQuery);
+		executor.addXQueryParameter(new XQueryParameter("factor", (Object)"6"));
+		executor.addXQueryParameter(new XQueryParameter("suffix", (Object)" & \"more\""));
+		executor.addXQueryParameter(new XQueryParameter("quote", Boolean.TRUE));
+		executor.addXQueryParameter(new XQueryParameter("count", "headers['count']"));
+		executor.afterPropertiesSet();
+		engine = TestUtils.getPropertyValue(executor, "engine", XQueryEngine.class);
+		Assert.assertEquals(Collections.singletonList("count"), engine.getExternalVariableNames());
+		Assert.assertEquals(Collections.singletonList("42 & \"more\"true"), executor.executeForString(message));
+		executor.destroy();
+	}
+
+	/**
+	 * The parameters declared with a type that has no constructor function are bound as
+	 * before, the declarations in the comments and the string literals are left as they are
+	 */
+	@Test
+	public void withConstantParameterNotFolded() {
+		String xQuery = "(: declare variable $suffix external; :) declare variable $factor as xs:anyAtomicType external;" +
+				"declare variable $suffix external; concat(string($factor), 'declare variable $suffix external;', $suffix)";
+		Message<String> message = MessageBuilder.withPayload("<a/>").build();
+		for(XQueryEngine engine:new XQueryEngine[]{new XQJXQueryEngine(new SaxonXQDataSource()), new SaxonXQueryEngine()}) {
+			XQueryExecutor executor = new XQueryExecutor();
+			executor.setEngine(engine);
+			executor.setXQuery(xQuery);
+			executor.addXQueryParameter(new XQueryParameter("factor", (Object)"6"));
+			executor.addXQueryParameter(new XQueryParameter("suffix", (Object)"!"));
+			executor.afterPropertiesSet();
+			Assert.assertEquals(Collections.singletonList("factor"), engine.getExternalVariableNames());
+			Assert.assertEquals(Collections.singletonList("6declare variable $suffix external;!"),
+					executor.executeForString(message));
+			executor.destroy();
+		}
+	}
+
+	/**
+	 * The payload is neither parsed nor bound if the XQuery does not use the context item
+	 */
+	@Test
+	public void withContextFreeXQuery() {
+		String xQuery = "declare variable $name external; concat('Hello ', $name)";
+		Message<String> message = MessageBuilder.withPayload("not xml").setHeader("name", "Mike").build();
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery(xQuery);
+		executor.addXQueryParameter(new XQueryParameter("name", "headers['name']"));
+		executor.afterPropertiesSet();
+		Assert.assertFalse(TestUtils.getPropertyValue(executor, "engine", XQueryEngine.class).isContextItemUsed());
+		Assert.assertEquals(Collections.singletonList("Hello Mike"), executor.executeForString(message));
+		Assert.assertTrue(executor.effectiveBooleanValue(message));
+		executor.destroy();
+
+		executor = new XQueryExecutor();
+		executor.setEngine(new SaxonXQueryEngine());
+		executor.setXQuery(xQuery);
+		executor.addXQueryParameter(new XQueryParameter("name", "headers['name']"));
+		executor.afterPropertiesSet();
+		Assert.assertFalse(TestUtils.getPropertyValue(executor, "engine", XQueryEngine.class).isContextItemUsed());
+		Assert.assertEquals(Collections.singletonList("Hello Mike"), executor.executeForString(message));
+		Assert.assertTrue(executor.effectiveBooleanValue(message));
+		executor.destroy();
+
+		executor = getXQJExecutor("declare variable $root := /person; string($root/name)");
+		Assert.assertTrue(TestUtils.getPropertyValue(executor, "engine", XQueryEngine.class).isContextItemUsed());
+		executor.destroy();
+		executor = getSaxonExecutor("string(.)");
+		Assert.assertTrue(TestUtils.getPropertyValue(executor, "engine", XQueryEngine.class).isContextItemUsed());
+		executor.destroy();
+	}
+
+	/**
+	 * The results of an XQuery not using the context item are cached by the parameter values
+	 */
+	@Test
+	public void withResultCache() {
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery("declare variable $name external; concat('Hello ', $name)");
+		executor.addXQueryParameter(new XQueryParameter("name", "headers['name']"));
+		executor.setResultCacheSize(1);
+		executor.afterPropertiesSet();
+		List<String> mike = executor.executeForString(MessageBuilder.withPayload("").setHeader("name", "Mike").build());
+		Assert.assertSame(mike, executor.executeForString(MessageBuilder.withPayload("").setHeader("name", "Mike").build()));
+		List<String> john = executor.executeForString(MessageBuilder.withPayload("").setHeader("name", "John").build());
+		Assert.assertEquals(Collections.singletonList("Hello John"), john);
+		//evicted by the result for John
+		List<String> mikeAgain = executor.executeForString(MessageBuilder.withPayload("").setHeader("name", "Mike").build());
+		Assert.assertNotSame(mike, mikeAgain);
+		Assert.assertEquals(mike, mikeAgain);
+		executor.destroy();
+
+		//the result depends on the payload, not cached
+		executor = new XQueryExecutor();
+		executor.setXQuery("string(/person/name)");
+		executor.setResultCacheSize(1);
+		executor.afterPropertiesSet();
+		Assert.assertNull(TestUtils.getPropertyValue(executor, "resultCache"));
+		Assert.assertEquals(Collections.singletonList("Mike"),
+				executor.executeForString(MessageBuilder.withPayload(xmlString).build()));
+		executor.destroy();
+	}
+
+	/**
+	 * The XdmNode results are bound by the downstream executors as they are, without being
+	 * serialized or parsed again
+	 */
+	@Test
+	public void withXdmNodeResults() {
+		XQueryExecutor upstream = getXQJExecutor("/order");
+		List<XdmNode> nodes = upstream.executeForXdmNode(MessageBuilder.withPayload(
+								"<order><item>1</item><item>2</item></order>").build());
+		Assert.assertEquals(1, nodes.size());
+		Message<XdmNode> message = MessageBuilder.withPayload(nodes.get(0)).build();
+
+		XQueryExecutor saxonExecutor = getSaxonExecutor(".");
+		Assert.assertSame(nodes.get(0).getUnderlyingNode(),
+				saxonExecutor.executeForXdmNode(message).get(0).getUnderlyingNode());
+		saxonExecutor.destroy();
+		XQueryExecutor xqjExecutor = getXQJExecutor(".");
+		Assert.assertSame(nodes.get(0).getUnderlyingNode(),
+				xqjExecutor.executeForXdmNode(message).get(0).getUnderlyingNode());
+		xqjExecutor.destroy();
+		upstream.destroy();
+
+		//built by another configuration, copied into a new document
+		upstream = new XQueryExecutor();
+		upstream.setEngine(new SaxonXQueryEngine(new Processor(false)));
+		upstream.setXQuery("/order");
+		upstream.afterPropertiesSet();
+		message = MessageBuilder.withPayload(upstream.executeForXdmNode(MessageBuilder.withPayload(
+								"<order><item>1</item><item>2</item></order>").build()).get(0)).build();
+		saxonExecutor = getSaxonExecutor("count(//item)");
+		Assert.assertEquals(Collections.singletonList("2"), saxonExecutor.executeForString(message));
+		saxonExecutor.destroy();
+		xqjExecutor = getXQJExecutor("count(//item)");
+		Assert.assertEquals(Collections.singletonList("2"), xqjExecutor.executeForString(message));
+		//the DOM view of the node of another configuration
+		Message<Node> nodeMessage = MessageBuilder.withPayload(upstream.executeForNode(MessageBuilder.withPayload(
+								"<order><item>1</item></order>").build()).get(0)).build();
+		Assert.assertEquals(Collections.singletonList("1"), xqjExecutor.executeForString(nodeMessage));
+		xqjExecutor.destroy();
+		upstream.destroy();
+	}
+
+	/**
+	 * The stages of a pipeline pass their resulting node to the following stage in memory
+	 */
+	@Test
+	public void withPipeline() {
+		XQueryExecutor first = getXQJExecutor("<total>{sum(/order/item)}</total>");
+		XQueryExecutor second = new XQueryExecutor();
+		second.setEngine(new SaxonXQueryEngine());
+		second.setXQuery("declare variable $currency external; concat(/total, ' ', $currency)");
+		second.addXQueryParameter(new XQueryParameter("currency", "headers['currency']"));
+		second.setPrecedingStage(first);
+		second.afterPropertiesSet();
+		Message<String> message = MessageBuilder.withPayload("<order><item>1</item><item>2</item></order>")
+										.setHeader("currency", "eur").build();
+		Assert.assertEquals(Collections.singletonList("3 eur"), second.executeForString(message));
+
+		//every stage but the last should result in a single node
+		XQueryExecutor nodes = getXQJExecutor("count(.)");
+		nodes.setPrecedingStage(getXQJExecutor("/order/item"));
+		try {
+			nodes.executeForString(message);
+			Assert.fail("Expected a MessagingException");
+		} catch (MessagingException e) {
+			Assert.assertEquals("Expecting the stage of the pipeline to result in a single node, but got 2 nodes",
+					e.getMessage());
+		}
+		nodes.destroy();
+		second.destroy();
+		first.destroy();
+	}
+
+	/**
+	 * The record local XQuery executed against the partitions of the payload gives the same
+	 * results as against the whole payload
+	 */
+	@Test
+	public void withPartitions() {
+		StringBuilder feed = new StringBuilder("<feed><header/>");
+		for(int i = 0;i < 100;i++) {
+			feed.append("<record><price>").append(i).append("</price></record>");
+		}
+		feed.append("</feed>");
+		Message<String> message = MessageBuilder.withPayload(feed.toString()).setHeader("min", 90).build();
+		String xQuery = "declare variable $min external; /feed/record[price >= $min]/price/text()";
+		XQueryExecutor whole = new XQueryExecutor();
+		whole.setXQuery(xQuery);
+		whole.addXQueryParameter(new XQueryParameter("min", "headers['min']"));
+		whole.afterPropertiesSet();
+		List<String> expected = whole.executeForString(message);
+		Assert.assertEquals(10, expected.size());
+		whole.destroy();
+
+		XQueryExecutor sequential = new XQueryExecutor();
+		sequential.setXQuery(xQuery);
+		sequential.addXQueryParameter(new XQueryParameter("min", "headers['min']"));
+		sequential.setPartitionElement("record");
+		sequential.setPartitionSize(7);
+		sequential.afterPropertiesSet();
+		Assert.assertEquals(expected, sequential.executeForString(message));
+		sequential.destroy();
+
+		ExecutorService taskExecutor = Executors.newFixedThreadPool(4);
+		XQueryExecutor parallel = new XQueryExecutor();
+		parallel.setEngine(new SaxonXQueryEngine());
+		parallel.setXQuery(xQuery);
+		parallel.addXQueryParameter(new XQueryParameter("min", "headers['min']"));
+		parallel.setPartitionElement("record");
+		parallel.setPartitionSize(3);
+		parallel.setPartitionTaskExecutor(taskExecutor);
+		parallel.afterPropertiesSet();
+		for(int i = 0;i < 10;i++) {
+			Assert.assertEquals(expected, parallel.executeForString(message));
+		}
+		//the payloads other than the streams are not partitioned
+		Assert.assertEquals(Collections.<String>emptyList(), parallel.executeForString(
+				MessageBuilder.withPayload(new DefaultXmlPayloadConverter().convertToDocument("<feed/>")).setHeader("min", 1).build()));
+		parallel.destroy();
+		taskExecutor.shutdown();
+	}
+
+	/**
+	 * The XQuery is executed by the async executor, the calling thread executes it once the
+	 * queue of the default pool is full
+	 */
+	@Test
+	public void withAsyncExecution() throws Exception {
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery("string(/person/name)");
+		executor.setAsyncPoolSize(1);
+		executor.setAsyncQueueCapacity(1);
+		executor.afterPropertiesSet();
+		Message<String> message = MessageBuilder.withPayload("<person><name>Mike</name></person>").build();
+		Future<List<String>> result = executor.executeAsync(message, String.class);
+		Assert.assertEquals(Collections.singletonList("Mike"), result.get(10, TimeUnit.SECONDS));
+
+		//saturating the pool, the last execution is rejected to the calling thread
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		executor.getAsyncExecutor().execute(new Runnable() {
+			public void run() {
+				started.countDown();
+				try {
+					blocked.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+		Future<List<String>> queued = executor.executeAsync(message, String.class);
+		Future<List<String>> rejected = executor.executeAsync(message, String.class);
+		Assert.assertTrue(rejected.isDone());
+		Assert.assertFalse(queued.isDone());
+		blocked.countDown();
+		Assert.assertEquals(Collections.singletonList("Mike"), queued.get(10, TimeUnit.SECONDS));
+		executor.destroy();
+
+		executor = new XQueryExecutor();
+		executor.setXQuery("error((), 'failed')");
+		executor.setAsyncRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+		executor.afterPropertiesSet();
+		try {
+			executor.executeAsync(message, String.class).get(10, TimeUnit.SECONDS);
+			Assert.fail("Expected an ExecutionException");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof MessagingException);
+		}
+		executor.destroy();
+	}
+
+	/**
+	 * The asynchronous executions run on virtual threads if supported by the JVM, on
+	 * platform threads otherwise
+	 */
+	@Test
+	public void withAsyncVirtualThreads() throws Exception {
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery("string(/person/name)");
+		executor.setAsyncVirtualThreads(true);
+		executor.setAsyncPoolSize(64);
+		executor.afterPropertiesSet();
+		FutureTask<Thread> thread = new FutureTask<Thread>(new Callable<Thread>() {
+			public Thread call() {
+				return Thread.currentThread();
+			}
+		});
+		executor.getAsyncExecutor().execute(thread);
+		Method isVirtual = ReflectionUtils.findMethod(Thread.class, "isVirtual");
+		if(isVirtual != null) {
+			Assert.assertEquals(Boolean.TRUE, ReflectionUtils.invokeMethod(isVirtual, thread.get(10, TimeUnit.SECONDS)));
+		}
+		else {
+			Assert.assertTrue(thread.get(10, TimeUnit.SECONDS).getName().startsWith("xquery-async-"));
+		}
+		Message<String> message = MessageBuilder.withPayload("<person><name>Mike</name></person>").build();
+		Assert.assertEquals(Collections.singletonList("Mike"),
+				executor.executeAsync(message, String.class).get(10, TimeUnit.SECONDS));
+		executor.destroy();
+	}
+
+	/**
+	 * Every blocked execution holds its own virtual thread, beyond the async pool size,
+	 * the executions beyond the pool size and queue capacity run on the calling thread
+	 */
+	@Test
+	public void withAsyncVirtualThreadsBlocked() throws Exception {
+		if(ReflectionUtils.findMethod(Thread.class, "ofVirtual") == null) {
+			return;
+		}
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery("string(/person/name)");
+		executor.setAsyncVirtualThreads(true);
+		executor.setAsyncPoolSize(1);
+		executor.setAsyncQueueCapacity(3);
+		executor.afterPropertiesSet();
+		final CountDownLatch blocked = new CountDownLatch(4);
+		final CountDownLatch released = new CountDownLatch(1);
+		final Thread caller = Thread.currentThread();
+		XQueryResultMapper<String> mapper = new XQueryResultMapper<String>() {
+			public List<String> mapResults(XQResultSequence result) {
+				if(Thread.currentThread() == caller) {
+					return Collections.singletonList("rejected");
+				}
+				blocked.countDown();
+				try {
+					released.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return Collections.singletonList("released");
+			}
+		};
+		Message<String> message = MessageBuilder.withPayload("<person><name>Mike</name></person>").build();
+		List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+		for(int i = 0;i < 4;i++) {
+			results.add(executor.executeAsync(message, mapper));
+		}
+		Assert.assertTrue(blocked.await(10, TimeUnit.SECONDS));
+		Assert.assertEquals(Collections.singletonList("rejected"),
+				executor.executeAsync(message, mapper).get(10, TimeUnit.SECONDS));
+		released.countDown();
+		for(Future<List<String>> result:results) {
+			Assert.assertEquals(Collections.singletonList("released"), result.get(10, TimeUnit.SECONDS));
+		}
+		executor.destroy();
+	}
+
+	/**
+	 * The Saxon evaluation exceeding the timeout is cancelled, the quick ones are unaffected
+	 */
+	@Test
+	public void withTimeout() {
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery("count(for $i in 1 to xs:integer(/limit), $j in 1 to xs:integer(/limit) " +
+				"where $i = $j return $i)");
+		executor.setEngine(new SaxonXQueryEngine());
+		assertTimesOut(executor);
+	}
+
+	/**
+	 * The evaluation of the default XQJ engine is cancelled as well, through its trace listener
+	 */
+	@Test
+	public void withTimeoutOfDefaultEngine() {
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery("count(for $i in 1 to xs:integer(/limit), $j in 1 to xs:integer(/limit) " +
+				"where $i = $j return $i)");
+		executor.setExpressionPoolMode(XQPreparedExpressionPool.Mode.POOLED);
+		assertTimesOut(executor);
+	}
+
+	private void assertTimesOut(XQueryExecutor executor) {
+		executor.setExecutionTimeout(200);
+		executor.afterPropertiesSet();
+		Assert.assertEquals(Collections.singletonList("10"),
+				executor.executeForString(MessageBuilder.withPayload("<limit>10</limit>").build()));
+		Assert.assertTrue(executor.effectiveBooleanValue(MessageBuilder.withPayload("<limit>10</limit>").build()));
+		long start = System.currentTimeMillis();
+		try {
+			executor.executeForString(MessageBuilder.withPayload("<limit>100000000</limit>").build());
+			Assert.fail("Expected the execution to time out");
+		} catch (XQueryTimeoutException e) {
+			Assert.assertNotNull(e.getFailedMessage());
+		}
+		Assert.assertTrue(System.currentTimeMillis() - start < 10000);
+		try {
+			executor.effectiveBooleanValue(MessageBuilder.withPayload("<limit>100000000</limit>").build());
+			Assert.fail("Expected the execution to time out");
+		} catch (XQueryTimeoutException e) {
+			Assert.assertNotNull(e.getFailedMessage());
+		}
+		Assert.assertEquals(2, executor.getTimeoutCount());
+		Assert.assertEquals(Collections.singletonList("10"),
+				executor.executeForString(MessageBuilder.withPayload("<limit>10</limit>").build()));
+		executor.destroy();
+	}
+
+	/**
+	 * The result of an execution completing once the timeout expired is returned
+	 */
+	@Test
+	public void withTimeoutExpiringOnceEvaluated() {
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery("string(/limit)");
+		executor.setEngine(new SaxonXQueryEngine());
+		executor.setExecutionTimeout(50);
+		executor.afterPropertiesSet();
+		List<String> result = executor.execute(MessageBuilder.withPayload("<limit>10</limit>").build(), null,
+				new SlowResultMapper());
+		Assert.assertEquals(Collections.singletonList("10"), result);
+		Assert.assertEquals(0, executor.getTimeoutCount());
+		executor.destroy();
+	}
+
+	/**
+	 * Maps the results beyond the timeout, once the evaluation is complete
+	 */
+	private static class SlowResultMapper implements XQueryResultMapper<String>, XdmResultMapper<String> {
+
+		public List<String> mapResults(XQResultSequence result) {
+			throw new UnsupportedOperationException();
+		}
+
+		public List<String> mapResults(XdmValue result) {
+			try {
+				Thread.sleep(300);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return Collections.singletonList(result.itemAt(0).getStringValue());
+		}
+	}
+
+	/**
+	 * The partitions executed by the partition task executor are cancelled along with the caller
+	 */
+	@Test
+	public void withTimeoutAndPartitions() {
+		ExecutorService taskExecutor = Executors.newFixedThreadPool(2);
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery("for $r in /records/record return count(for $i in 1 to xs:integer($r), " +
+				"$j in 1 to xs:integer($r) where $i = $j return $i)");
+		executor.setEngine(new SaxonXQueryEngine());
+		executor.setPartitionElement("record");
+		executor.setPartitionSize(1);
+		executor.setPartitionTaskExecutor(taskExecutor);
+		executor.setExecutionTimeout(200);
+		executor.afterPropertiesSet();
+		try {
+			executor.executeForString(MessageBuilder.withPayload(
+					"<records><record>10</record><record>100000000</record></records>").build());
+			Assert.fail("Expected the execution to time out");
+		} catch (XQueryTimeoutException e) {
+			Assert.assertNotNull(e.getFailedMessage());
+		}
+		Assert.assertEquals(1, executor.getTimeoutCount());
+		executor.destroy();
+		taskExecutor.shutdown();
+	}
+
+	private XQueryExecutor getSaxonExecutor(String xQuery) {
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setEngine(new SaxonXQueryEngine());
+		executor.setXQuery(xQuery);
+		executor.afterPropertiesSet();
+		return executor;
+	}
+
+	private XQueryExecutor getXQJExecutor(String xQuery) {
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery(xQuery);
+		executor.afterPropertiesSet();
+		return executor;
+	}
+
 	private class MyCustomClass {}
 	private class CustomNodeMapper implements XQueryResultMapper<Node> {
 		public List<Node> mapResults(XQResultSequence result) {
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.saxon.s9api.XdmNode;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.integration.Message;
+import org.springframework.integration.MessagingException;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.integration.xquery.XQueryParallelExecutor.XQueryExecutorCallback;
+
+/**
+ * The test class for {@link XQueryParallelExecutor}
+ *
+ * @author Amol Nayak
+ *
+ */
+public class XQueryParallelExecutorTests {
+
+	private static final String ORDER = "<order><item>1</item><item>2</item></order>";
+
+	@Test
+	public void sequential() {
+		XQueryParallelExecutor parallelExecutor = getParallelExecutor(
+				getExecutor("count(/order/item)"), getExecutor("string(/order/item[2])"), getExecutor("/order/discount"));
+		parallelExecutor.afterPropertiesSet();
+		List<List<String>> results = parallelExecutor.execute(MessageBuilder.withPayload(ORDER).build(), String.class);
+		Assert.assertEquals(Arrays.asList(Collections.singletonList("2"), Collections.singletonList("2"),
+				Collections.<String>emptyList()), results);
+		Assert.assertEquals(Arrays.asList(true, true, false),
+				parallelExecutor.effectiveBooleanValues(MessageBuilder.withPayload(ORDER).build()));
+		parallelExecutor.destroy();
+	}
+
+	/**
+	 * The executors read the same document concurrently
+	 */
+	@Test
+	public void concurrent() {
+		ExecutorService taskExecutor = Executors.newFixedThreadPool(2);
+		final CountDownLatch latch = new CountDownLatch(3);
+		XQueryParallelExecutor parallelExecutor = getParallelExecutor(
+				getExecutor("/order/item[1]"), getExecutor("/order/item[2]"), getExecutor("/order"));
+		parallelExecutor.setTaskExecutor(taskExecutor);
+		parallelExecutor.afterPropertiesSet();
+		List<XdmNode> roots = parallelExecutor.execute(MessageBuilder.withPayload(ORDER).build(),
+				new XQueryExecutorCallback<XdmNode>() {
+					public XdmNode doWithExecutor(int index, XQueryExecutor executor, Message<?> message, Object document) {
+						//every executor is running at the same time
+						latch.countDown();
+						try {
+							Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						return executor.execute(message, document, XdmNode.class).get(0).getParent();
+					}
+				});
+		Assert.assertTrue(roots.get(0).getUnderlyingNode().isSameNodeInfo(roots.get(1).getUnderlyingNode()));
+		Assert.assertTrue(roots.get(0).getParent().getUnderlyingNode().isSameNodeInfo(roots.get(2).getUnderlyingNode()));
+		parallelExecutor.destroy();
+		taskExecutor.shutdown();
+	}
+
+	/**
+	 * The parameters are derived from the message as given, as by a standalone executor
+	 */
+	@Test
+	public void withMessageParameters() {
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery("declare variable $id external; declare variable $payload external; " +
+				"concat(count(/order/item), ' ', $id, ' ', string-length($payload))");
+		executor.setXQueryParameters(Arrays.asList(new XQueryParameter("id", "headers.id.toString()"),
+				new XQueryParameter("payload", "payload")));
+		executor.afterPropertiesSet();
+		XQueryParallelExecutor parallelExecutor = getParallelExecutor(executor, getExecutor("/order/item[1]"));
+		parallelExecutor.afterPropertiesSet();
+		Message<String> message = MessageBuilder.withPayload(ORDER).build();
+		List<List<String>> results = parallelExecutor.execute(message, String.class);
+		Assert.assertEquals("2 " + message.getHeaders().getId() + " " + ORDER.length(), results.get(0).get(0));
+		Assert.assertEquals(executor.executeForString(message), results.get(0));
+		parallelExecutor.destroy();
+	}
+
+	@Test
+	public void withFailure() {
+		ExecutorService taskExecutor = Executors.newSingleThreadExecutor();
+		XQueryParallelExecutor parallelExecutor = getParallelExecutor(
+				getExecutor("if(/order) then error((), 'failed') else ()"), getExecutor("/order"));
+		parallelExecutor.setTaskExecutor(taskExecutor);
+		parallelExecutor.afterPropertiesSet();
+		try {
+			parallelExecutor.execute(MessageBuilder.withPayload(ORDER).build(), String.class);
+			Assert.fail("Expected a MessagingException");
+		} catch (MessagingException e) {
+			//the exception of the executor is rethrown as is
+			Assert.assertTrue(e.getCause().getMessage().contains("failed"));
+		}
+		parallelExecutor.destroy();
+		taskExecutor.shutdown();
+	}
+
+	/**
+	 * The tasks not started by the task executor are run by the calling thread
+	 */
+	@Test
+	public void withSaturatedTaskExecutor() {
+		final List<Runnable> queued = new ArrayList<Runnable>();
+		XQueryParallelExecutor parallelExecutor = getParallelExecutor(
+				getExecutor("count(/order/item)"), getExecutor("string(/order/item[2])"), getExecutor("/order/discount"));
+		parallelExecutor.setTaskExecutor(new Executor() {
+			public void execute(Runnable command) {
+				//never started
+				queued.add(command);
+			}
+		});
+		parallelExecutor.afterPropertiesSet();
+		List<List<String>> results = parallelExecutor.execute(MessageBuilder.withPayload(ORDER).build(), String.class);
+		Assert.assertEquals(Arrays.asList(Collections.singletonList("2"), Collections.singletonList("2"),
+				Collections.<String>emptyList()), results);
+		Assert.assertEquals(2, queued.size());
+		parallelExecutor.destroy();
+	}
+
+	/**
+	 * The tasks submitted before the task executor rejects one are cancelled
+	 */
+	@Test
+	public void withRejectingTaskExecutor() {
+		final List<Runnable> queued = new ArrayList<Runnable>();
+		XQueryParallelExecutor parallelExecutor = getParallelExecutor(
+				getExecutor("/order/item[1]"), getExecutor("/order/item[2]"), getExecutor("/order"));
+		parallelExecutor.setTaskExecutor(new Executor() {
+			public void execute(Runnable command) {
+				if(!queued.isEmpty()) {
+					throw new RejectedExecutionException("saturated");
+				}
+				queued.add(command);
+			}
+		});
+		parallelExecutor.afterPropertiesSet();
+		try {
+			parallelExecutor.execute(MessageBuilder.withPayload(ORDER).build(), String.class);
+			Assert.fail("Expected a RejectedExecutionException");
+		} catch (RejectedExecutionException e) {
+			Assert.assertEquals("saturated", e.getMessage());
+		}
+		Assert.assertTrue(((Future<?>)queued.get(0)).isCancelled());
+		parallelExecutor.destroy();
+	}
+
+	private XQueryParallelExecutor getParallelExecutor(XQueryExecutor... executors) {
+		XQueryParallelExecutor parallelExecutor = new XQueryParallelExecutor();
+		parallelExecutor.setExecutors(Arrays.asList(executors));
+		return parallelExecutor;
+	}
+
+	private XQueryExecutor getExecutor(String xQuery) {
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery(xQuery);
+		executor.afterPropertiesSet();
+		return executor;
+	}
+}
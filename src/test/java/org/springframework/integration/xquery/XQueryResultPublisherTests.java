@@ -0,0 +1,174 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.integration.Message;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.integration.xquery.XQueryResultPublisher.Subscriber;
+import org.springframework.integration.xquery.XQueryResultPublisher.Subscription;
+
+/**
+ * The test class for {@link XQueryResultPublisher}
+ *
+ * @author Amol Nayak
+ *
+ */
+public class XQueryResultPublisherTests {
+
+	private static final Message<String> MESSAGE =
+		MessageBuilder.withPayload("<numbers><n>1</n><n>2</n><n>3</n><n>4</n><n>5</n></numbers>").build();
+
+	@Test
+	public void emitAsRequested() {
+		XQueryExecutor executor = getExecutor("/numbers/n/string()");
+		RecordingSubscriber<String> subscriber = new RecordingSubscriber<String>();
+		executor.publish(MESSAGE, String.class).subscribe(subscriber);
+		Assert.assertNotNull(subscriber.subscription);
+		Assert.assertTrue(subscriber.items.isEmpty());
+		subscriber.subscription.request(2);
+		Assert.assertEquals(Arrays.asList("1", "2"), subscriber.items);
+		Assert.assertFalse(subscriber.completed);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		Assert.assertEquals(Arrays.asList("1", "2", "3", "4", "5"), subscriber.items);
+		Assert.assertTrue(subscriber.completed);
+		Assert.assertNull(subscriber.error);
+		executor.destroy();
+	}
+
+	@Test
+	public void requestFromOnNext() {
+		XQueryExecutor executor = getExecutor("/numbers/n/string()");
+		final int[] depth = new int[2];
+		RecordingSubscriber<String> subscriber = new RecordingSubscriber<String>() {
+			@Override
+			public void onNext(String item) {
+				super.onNext(item);
+				depth[1] = Math.max(depth[1], ++depth[0]);
+				subscription.request(1);
+				depth[0]--;
+			}
+		};
+		executor.publish(MESSAGE, String.class).subscribe(subscriber);
+		subscriber.subscription.request(1);
+		Assert.assertEquals(Arrays.asList("1", "2", "3", "4", "5"), subscriber.items);
+		Assert.assertTrue(subscriber.completed);
+		//served by the loop in progress rather than recursively
+		Assert.assertEquals(1, depth[1]);
+		executor.destroy();
+	}
+
+	@Test
+	public void cancel() {
+		XQueryExecutor executor = getExecutor("/numbers/n/string()");
+		RecordingSubscriber<String> subscriber = new RecordingSubscriber<String>() {
+			@Override
+			public void onNext(String item) {
+				super.onNext(item);
+				if(items.size() == 2) {
+					subscription.cancel();
+				}
+			}
+		};
+		executor.publish(MESSAGE, String.class).subscribe(subscriber);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		subscriber.subscription.request(1);
+		Assert.assertEquals(Arrays.asList("1", "2"), subscriber.items);
+		Assert.assertFalse(subscriber.completed);
+		Assert.assertNull(subscriber.error);
+		executor.destroy();
+	}
+
+	@Test
+	public void emptyResult() {
+		XQueryExecutor executor = getExecutor("/numbers/m/string()");
+		RecordingSubscriber<String> subscriber = new RecordingSubscriber<String>();
+		executor.publish(MESSAGE, String.class).subscribe(subscriber);
+		subscriber.subscription.request(1);
+		Assert.assertTrue(subscriber.completed);
+		Assert.assertEquals(Collections.emptyList(), subscriber.items);
+		executor.destroy();
+	}
+
+	@Test
+	public void errors() {
+		XQueryExecutor executor = getExecutor("/numbers/n/string()");
+		XQueryResultPublisher<String> publisher = executor.publish(MESSAGE, String.class);
+		RecordingSubscriber<String> subscriber = new RecordingSubscriber<String>();
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(0);
+		Assert.assertTrue(subscriber.error instanceof IllegalArgumentException);
+		subscriber.subscription.request(1);
+		Assert.assertTrue(subscriber.items.isEmpty());
+
+		//a single subscriber
+		RecordingSubscriber<String> second = new RecordingSubscriber<String>();
+		publisher.subscribe(second);
+		Assert.assertNotNull(second.subscription);
+		Assert.assertTrue(second.error instanceof IllegalStateException);
+		executor.destroy();
+
+		executor = getExecutor("/numbers/n/(10 idiv (3 - xs:integer(.)))");
+		subscriber = new RecordingSubscriber<String>();
+		executor.publish(MESSAGE, String.class).subscribe(subscriber);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		Assert.assertEquals(Arrays.asList("5", "10"), subscriber.items);
+		Assert.assertNotNull(subscriber.error);
+		Assert.assertFalse(subscriber.completed);
+		executor.destroy();
+	}
+
+	private XQueryExecutor getExecutor(String xQuery) {
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery(xQuery);
+		executor.setEngine(new SaxonXQueryEngine());
+		executor.afterPropertiesSet();
+		return executor;
+	}
+
+	private static class RecordingSubscriber<T> implements Subscriber<T> {
+
+		protected Subscription subscription;
+
+		protected final List<T> items = new ArrayList<T>();
+
+		protected Throwable error;
+
+		protected boolean completed;
+
+		public void onSubscribe(Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		public void onNext(T item) {
+			items.add(item);
+		}
+
+		public void onError(Throwable error) {
+			this.error = error;
+		}
+
+		public void onComplete() {
+			completed = true;
+		}
+	}
+}
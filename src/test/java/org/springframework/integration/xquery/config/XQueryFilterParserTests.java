@@ -0,0 +1,87 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery.config;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.integration.MessageChannel;
+import org.springframework.integration.MessageRejectedException;
+import org.springframework.integration.core.PollableChannel;
+import org.springframework.integration.endpoint.EventDrivenConsumer;
+import org.springframework.integration.filter.MessageFilter;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.integration.test.util.TestUtils;
+import org.springframework.integration.xquery.SaxonXQueryEngine;
+import org.springframework.integration.xquery.selector.XQueryMessageSelector;
+
+/**
+ * The test class for XQuery filter parser
+ * @author Amol Nayak
+ *
+ */
+public class XQueryFilterParserTests {
+
+	private ClassPathXmlApplicationContext ctx;
+
+	private EventDrivenConsumer consumer;
+
+	@Test
+	public void filterOne() {
+		setUp("xqueryFilterOne");
+		MessageFilter filter = TestUtils.getPropertyValue(consumer, "handler", MessageFilter.class);
+		Assert.assertEquals(XQueryMessageSelector.class, TestUtils.getPropertyValue(filter, "selector").getClass());
+		MessageChannel input = ctx.getBean("xqueryFilterInOne", MessageChannel.class);
+		input.send(MessageBuilder.withPayload("<person active=\"true\"><name>Mike</name></person>").build());
+		input.send(MessageBuilder.withPayload("<person active=\"false\"><name>Archie</name></person>").build());
+		PollableChannel output = ctx.getBean("output", PollableChannel.class);
+		PollableChannel discard = ctx.getBean("discard", PollableChannel.class);
+		Assert.assertTrue(((String)output.receive(0).getPayload()).contains("Mike"));
+		Assert.assertNull(output.receive(0));
+		Assert.assertTrue(((String)discard.receive(0).getPayload()).contains("Archie"));
+		destroy();
+	}
+
+	@Test
+	public void filterTwo() {
+		setUp("xqueryFilterTwo");
+		MessageFilter filter = TestUtils.getPropertyValue(consumer, "handler", MessageFilter.class);
+		Assert.assertEquals(Boolean.TRUE, TestUtils.getPropertyValue(filter, "throwExceptionOnRejection"));
+		Assert.assertEquals(SaxonXQueryEngine.class,
+				TestUtils.getPropertyValue(filter, "selector.executor.engine").getClass());
+		MessageChannel input = ctx.getBean("xqueryFilterInTwo", MessageChannel.class);
+		String xml = "<person><name>Mike</name></person>";
+		input.send(MessageBuilder.withPayload(xml).setHeader("name", "Mike").build());
+		Assert.assertNotNull(ctx.getBean("output", PollableChannel.class).receive(0));
+		try {
+			input.send(MessageBuilder.withPayload(xml).setHeader("name", "Archie").build());
+			Assert.fail("Expected a MessageRejectedException");
+		} catch (MessageRejectedException e) {
+			//expected
+		}
+		destroy();
+	}
+
+	private void setUp(String beanName) {
+		ctx = new ClassPathXmlApplicationContext("XQueryFilterParserTests-context.xml",XQueryFilterParserTests.class);
+		consumer = ctx.getBean(beanName, EventDrivenConsumer.class);
+	}
+
+	public void destroy() {
+		ctx.close();
+	}
+}
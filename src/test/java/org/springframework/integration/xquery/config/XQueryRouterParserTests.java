@@ -16,6 +16,7 @@
 package org.springframework.integration.xquery.config;
 
 import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import javax.xml.xquery.XQDataSource;
 
@@ -26,10 +27,17 @@ import org.junit.Test;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
+import org.springframework.integration.Message;
+import org.springframework.integration.MessageChannel;
+import org.springframework.integration.core.PollableChannel;
 import org.springframework.integration.endpoint.EventDrivenConsumer;
+import org.springframework.integration.support.MessageBuilder;
 import org.springframework.integration.test.util.TestUtils;
 import org.springframework.integration.xml.XmlPayloadConverter;
 import org.springframework.integration.xquery.DummyXmlPayloadConverter;
+import org.springframework.integration.xquery.SaxonXQueryEngine;
+import org.springframework.integration.xquery.XQConnectionPool;
+import org.springframework.integration.xquery.XQPreparedExpressionPool;
 import org.springframework.integration.xquery.XQueryParameter;
 import org.springframework.integration.xquery.router.XQueryRouter;
 
@@ -95,6 +103,63 @@ public class XQueryRouterParserTests {
 		destroy();
 	}
 
+	@Test
+	public void routerFive() {
+		setUp("xqueryRouterFive");
+		XQueryRouter router = TestUtils.getPropertyValue(consumer, "handler", XQueryRouter.class);
+		Assert.assertEquals(XQPreparedExpressionPool.Mode.POOLED,
+				TestUtils.getPropertyValue(router, "executor.expressionPoolMode"));
+		Assert.assertEquals(5, TestUtils.getPropertyValue(router, "executor.expressionPoolSize"));
+		Assert.assertEquals(XQPreparedExpressionPool.Mode.POOLED,
+				TestUtils.getPropertyValue(router, "executor.engine.expressionPool.mode"));
+		destroy();
+	}
+
+	@Test
+	public void routerWithConnectionPool() {
+		setUp("xqueryRouterConnectionPool");
+		XQueryRouter router = TestUtils.getPropertyValue(consumer, "handler", XQueryRouter.class);
+		XQConnectionPool pool = TestUtils.getPropertyValue(router, "executor.engine.connectionPool", XQConnectionPool.class);
+		Assert.assertSame(TestUtils.getPropertyValue(router, "executor.xqDataSource"), pool.getXQDataSource());
+		Assert.assertEquals(4, TestUtils.getPropertyValue(pool, "maxSize"));
+		Assert.assertEquals(1, TestUtils.getPropertyValue(pool, "minIdle"));
+		Assert.assertEquals(2, TestUtils.getPropertyValue(pool, "maxIdle"));
+		Assert.assertEquals(1000L, TestUtils.getPropertyValue(pool, "maxWait"));
+		Assert.assertEquals(60000L, TestUtils.getPropertyValue(pool, "idleTimeout"));
+		Assert.assertEquals("1", TestUtils.getPropertyValue(pool, "validationQuery"));
+		//the minimum idle connection is opened on start
+		Assert.assertEquals(1, pool.getIdleCount());
+		destroy();
+	}
+
+	@Test
+	public void routerWithSaxonEngine() {
+		setUp("xqueryRouterSaxon");
+		XQueryRouter router = TestUtils.getPropertyValue(consumer, "handler", XQueryRouter.class);
+		Assert.assertEquals(SaxonXQueryEngine.class,
+				TestUtils.getPropertyValue(router, "executor.engine").getClass());
+		Assert.assertNull(TestUtils.getPropertyValue(router, "executor.xqDataSource"));
+		destroy();
+	}
+
+	@Test
+	public void asyncRouter() {
+		setUp("xqueryRouterAsync");
+		XQueryRouter router = TestUtils.getPropertyValue(consumer, "handler", XQueryRouter.class);
+		Assert.assertEquals(Boolean.TRUE, TestUtils.getPropertyValue(router, "async"));
+		Assert.assertEquals(2, TestUtils.getPropertyValue(router, "executor.asyncPoolSize"));
+		Assert.assertEquals(10, TestUtils.getPropertyValue(router, "executor.asyncQueueCapacity"));
+		Assert.assertEquals(ThreadPoolExecutor.AbortPolicy.class,
+				TestUtils.getPropertyValue(router, "executor.asyncRejectedExecutionHandler").getClass());
+		Assert.assertEquals(Boolean.TRUE, TestUtils.getPropertyValue(router, "executor.asyncVirtualThreads"));
+		ctx.getBean("xqueryRouterAsyncIn", MessageChannel.class).send(
+				MessageBuilder.withPayload("<route>asyncOut</route>").build());
+		Message<?> routed = ctx.getBean("asyncOut", PollableChannel.class).receive(10000);
+		Assert.assertNotNull(routed);
+		Assert.assertEquals("<route>asyncOut</route>", routed.getPayload());
+		destroy();
+	}
+
 	private void setUp(String beanName) {
 		ctx = new ClassPathXmlApplicationContext("XQueryRouterParserTests-context.xml",XQueryRouterParserTests.class);
 		consumer = ctx.getBean(beanName, EventDrivenConsumer.class);
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery.config;
+
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.integration.MessageChannel;
+import org.springframework.integration.core.PollableChannel;
+import org.springframework.integration.endpoint.EventDrivenConsumer;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.integration.test.util.TestUtils;
+import org.springframework.integration.xquery.XQueryExecutor.StringResultMapper;
+import org.springframework.integration.xquery.splitter.XQuerySplitter;
+import org.w3c.dom.Node;
+
+/**
+ * The test class for XQuery splitter parser
+ * @author Amol Nayak
+ *
+ */
+public class XQuerySplitterParserTests {
+
+	private final String xmlString = "<people>" +
+						"<person><name>Mike</name></person>" +
+						"<person><name>Jughead</name></person>" +
+					"</people>";
+
+	private ClassPathXmlApplicationContext ctx;
+
+	private EventDrivenConsumer consumer;
+
+	@Test
+	public void splitterOne() {
+		setUp("xquerySplitterOne");
+		XQuerySplitter splitter = TestUtils.getPropertyValue(consumer, "handler", XQuerySplitter.class);
+		Assert.assertEquals(String.class, TestUtils.getPropertyValue(splitter, "resultType"));
+		Assert.assertEquals(Boolean.TRUE, TestUtils.getPropertyValue(splitter, "applySequence"));
+		Assert.assertEquals(Boolean.FALSE, TestUtils.getPropertyValue(splitter, "streaming"));
+		ctx.getBean("xquerySplitterInOne", MessageChannel.class).send(MessageBuilder.withPayload(xmlString).build());
+		PollableChannel output = ctx.getBean("output", PollableChannel.class);
+		Assert.assertEquals("Mike", output.receive(0).getPayload());
+		Assert.assertEquals("Jughead", output.receive(0).getPayload());
+		destroy();
+	}
+
+	@Test
+	public void splitterTwo() {
+		setUp("xquerySplitterTwo");
+		XQuerySplitter splitter = TestUtils.getPropertyValue(consumer, "handler", XQuerySplitter.class);
+		Assert.assertEquals(Node.class, TestUtils.getPropertyValue(splitter, "resultType"));
+		Assert.assertEquals(Boolean.FALSE, TestUtils.getPropertyValue(splitter, "applySequence"));
+		Assert.assertEquals(Boolean.TRUE, TestUtils.getPropertyValue(splitter, "streaming"));
+		Assert.assertEquals(100, TestUtils.getPropertyValue(splitter, "chunkSize"));
+		ctx.getBean("xquerySplitterInTwo", MessageChannel.class).send(MessageBuilder.withPayload(xmlString).build());
+		PollableChannel output = ctx.getBean("output", PollableChannel.class);
+		List<?> nodes = (List<?>)output.receive(0).getPayload();
+		Assert.assertEquals(2, nodes.size());
+		Assert.assertEquals("person", ((Node)nodes.get(0)).getLocalName());
+		Assert.assertNull(output.receive(0));
+		destroy();
+	}
+
+	@Test
+	public void splitterThree() {
+		setUp("xquerySplitterThree");
+		XQuerySplitter splitter = TestUtils.getPropertyValue(consumer, "handler", XQuerySplitter.class);
+		Assert.assertEquals(StringResultMapper.class, TestUtils.getPropertyValue(splitter, "itemMapper").getClass());
+		Assert.assertNull(TestUtils.getPropertyValue(splitter, "resultType"));
+		destroy();
+	}
+
+	private void setUp(String beanName) {
+		ctx = new ClassPathXmlApplicationContext("XQuerySplitterParserTests-context.xml",XQuerySplitterParserTests.class);
+		consumer = ctx.getBean(beanName, EventDrivenConsumer.class);
+	}
+
+	public void destroy() {
+		ctx.close();
+	}
+}
@@ -15,6 +15,7 @@
  */
 package org.springframework.integration.xquery.config;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -22,6 +23,7 @@ import javax.xml.xquery.XQDataSource;
 import javax.xml.xquery.XQResultSequence;
 
 import junit.framework.Assert;
+import net.sf.saxon.s9api.XdmNode;
 import net.sf.saxon.xqj.SaxonXQDataSource;
 
 import org.junit.Test;
@@ -29,13 +31,21 @@ import org.junit.runner.RunWith;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
+import org.springframework.integration.Message;
+import org.springframework.integration.MessageChannel;
+import org.springframework.integration.core.PollableChannel;
 import org.springframework.integration.endpoint.EventDrivenConsumer;
+import org.springframework.integration.support.MessageBuilder;
 import org.springframework.integration.test.util.TestUtils;
 import org.springframework.integration.transformer.Transformer;
 import org.springframework.integration.xml.XmlPayloadConverter;
 import org.springframework.integration.xquery.DummyXmlPayloadConverter;
+import org.springframework.integration.xquery.XQueryDocumentIndex;
+import org.springframework.integration.xquery.XQueryExecutor;
 import org.springframework.integration.xquery.XQueryParameter;
 import org.springframework.integration.xquery.XQueryResultMapper;
+import org.springframework.integration.xquery.transformer.XQueryAsyncTransformingHandler;
+import org.springframework.integration.xquery.transformer.XQueryHeaderEnricher;
 import org.springframework.integration.xquery.transformer.XQueryTransformer;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
@@ -104,6 +114,42 @@ public class XQueryTransformerParserTests {
 		Assert.assertEquals(Boolean.class, TestUtils.getPropertyValue(transformer, "resultType", Class.class));
 	}
 
+	@Test
+	public void xdmNodeTypeResult() {
+		setUp("xdmNodeResultTypeTransformer");
+		XQueryTransformer transformer = TestUtils.getPropertyValue(consumer, "handler.transformer", XQueryTransformer.class);
+		Assert.assertEquals(XdmNode.class, TestUtils.getPropertyValue(transformer, "resultType", Class.class));
+		Object payload = transformer.transform(MessageBuilder.withPayload("<a><b/></a>").build()).getPayload();
+		Assert.assertTrue(payload instanceof XdmNode);
+		destroy();
+	}
+
+	@Test
+	public void pipeline() {
+		setUp("xqueryPipeline");
+		XQueryTransformer transformer = TestUtils.getPropertyValue(consumer, "handler.transformer", XQueryTransformer.class);
+		Assert.assertEquals(String.class, TestUtils.getPropertyValue(transformer, "resultType", Class.class));
+		Assert.assertEquals("concat(/greeting, '!')", TestUtils.getPropertyValue(transformer, "executor.xQuery", String.class));
+		Assert.assertNotNull(TestUtils.getPropertyValue(transformer, "executor.precedingStage", XQueryExecutor.class));
+		Message<String> message = MessageBuilder.withPayload("<person><name>Mike</name></person>")
+										.setHeader("greeting", "Hello").build();
+		Assert.assertEquals("Hello, Mike!", transformer.transform(message).getPayload());
+		destroy();
+	}
+
+	@Test
+	public void headerEnricher() {
+		setUp("xqueryHeaderEnricher");
+		Transformer transformer = TestUtils.getPropertyValue(consumer, "handler.transformer", Transformer.class);
+		Assert.assertEquals(XQueryHeaderEnricher.class, transformer.getClass());
+		Message<String> message = MessageBuilder.withPayload("<person active=\"true\"><name>Mike</name></person>")
+										.setHeader("name", "John").setHeader("active", false).build();
+		Message<?> enriched = transformer.transform(message);
+		Assert.assertEquals("John", enriched.getHeaders().get("name"));
+		Assert.assertEquals(Boolean.TRUE, enriched.getHeaders().get("active"));
+		destroy();
+	}
+
 	@Test
 	public void stringTypeResult() {
 		setUp("stringResultTypeTransformer");
@@ -118,6 +164,66 @@ public class XQueryTransformerParserTests {
 		Assert.assertEquals(DummyXQueryResultMapper.class, TestUtils.getPropertyValue(transformer, "resultMapper", XQueryResultMapper.class).getClass());
 	}
 
+	@Test
+	public void withStaticDocument() {
+		setUp("staticDocumentTransformer");
+		XQueryTransformer transformer = TestUtils.getPropertyValue(consumer, "handler.transformer", XQueryTransformer.class);
+		XQueryExecutor executor = TestUtils.getPropertyValue(transformer, "executor", XQueryExecutor.class);
+		Assert.assertEquals("mappings", TestUtils.getPropertyValue(executor, "staticDocumentVariable"));
+		List<?> indexes = TestUtils.getPropertyValue(executor, "documentIndexes", List.class);
+		Assert.assertEquals(1, indexes.size());
+		XQueryDocumentIndex index = (XQueryDocumentIndex)indexes.get(0);
+		Assert.assertEquals("student", index.getVariableName());
+		Assert.assertEquals("/mappings/students/student", index.getMatch());
+		Assert.assertEquals("name", index.getUse());
+		Assert.assertEquals("headers['studentName']", index.getKeyExpression());
+		Message<String> message = MessageBuilder.withPayload("<ignored/>").setHeader("studentName", "Veronica").build();
+		Assert.assertEquals(Arrays.asList("Physics", "Chemistry"), transformer.transform(message).getPayload());
+		destroy();
+	}
+
+	@Test
+	public void withTypedParameter() {
+		setUp("typedParameterTransformer");
+		XQueryTransformer transformer = TestUtils.getPropertyValue(consumer, "handler.transformer", XQueryTransformer.class);
+		XQueryExecutor executor = TestUtils.getPropertyValue(transformer, "executor", XQueryExecutor.class);
+		Map<?, ?> parameters = TestUtils.getPropertyValue(executor, "xQueryParameterMap", Map.class);
+		Assert.assertEquals("xs:integer", ((XQueryParameter)parameters.get("count")).getType());
+		Assert.assertEquals(10, TestUtils.getPropertyValue(executor, "resultCacheSize"));
+		Assert.assertSame(ctx.getBean("documentCache"), TestUtils.getPropertyValue(executor, "documentCache"));
+		Message<String> message = MessageBuilder.withPayload("<a/>").setHeader("count", "41").build();
+		Assert.assertEquals("42", transformer.transform(message).getPayload());
+		destroy();
+	}
+
+	@Test
+	public void withPartitions() {
+		setUp("partitionedTransformer");
+		XQueryTransformer transformer = TestUtils.getPropertyValue(consumer, "handler.transformer", XQueryTransformer.class);
+		XQueryExecutor executor = TestUtils.getPropertyValue(transformer, "executor", XQueryExecutor.class);
+		Assert.assertEquals("record", TestUtils.getPropertyValue(executor, "partitionElement"));
+		Assert.assertEquals(2, TestUtils.getPropertyValue(executor, "partitionSize"));
+		Assert.assertSame(ctx.getBean("partitionTaskExecutor"), TestUtils.getPropertyValue(executor, "partitionTaskExecutor"));
+		Message<String> message = MessageBuilder.withPayload(
+				"<feed><record id=\"1\"/><record id=\"2\"/><record id=\"3\"/></feed>").build();
+		Assert.assertEquals(Arrays.asList("2", "3"), transformer.transform(message).getPayload());
+		destroy();
+	}
+
+	@Test
+	public void asyncTransformer() {
+		setUp("asyncTransformer");
+		Assert.assertEquals(XQueryAsyncTransformingHandler.class, TestUtils.getPropertyValue(consumer, "handler").getClass());
+		Assert.assertSame(ctx.getBean("partitionTaskExecutor"),
+				TestUtils.getPropertyValue(consumer, "handler.transformer.executor.asyncExecutor"));
+		Assert.assertEquals(5000L, TestUtils.getPropertyValue(consumer, "handler.transformer.executor.executionTimeout"));
+		ctx.getBean("asyncTransformerIP", MessageChannel.class).send(
+				MessageBuilder.withPayload("<greeting>Hello</greeting>").build());
+		Message<?> transformed = ctx.getBean("asyncOutput", PollableChannel.class).receive(10000);
+		Assert.assertNotNull(transformed);
+		Assert.assertEquals("Hello", transformed.getPayload());
+		destroy();
+	}
 
 	private void setUp(String beanName) {
 		ctx = new ClassPathXmlApplicationContext("XQueryTransformerParserTests-context.xml",XQueryTransformerParserTests.class);
@@ -17,12 +17,16 @@ package org.springframework.integration.xquery.router;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import junit.framework.Assert;
 
 import org.junit.Test;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.integration.Message;
+import org.springframework.integration.handler.ExpressionEvaluatingMessageProcessor;
 import org.springframework.integration.support.MessageBuilder;
 import org.springframework.integration.test.util.TestUtils;
 import org.springframework.integration.xquery.XQueryParameter;
@@ -166,4 +170,92 @@ public class XQueryParameterTests {
 		Collection<Integer> coll = (Collection<Integer>)param.evaluate(message);
 		Assert.assertEquals(2, coll.size());
 	}
+
+	/**
+	 * The common expressions are read directly and give the same values as SpEL
+	 */
+	@Test
+	public void executeDirectAccessExpressions() {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("name", "Archie");
+		Message<?>[] messages = {
+				MessageBuilder.withPayload(new Person("Mike")).setHeader("someHeader", 10).build(),
+				MessageBuilder.withPayload(map).setHeader("someHeader", "value").build()};
+		String[] expressions = {"headers['someHeader']", "headers[ 'missing' ]", "headers.someHeader",
+				"payload", "payload.name", "'it''s'", "15", "-2", "1.5", "true", "null", " headers ['someHeader'] "};
+		for(String expression:expressions) {
+			XQueryParameter param = new XQueryParameter("paramName", expression);
+			Assert.assertNotNull(expression, TestUtils.getPropertyValue(param, "accessor"));
+			ExpressionEvaluatingMessageProcessor<Object> processor = new ExpressionEvaluatingMessageProcessor<Object>(
+					new SpelExpressionParser().parseExpression(expression));
+			for(Message<?> message:messages) {
+				Assert.assertEquals(expression, processor.processMessage(message), param.evaluate(message));
+			}
+		}
+		XQueryParameter param = new XQueryParameter("paramName", "headers['someHeader'] + 1");
+		Assert.assertNull(TestUtils.getPropertyValue(param, "accessor"));
+	}
+
+	/**
+	 * SpEL is evaluated if the expression cannot be resolved directly
+	 */
+	@Test
+	public void executeUnresolvedDirectAccessExpressions() {
+		XQueryParameter param = new XQueryParameter("paramName", "payload.length()");
+		Assert.assertNull(TestUtils.getPropertyValue(param, "accessor"));
+		//Map payload without the key, MapAccessor does not apply, SpEL fails
+		param = new XQueryParameter("paramName", "payload.name");
+		try {
+			param.evaluate(MessageBuilder.withPayload(new HashMap<String, Object>()).build());
+			Assert.fail("Expected an exception from SpEL");
+		} catch (Exception e) {
+			//expected
+		}
+		param = new XQueryParameter("paramName", "headers.missing");
+		try {
+			param.evaluate(MessageBuilder.withPayload("").build());
+			Assert.fail("Expected an exception from SpEL");
+		} catch (Exception e) {
+			//expected
+		}
+	}
+
+	/**
+	 * The getter is invoked once, its exception is not hidden by evaluating SpEL
+	 */
+	@Test
+	public void executeFailingGetter() {
+		XQueryParameter param = new XQueryParameter("paramName", "payload.name");
+		FailingPerson person = new FailingPerson();
+		try {
+			param.evaluate(MessageBuilder.withPayload(person).build());
+			Assert.fail("Expected an IllegalStateException");
+		} catch (IllegalStateException e) {
+			Assert.assertEquals("No name", e.getMessage());
+		}
+		Assert.assertEquals(1, person.invocations);
+	}
+
+	public static class FailingPerson {
+
+		private int invocations;
+
+		public String getName() {
+			invocations++;
+			throw new IllegalStateException("No name");
+		}
+	}
+
+	public static class Person {
+
+		private final String name;
+
+		public Person(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
 }
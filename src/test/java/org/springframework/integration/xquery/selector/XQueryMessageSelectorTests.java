@@ -0,0 +1,55 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery.selector;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.springframework.integration.Message;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.integration.xquery.XQueryExecutor;
+import org.springframework.integration.xquery.XQueryParameter;
+
+/**
+ * The Test class for the {@link XQueryMessageSelector} class
+ * @author Amol Nayak
+ *
+ */
+public class XQueryMessageSelectorTests {
+
+	private final String xmlString = "<people>" +
+						"<person><name>Mike</name></person>" +
+						"<person><name>Jughead</name></person>" +
+					"</people>";
+
+	@Test(expected=IllegalArgumentException.class)
+	public void withNoExecutor() {
+		new XQueryMessageSelector(null);
+	}
+
+	@Test
+	public void acceptMessages() {
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery("declare variable $name as xs:string external; //person[name = $name]");
+		executor.addXQueryParameter(new XQueryParameter("name", "headers['name']"));
+		executor.afterPropertiesSet();
+		XQueryMessageSelector selector = new XQueryMessageSelector(executor);
+		Message<String> message = MessageBuilder.withPayload(xmlString).setHeader("name", "Jughead").build();
+		Assert.assertTrue(selector.accept(message));
+		message = MessageBuilder.withPayload(xmlString).setHeader("name", "Archie").build();
+		Assert.assertFalse(selector.accept(message));
+	}
+}
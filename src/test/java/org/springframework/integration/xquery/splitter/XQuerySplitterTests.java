@@ -0,0 +1,194 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery.splitter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.xquery.XQResultSequence;
+
+import net.sf.saxon.s9api.XdmNode;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.springframework.integration.Message;
+import org.springframework.integration.MessageChannel;
+import org.springframework.integration.aggregator.AggregatingMessageHandler;
+import org.springframework.integration.aggregator.DefaultAggregatingMessageGroupProcessor;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.integration.xquery.XQueryExecutor;
+import org.springframework.integration.xquery.XQueryItemMapper;
+import org.springframework.integration.xquery.XQueryExecutor.StringResultMapper;
+
+/**
+ * The Test class for the {@link XQuerySplitter} class
+ * @author Amol Nayak
+ *
+ */
+public class XQuerySplitterTests {
+
+	private final String xmlString = "<people>" +
+						"<person><name>Mike</name></person>" +
+						"<person><name>Jughead</name></person>" +
+						"<person><name>Archie</name></person>" +
+					"</people>";
+
+	@Test
+	public void withNoExecutor() {
+		try {
+			XQuerySplitter splitter = new XQuerySplitter();
+			splitter.afterPropertiesSet();
+		} catch (IllegalArgumentException e) {
+			Assert.assertEquals("No XQueryExecutor instance provided", e.getMessage());
+		}
+	}
+
+	@Test
+	public void splitItems() {
+		QueueChannel output = new QueueChannel();
+		XQuerySplitter splitter = getSplitter(output);
+		splitter.afterPropertiesSet();
+		Message<String> message = MessageBuilder.withPayload(xmlString).build();
+		splitter.handleMessage(message);
+		String[] names = {"Mike", "Jughead", "Archie"};
+		for(int i = 0;i < names.length;i++) {
+			Message<?> split = output.receive(0);
+			Assert.assertEquals(names[i], split.getPayload());
+			Assert.assertEquals(message.getHeaders().getId(), split.getHeaders().getCorrelationId());
+			Assert.assertEquals(Integer.valueOf(i + 1), split.getHeaders().getSequenceNumber());
+			Assert.assertEquals(Integer.valueOf(3), split.getHeaders().getSequenceSize());
+		}
+		Assert.assertNull(output.receive(0));
+	}
+
+	@Test
+	public void splitChunks() {
+		QueueChannel output = new QueueChannel();
+		XQuerySplitter splitter = getSplitter(output);
+		splitter.setChunkSize(2);
+		splitter.afterPropertiesSet();
+		splitter.handleMessage(MessageBuilder.withPayload(xmlString).build());
+		Message<?> split = output.receive(0);
+		Assert.assertEquals(2, ((List<?>)split.getPayload()).size());
+		Assert.assertEquals(Integer.valueOf(2), split.getHeaders().getSequenceSize());
+		split = output.receive(0);
+		Assert.assertEquals("Archie", ((List<?>)split.getPayload()).get(0));
+		Assert.assertNull(output.receive(0));
+	}
+
+	/**
+	 * Every message is sent before the next item is mapped
+	 */
+	@Test
+	public void splitStreaming() {
+		final List<String> mapped = new ArrayList<String>();
+		final List<Integer> mappedWhenSent = new ArrayList<Integer>();
+		final QueueChannel queue = new QueueChannel();
+		MessageChannel output = new MessageChannel() {
+			public boolean send(Message<?> message, long timeout) {
+				mappedWhenSent.add(mapped.size());
+				return queue.send(message);
+			}
+			public boolean send(Message<?> message) {
+				return send(message, -1);
+			}
+		};
+		XQuerySplitter splitter = getSplitter(output);
+		splitter.setStreaming(true);
+		splitter.setItemMapper(new XQueryItemMapper<String>() {
+			private final StringResultMapper mapper = new StringResultMapper();
+			public String mapItem(XQResultSequence result) {
+				String item = mapper.mapItem(result);
+				mapped.add(item);
+				return item;
+			}
+		});
+		splitter.afterPropertiesSet();
+		splitter.handleMessage(MessageBuilder.withPayload(xmlString).build());
+		//one item is mapped ahead of the message sent, to know whether it is the last one
+		Assert.assertEquals("[2, 3, 3]", mappedWhenSent.toString());
+		for(int i = 1;i <= 3;i++) {
+			Message<?> split = queue.receive(0);
+			Assert.assertEquals(mapped.get(i - 1), split.getPayload());
+			Assert.assertEquals(Integer.valueOf(i), split.getHeaders().getSequenceNumber());
+			//the last one carries the number of messages
+			Assert.assertEquals(Integer.valueOf(i == 3 ? 3 : 0), split.getHeaders().getSequenceSize());
+		}
+	}
+
+	/**
+	 * The aggregator downstream releases the streamed messages once the last one is received
+	 */
+	@Test
+	public void splitStreamingAndAggregate() {
+		QueueChannel output = new QueueChannel();
+		AggregatingMessageHandler aggregator =
+			new AggregatingMessageHandler(new DefaultAggregatingMessageGroupProcessor());
+		StreamingSequenceReleaseStrategy releaseStrategy = new StreamingSequenceReleaseStrategy();
+		aggregator.setReleaseStrategy(releaseStrategy);
+		aggregator.setCorrelationStrategy(releaseStrategy);
+		aggregator.setOutputChannel(output);
+		DirectChannel channel = new DirectChannel();
+		channel.subscribe(aggregator);
+		XQuerySplitter splitter = getSplitter(channel);
+		splitter.setStreaming(true);
+		splitter.afterPropertiesSet();
+		splitter.handleMessage(MessageBuilder.withPayload(xmlString).build());
+		Message<?> aggregated = output.receive(0);
+		Assert.assertNotNull(aggregated);
+		Assert.assertEquals(3, ((List<?>)aggregated.getPayload()).size());
+		Assert.assertNull(output.receive(0));
+	}
+
+	/**
+	 * The atomic items not mapped to nodes are skipped, streaming or not, the last node
+	 * sent carrying the sequence size
+	 */
+	@Test
+	public void splitNodesAmongAtomicItems() {
+		for(boolean streaming:new boolean[] {false, true}) {
+			QueueChannel output = new QueueChannel();
+			XQuerySplitter splitter = getSplitter(output, "(<a/>, 1, <b/>, 2)");
+			splitter.setResultType(XdmNode.class);
+			splitter.setStreaming(streaming);
+			splitter.afterPropertiesSet();
+			splitter.handleMessage(MessageBuilder.withPayload(xmlString).build());
+			Message<?> first = output.receive(0);
+			Message<?> second = output.receive(0);
+			Assert.assertEquals("a", ((XdmNode)first.getPayload()).getNodeName().getLocalName());
+			Assert.assertEquals("b", ((XdmNode)second.getPayload()).getNodeName().getLocalName());
+			Assert.assertEquals(Integer.valueOf(2), second.getHeaders().getSequenceSize());
+			Assert.assertNull(output.receive(0));
+		}
+	}
+
+	private XQuerySplitter getSplitter(MessageChannel output) {
+		return getSplitter(output, "/people/person/name/text()");
+	}
+
+	private XQuerySplitter getSplitter(MessageChannel output, String xQuery) {
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery(xQuery);
+		executor.afterPropertiesSet();
+		XQuerySplitter splitter = new XQuerySplitter();
+		splitter.setExecutor(executor);
+		splitter.setOutputChannel(output);
+		return splitter;
+	}
+}
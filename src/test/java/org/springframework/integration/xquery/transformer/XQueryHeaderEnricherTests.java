@@ -0,0 +1,121 @@
+/*
+ * Copyright 2002-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.integration.xquery.transformer;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.springframework.integration.Message;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.integration.xquery.XQueryExecutor;
+import org.springframework.integration.xquery.XQueryParameter;
+
+/**
+ * The Test class for the {@link XQueryHeaderEnricher} class
+ * @author Amol Nayak
+ *
+ */
+public class XQueryHeaderEnricherTests {
+
+	private static final String ORDER = "<order id=\"42\"><item>1</item><item>2</item></order>";
+
+	@Test
+	public void withHeaders() {
+		XQueryHeaderEnricher enricher = getEnricher();
+		enricher.afterPropertiesSet();
+		Message<?> message = enricher.transform(MessageBuilder.withPayload(ORDER)
+								.setHeader("orderId", "0").setHeader("currency", "eur").build());
+		assertHeaders(message);
+		enricher.destroy();
+	}
+
+	@Test
+	public void withTaskExecutor() {
+		ExecutorService taskExecutor = Executors.newFixedThreadPool(2);
+		XQueryHeaderEnricher enricher = getEnricher();
+		enricher.setTaskExecutor(taskExecutor);
+		enricher.afterPropertiesSet();
+		for(int i = 0;i < 10;i++) {
+			Message<?> message = enricher.transform(MessageBuilder.withPayload(ORDER)
+									.setHeader("orderId", "0").setHeader("currency", "eur").build());
+			assertHeaders(message);
+		}
+		enricher.destroy();
+		taskExecutor.shutdown();
+	}
+
+	@Test
+	public void withOverwrite() {
+		XQueryHeaderEnricher enricher = getEnricher();
+		enricher.setDefaultOverwrite(true);
+		enricher.afterPropertiesSet();
+		Message<?> message = enricher.transform(MessageBuilder.withPayload(ORDER)
+								.setHeader("orderId", "0").setHeader("currency", "eur").build());
+		Assert.assertEquals("42", message.getHeaders().get("orderId"));
+		enricher.destroy();
+	}
+
+	@Test
+	public void withNoHeaders() {
+		try {
+			new XQueryHeaderEnricher().afterPropertiesSet();
+			Assert.fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			Assert.assertEquals("At least one header should be provided", e.getMessage());
+		}
+	}
+
+	private void assertHeaders(Message<?> message) {
+		Assert.assertEquals(ORDER, message.getPayload());
+		//not overwritten by default
+		Assert.assertEquals("0", message.getHeaders().get("orderId"));
+		Assert.assertEquals(3, ((Number)message.getHeaders().get("total")).intValue());
+		Assert.assertEquals(Arrays.asList("1", "2"), message.getHeaders().get("items"));
+		Assert.assertEquals("3 eur", message.getHeaders().get("amount"));
+		Assert.assertFalse(message.getHeaders().containsKey("discount"));
+	}
+
+	private XQueryHeaderEnricher getEnricher() {
+		Map<String, XQueryHeaderValue> headers = new LinkedHashMap<String, XQueryHeaderValue>();
+		headers.put("orderId", new XQueryHeaderValue(getExecutor("string(/order/@id)")));
+		XQueryHeaderValue total = new XQueryHeaderValue(getExecutor("sum(/order/item)"));
+		total.setResultType(Number.class);
+		headers.put("total", total);
+		headers.put("items", new XQueryHeaderValue(getExecutor("/order/item/text()")));
+		XQueryExecutor amount = new XQueryExecutor();
+		amount.setXQuery("declare variable $currency external; concat(sum(/order/item), ' ', $currency)");
+		amount.addXQueryParameter(new XQueryParameter("currency", "headers['currency']"));
+		amount.afterPropertiesSet();
+		headers.put("amount", new XQueryHeaderValue(amount));
+		headers.put("discount", new XQueryHeaderValue(getExecutor("/order/discount")));
+		XQueryHeaderEnricher enricher = new XQueryHeaderEnricher();
+		enricher.setHeaders(headers);
+		return enricher;
+	}
+
+	private XQueryExecutor getExecutor(String xQuery) {
+		XQueryExecutor executor = new XQueryExecutor();
+		executor.setXQuery(xQuery);
+		executor.afterPropertiesSet();
+		return executor;
+	}
+}
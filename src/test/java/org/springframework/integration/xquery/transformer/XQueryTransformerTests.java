@@ -113,7 +113,7 @@ public class XQueryTransformerTests {
 			transformer.setExecutor(getExecutor("//hello"));
 			transformer.setResultType(getClass());
 		} catch (IllegalArgumentException e) {
-			Assert.assertEquals("Valid values for the result type class is String, Boolean, Number or Node, " +
+			Assert.assertEquals("Valid values for the result type class is String, Boolean, Number, Node or XdmNode, " +
 					"for any other type, provide a custom implementation of XQueryResultMapper", e.getMessage());
 		}
 	}